@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.benchmark;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+import de.cosmocode.palava.model.base.AbstractEntity;
+import de.cosmocode.rendering.Renderer;
+import de.cosmocode.rendering.RenderingLevel;
+
+/**
+ * A minimal entity used by all benchmarks.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@Entity
+@Table(name = "benchmark_entities")
+@NamedQueries(
+    @NamedQuery(name = BenchmarkEntity.BY_NAME, query = "SELECT e FROM BenchmarkEntity e WHERE e.name = ?1")
+)
+public class BenchmarkEntity extends AbstractEntity {
+
+    public static final String BY_NAME = "BenchmarkEntity.byName";
+
+    @Id
+    @GeneratedValue
+    private long id;
+
+    private String name;
+
+    public BenchmarkEntity() {
+
+    }
+
+    public BenchmarkEntity(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void render(Renderer renderer, RenderingLevel level) {
+        // not required for benchmarks
+    }
+
+}
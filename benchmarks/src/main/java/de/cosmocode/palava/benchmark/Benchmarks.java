@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Static utility methods shared by all benchmarks.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class Benchmarks {
+
+    /**
+     * The name of the persistence unit backed by an in-memory H2 database.
+     */
+    public static final String UNIT_NAME = "benchmark";
+
+    private static final int BATCH_SIZE = 50;
+
+    private Benchmarks() {
+
+    }
+
+    /**
+     * Inserts the given number of {@link BenchmarkEntity}s.
+     *
+     * @param factory the factory being used
+     * @param rows the number of rows being inserted
+     */
+    public static void populate(EntityManagerFactory factory, int rows) {
+        final EntityManager manager = factory.createEntityManager();
+        try {
+            manager.getTransaction().begin();
+            for (int i = 1; i <= rows; i++) {
+                manager.persist(new BenchmarkEntity("entity-" + i));
+                if (i % BATCH_SIZE == 0) {
+                    manager.flush();
+                    manager.clear();
+                }
+            }
+            manager.getTransaction().commit();
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Provides the lowest identifier of all {@link BenchmarkEntity}s.
+     *
+     * @param factory the factory being used
+     * @return the lowest identifier
+     */
+    public static long firstId(EntityManagerFactory factory) {
+        final EntityManager manager = factory.createEntityManager();
+        try {
+            return manager.createQuery("SELECT MIN(e.id) FROM BenchmarkEntity e", Long.class).getSingleResult();
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Creates a proxy for the given interface which answers every call with null.
+     *
+     * @param <T> the generic interface type
+     * @param type the interface class
+     * @return a new proxy
+     */
+    public static <T> T proxy(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+
+            }));
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.concurrent.ExecutorService;
+
+import javax.persistence.EntityManager;
+
+import de.cosmocode.palava.benchmark.BenchmarkEntity;
+import de.cosmocode.palava.jpa.PersistenceService;
+
+/**
+ * An entity service for {@link BenchmarkEntity}s.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class BenchmarkEntityService extends SoftDeletingEntityService<BenchmarkEntity> {
+
+    private final PersistenceService service;
+
+    private final ExecutorService executor;
+
+    private EntityManager manager;
+
+    public BenchmarkEntityService(PersistenceService service, ExecutorService executor) {
+        this.service = service;
+        this.executor = executor;
+    }
+
+    public void setEntityManager(EntityManager manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    protected EntityManager entityManager() {
+        return manager;
+    }
+
+    @Override
+    protected Class<BenchmarkEntity> entityClass() {
+        return BenchmarkEntity.class;
+    }
+
+    @Override
+    protected PersistenceService persistenceService() {
+        return service;
+    }
+
+    @Override
+    protected ExecutorService executor() {
+        return executor;
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+import de.cosmocode.palava.benchmark.BenchmarkEntity;
+import de.cosmocode.palava.benchmark.Benchmarks;
+import de.cosmocode.palava.jpa.PersistenceService;
+import de.cosmocode.palava.jpa.PersistenceServices;
+
+/**
+ * Measures the throughput of creating entities one by one and in chunks.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CreateBenchmark {
+
+    @Param("10000")
+    private int rows;
+
+    private PersistenceService service;
+
+    private BenchmarkEntityService entities;
+
+    private List<BenchmarkEntity> batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = PersistenceServices.create(Benchmarks.UNIT_NAME);
+        entities = new BenchmarkEntityService(service, null);
+    }
+
+    @Setup(Level.Invocation)
+    public void open() {
+        batch = Lists.newArrayListWithCapacity(rows);
+        for (int i = 0; i < rows; i++) {
+            batch.add(new BenchmarkEntity("created-" + i));
+        }
+        final EntityManager manager = service.createEntityManager();
+        entities.setEntityManager(manager);
+        manager.getTransaction().begin();
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        final EntityManager manager = entities.entityManager();
+        manager.getTransaction().commit();
+        manager.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    /**
+     * Persists every entity using {@link EntityService#create(Object)}.
+     */
+    @Benchmark
+    public void create() {
+        for (BenchmarkEntity entity : batch) {
+            entities.create(entity);
+        }
+    }
+
+    /**
+     * Persists all entities using {@link EntityService#createAll(Iterable)}.
+     */
+    @Benchmark
+    public void createAll() {
+        entities.createAll(batch);
+    }
+
+}
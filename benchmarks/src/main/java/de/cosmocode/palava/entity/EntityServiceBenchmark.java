@@ -0,0 +1,125 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+import de.cosmocode.palava.benchmark.BenchmarkEntity;
+import de.cosmocode.palava.benchmark.Benchmarks;
+import de.cosmocode.palava.jpa.PersistenceService;
+import de.cosmocode.palava.jpa.PersistenceServices;
+
+/**
+ * Measures query construction, preparation and lookup costs of {@link AbstractReadOnlyEntityService}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EntityServiceBenchmark {
+
+    private static final int LOOKUP_SIZE = 200;
+
+    private PersistenceService service;
+
+    private BenchmarkEntityService entities;
+
+    private List<Long> identifiers;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = PersistenceServices.create(Benchmarks.UNIT_NAME);
+        Benchmarks.populate(service, 1000);
+        entities = new BenchmarkEntityService(service, null);
+        entities.setEntityManager(service.get());
+        final long first = Benchmarks.firstId(service);
+        identifiers = Lists.newArrayListWithCapacity(LOOKUP_SIZE);
+        for (int i = 0; i < LOOKUP_SIZE; i++) {
+            identifiers.add(first + i * 3);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    public TypedQuery<BenchmarkEntity> prepare() {
+        return entities.prepare(BenchmarkEntity.BY_NAME, "entity-1");
+    }
+
+    @Benchmark
+    public TypedQuery<BenchmarkEntity> typedQuery() {
+        return entities.getTypedQuery();
+    }
+
+    @Benchmark
+    public List<BenchmarkEntity> list() {
+        return entities.list(BenchmarkEntity.BY_NAME, "entity-1");
+    }
+
+    @Benchmark
+    public List<BenchmarkEntity> findEach() {
+        final EntityManager manager = service.createEntityManager();
+        try {
+            final List<BenchmarkEntity> list = Lists.newArrayListWithCapacity(identifiers.size());
+            for (Long identifier : identifiers) {
+                list.add(manager.find(BenchmarkEntity.class, identifier));
+            }
+            return list;
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Benchmark
+    public List<BenchmarkEntity> getBulk() {
+        final EntityManager manager = service.createEntityManager();
+        try {
+            final BenchmarkEntityService lookup = new BenchmarkEntityService(service, null);
+            lookup.setEntityManager(manager);
+            return lookup.get(identifiers);
+        } finally {
+            manager.close();
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.cosmocode.collections.Procedure;
+import de.cosmocode.palava.benchmark.BenchmarkEntity;
+import de.cosmocode.palava.benchmark.Benchmarks;
+import de.cosmocode.palava.jpa.PersistenceService;
+import de.cosmocode.palava.jpa.PersistenceServices;
+
+/**
+ * Measures the throughput of iterating a whole table using different paging strategies.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IterationBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int batchSize;
+
+    @Param("100000")
+    private int rows;
+
+    private PersistenceService service;
+
+    private ExecutorService executor;
+
+    private BenchmarkEntityService entities;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = PersistenceServices.create(Benchmarks.UNIT_NAME);
+        Benchmarks.populate(service, rows);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        entities = new BenchmarkEntityService(service, executor);
+    }
+
+    @Setup(Level.Invocation)
+    public void open() {
+        entities.setEntityManager(service.createEntityManager());
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        entities.entityManager().close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        service.close();
+    }
+
+    private void consume(Iterable<BenchmarkEntity> iterable, Blackhole hole) {
+        for (BenchmarkEntity entity : iterable) {
+            hole.consume(entity);
+        }
+    }
+
+    /**
+     * Pages using setFirstResult/setMaxResults.
+     *
+     * @param hole the blackhole
+     */
+    @Benchmark
+    public void offset(Blackhole hole) {
+        consume(entities.iterate(batchSize), hole);
+    }
+
+    /**
+     * Pages using keyset pagination.
+     *
+     * @param hole the blackhole
+     */
+    @Benchmark
+    public void keyset(Blackhole hole) {
+        consume(entities.seek(batchSize), hole);
+    }
+
+    /**
+     * Pages using keyset pagination in the background.
+     *
+     * @param hole the blackhole
+     */
+    @Benchmark
+    public void prefetch(Blackhole hole) {
+        consume(entities.prefetch(batchSize, 2), hole);
+    }
+
+    /**
+     * Streams using fetch size hints and detaching consumed chunks.
+     *
+     * @param hole the blackhole
+     */
+    @Benchmark
+    public void stream(Blackhole hole) {
+        final EntityStream<BenchmarkEntity> stream = entities.stream(batchSize, true);
+        try {
+            while (stream.hasNext()) {
+                hole.consume(stream.next());
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Applies a procedure to every entity on the calling thread.
+     *
+     * @return the sum of all identifiers
+     */
+    @Benchmark
+    public long each() {
+        final Sum sum = new Sum();
+        entities.each(sum, batchSize, Batch.CLEAR);
+        return sum.get();
+    }
+
+    /**
+     * Applies a procedure to every entity using one partition per processor.
+     *
+     * @return the sum of all identifiers
+     */
+    @Benchmark
+    public long eachParallel() {
+        final Sum sum = new Sum();
+        entities.eachParallel(sum, batchSize, Batch.CLEAR, Runtime.getRuntime().availableProcessors());
+        return sum.get();
+    }
+
+    /**
+     * A thread-safe procedure which sums up identifiers.
+     */
+    private static final class Sum extends AtomicLong implements Procedure<BenchmarkEntity> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void apply(BenchmarkEntity input) {
+            addAndGet(input.getId());
+        }
+
+    }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cosmocode.palava.benchmark.BenchmarkEntity;
+import de.cosmocode.palava.benchmark.Benchmarks;
+import de.cosmocode.palava.jpa.PersistenceService;
+import de.cosmocode.palava.jpa.PersistenceServices;
+
+/**
+ * Measures soft deleting all entities using dirty checking and set-based updates.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SoftDeleteBenchmark {
+
+    @Param("10000")
+    private int rows;
+
+    private PersistenceService service;
+
+    private BenchmarkEntityService entities;
+
+    private List<Long> identifiers;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = PersistenceServices.create(Benchmarks.UNIT_NAME);
+        Benchmarks.populate(service, rows);
+        entities = new BenchmarkEntityService(service, null);
+        final EntityManager manager = service.createEntityManager();
+        try {
+            identifiers = manager.createQuery("SELECT e.id FROM BenchmarkEntity e", Long.class).getResultList();
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void open() {
+        final EntityManager manager = service.createEntityManager();
+        entities.setEntityManager(manager);
+        manager.getTransaction().begin();
+        entities.restoreAll(identifiers);
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        final EntityManager manager = entities.entityManager();
+        manager.getTransaction().commit();
+        manager.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    /**
+     * Loads every entity and marks it as deleted, relying on dirty checking.
+     */
+    @Benchmark
+    public void dirtyChecking() {
+        for (BenchmarkEntity entity : entities.get(identifiers)) {
+            entities.delete(entity);
+        }
+        entities.entityManager().flush();
+    }
+
+    /**
+     * Marks all entities as deleted using set-based updates.
+     */
+    @Benchmark
+    public int setBased() {
+        return entities.deleteAll(identifiers);
+    }
+
+}
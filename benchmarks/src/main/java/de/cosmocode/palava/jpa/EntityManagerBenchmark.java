@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cosmocode.palava.benchmark.BenchmarkEntity;
+import de.cosmocode.palava.benchmark.Benchmarks;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Measures the delegation overhead of {@link ForwardingEntityManager} based decorators.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EntityManagerBenchmark {
+
+    private DefaultPersistenceService service;
+
+    private EntityManager direct;
+
+    private EntityManager decorated;
+
+    private long id;
+
+    @Setup
+    public void setUp() throws LifecycleException {
+        service = new DefaultPersistenceService(Benchmarks.UNIT_NAME);
+        service.initialize();
+        Benchmarks.populate(service, 10);
+        id = Benchmarks.firstId(service);
+        direct = service.createEntityManager();
+        decorated = service.get();
+        // load the entity into both persistence contexts
+        direct.find(BenchmarkEntity.class, id);
+        decorated.find(BenchmarkEntity.class, id);
+    }
+
+    @TearDown
+    public void tearDown() {
+        direct.close();
+        DestroyableEntityManager.class.cast(decorated).destroy();
+        service.dispose();
+    }
+
+    @Benchmark
+    public BenchmarkEntity findDirect() {
+        return direct.find(BenchmarkEntity.class, id);
+    }
+
+    @Benchmark
+    public BenchmarkEntity findDecorated() {
+        return decorated.find(BenchmarkEntity.class, id);
+    }
+
+    @Benchmark
+    public CriteriaBuilder criteriaBuilderDirect() {
+        return direct.getCriteriaBuilder();
+    }
+
+    @Benchmark
+    public CriteriaBuilder criteriaBuilderDecorated() {
+        return decorated.getCriteriaBuilder();
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Allows benchmarks outside of this package to create initialized {@link PersistenceService}s.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class PersistenceServices {
+
+    private PersistenceServices() {
+
+    }
+
+    /**
+     * Creates and initializes a {@link PersistenceService} for the given unit.
+     *
+     * @param unitName the persistence unit name
+     * @return a new initialized service
+     * @throws LifecycleException if initialization failed
+     */
+    public static PersistenceService create(String unitName) throws LifecycleException {
+        final DefaultPersistenceService service = new DefaultPersistenceService(unitName);
+        service.initialize();
+        return service;
+    }
+
+}
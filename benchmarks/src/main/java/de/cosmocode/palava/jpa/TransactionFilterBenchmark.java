@@ -0,0 +1,203 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.Provider;
+
+import de.cosmocode.palava.benchmark.BenchmarkEntity;
+import de.cosmocode.palava.benchmark.Benchmarks;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCallFilterChain;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+
+/**
+ * Measures the per command overhead of {@link TransactionFilter#filter}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TransactionFilterBenchmark {
+
+    private final IpcCommand readWrite = new ReadWriteCommand();
+
+    private final IpcCommand readOnly = new ReadOnlyCommand();
+
+    private final IpcCall call = Benchmarks.proxy(IpcCall.class);
+
+    private DefaultPersistenceService service;
+
+    private DestroyableEntityManager current;
+
+    private TransactionFilter filter;
+
+    private TransactionMetrics metrics;
+
+    private long id;
+
+    private final IpcCallFilterChain untouched = new IpcCallFilterChain() {
+
+        @Override
+        public Map<String, Object> filter(IpcCall c, IpcCommand command) {
+            return Collections.emptyMap();
+        }
+
+    };
+
+    private final IpcCallFilterChain find = new IpcCallFilterChain() {
+
+        @Override
+        public Map<String, Object> filter(IpcCall c, IpcCommand command) {
+            return Collections.<String, Object>singletonMap("entity", current.find(BenchmarkEntity.class, id));
+        }
+
+    };
+
+    @Setup
+    public void setUp() throws LifecycleException {
+        service = new DefaultPersistenceService(Benchmarks.UNIT_NAME);
+        service.initialize();
+        Benchmarks.populate(service, 1000);
+        id = Benchmarks.firstId(service);
+        metrics = new TransactionMetrics();
+        filter = new TransactionFilter(new Provider<EntityManager>() {
+
+            @Override
+            public EntityManager get() {
+                return current;
+            }
+
+        }, metrics);
+    }
+
+    @TearDown
+    public void tearDown() {
+        metrics.dispose();
+        service.dispose();
+    }
+
+    private Map<String, Object> filter(IpcCommand command, IpcCallFilterChain chain)
+        throws IpcCommandExecutionException {
+        current = DestroyableEntityManager.class.cast(service.get());
+        try {
+            return filter.filter(call, command, chain);
+        } finally {
+            current.destroy();
+        }
+    }
+
+    /**
+     * A command which never touches the database.
+     *
+     * @return the result
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Benchmark
+    public Map<String, Object> untouched() throws IpcCommandExecutionException {
+        return filter(readWrite, untouched);
+    }
+
+    /**
+     * A command which loads a single entity.
+     *
+     * @return the result
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Benchmark
+    public Map<String, Object> find() throws IpcCommandExecutionException {
+        return filter(readWrite, find);
+    }
+
+    /**
+     * A read only command which loads a single entity.
+     *
+     * @return the result
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Benchmark
+    public Map<String, Object> findReadOnly() throws IpcCommandExecutionException {
+        return filter(readOnly, find);
+    }
+
+    /**
+     * Loads a single entity without any filter as a baseline.
+     *
+     * @return the result
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Benchmark
+    public Map<String, Object> unfiltered() throws IpcCommandExecutionException {
+        current = DestroyableEntityManager.class.cast(service.get());
+        try {
+            return find.filter(call, readWrite);
+        } finally {
+            current.destroy();
+        }
+    }
+
+    /**
+     * A read/write command.
+     */
+    static final class ReadWriteCommand implements IpcCommand {
+
+        @Transactional
+        @Override
+        public void execute(IpcCall c, Map<String, Object> result) {
+            // never called
+        }
+
+    }
+
+    /**
+     * A read only command.
+     */
+    static final class ReadOnlyCommand implements IpcCommand {
+
+        @Transactional(readOnly = true)
+        @Override
+        public void execute(IpcCall c, Map<String, Object> result) {
+            // never called
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.model.base;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cosmocode.rendering.Renderer;
+import de.cosmocode.rendering.RenderingLevel;
+
+/**
+ * Measures in-memory sorting using the {@link EntityBase} orderings and {@link EntityOrderings}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class OrderingBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int size;
+
+    private List<EntityBase> entities;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final long now = System.currentTimeMillis();
+        entities = new ArrayList<EntityBase>(size);
+        for (int i = 0; i < size; i++) {
+            final SortableEntity entity = new SortableEntity(random.nextLong());
+            entity.setCreatedAt(new Date(now - random.nextInt(Integer.MAX_VALUE)));
+            // every tenth entity has never been modified
+            entity.setModifiedAt(i % 10 == 0 ? null : new Date(now - random.nextInt(Integer.MAX_VALUE)));
+            entities.add(entity);
+        }
+    }
+
+    /**
+     * Copies the list, which is included in every sort benchmark.
+     *
+     * @return the copy
+     */
+    @Benchmark
+    public List<EntityBase> copy() {
+        return new ArrayList<EntityBase>(entities);
+    }
+
+    private List<EntityBase> sort(Comparator<? super EntityBase> comparator) {
+        final List<EntityBase> copy = new ArrayList<EntityBase>(entities);
+        Collections.sort(copy, comparator);
+        return copy;
+    }
+
+    @Benchmark
+    public List<EntityBase> orderById() {
+        return sort(EntityBase.ORDER_BY_ID);
+    }
+
+    @Benchmark
+    public List<EntityBase> orderByAge() {
+        return sort(EntityBase.ORDER_BY_AGE);
+    }
+
+    @Benchmark
+    public List<EntityBase> orderByModification() {
+        return sort(EntityBase.ORDER_BY_MODIFICATION);
+    }
+
+    @Benchmark
+    public List<EntityBase> sortById() {
+        final List<EntityBase> copy = new ArrayList<EntityBase>(entities);
+        EntityOrderings.sortById(copy);
+        return copy;
+    }
+
+    @Benchmark
+    public List<EntityBase> sortByAge() {
+        final List<EntityBase> copy = new ArrayList<EntityBase>(entities);
+        EntityOrderings.sortByAge(copy);
+        return copy;
+    }
+
+    @Benchmark
+    public List<EntityBase> sortByModification() {
+        final List<EntityBase> copy = new ArrayList<EntityBase>(entities);
+        EntityOrderings.sortByModification(copy);
+        return copy;
+    }
+
+    /**
+     * A plain, non persistent entity.
+     */
+    private static final class SortableEntity extends AbstractEntity {
+
+        private final long id;
+
+        public SortableEntity(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public void render(Renderer renderer, RenderingLevel level) {
+            // not required for benchmarks
+        }
+
+    }
+
+}
@@ -16,16 +16,36 @@
 
 package de.cosmocode.palava.entity;
 
-import javax.management.Query;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import de.cosmocode.collections.Procedure;
+import de.cosmocode.palava.jpa.PersistenceConfig;
+import de.cosmocode.palava.jpa.PersistenceService;
 import de.cosmocode.palava.jpa.Transactional;
 import de.cosmocode.palava.model.base.Copyable;
 
@@ -46,20 +66,124 @@ public abstract class AbstractEntityService<T> extends AbstractReadOnlyEntitySer
     implements EntityService<T> {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractEntityService.class);
-    
+
+    private static final int DEFAULT_CHUNK_SIZE = 50;
+
+    private static final List<String> BATCH_SIZE_PROPERTIES = ImmutableList.of(
+        "hibernate.jdbc.batch_size",
+        "eclipselink.jdbc.batch-writing.size"
+    );
+
+    private static final Ordering<Object> BY_TYPE = Ordering.natural().onResultOf(new Function<Object, String>() {
+
+        @Override
+        public String apply(Object from) {
+            return from.getClass().getName();
+        }
+
+    });
+
+    private ExecutorService parallelExecutor;
+
+    @Inject(optional = true)
+    void setParallelExecutor(@Named(PersistenceConfig.PARALLEL_EXECUTOR) ExecutorService parallelExecutor) {
+        this.parallelExecutor = Preconditions.checkNotNull(parallelExecutor, "ParallelExecutor");
+    }
+
+    /**
+     * Provides the {@link ExecutorService} this implementation uses to process partitions in
+     * {@link #eachParallel(Procedure, int, Procedure, int)}, which should be bounded and must not be
+     * the {@link #executor() prefetching executor}, otherwise fetches queue behind partitions.
+     * The default implementation returns the executor bound using {@link PersistenceConfig#PARALLEL_EXECUTOR}
+     * or, if there is none, an executor of this service using one thread per processor and a bounded queue
+     * which runs partitions in the calling thread once the queue is full.
+     *
+     * @since 3.6
+     * @return an {@link ExecutorService}
+     */
+    protected synchronized ExecutorService parallelExecutor() {
+        if (parallelExecutor == null) {
+            parallelExecutor = BackgroundExecutor.parallel(entityClass().getSimpleName());
+        }
+        return parallelExecutor;
+    }
+
     @Transactional
     @Override
     public T create(T entity) {
         LOG.debug("Creating {} in database", entity);
         entityManager().persist(entity);
+        invalidateQueries();
         return entity;
     }
 
+    @Transactional
+    @Override
+    public void createAll(Iterable<? extends T> entities) {
+        createAll(entities, chunkSize());
+    }
+
+    @Transactional
+    @Override
+    public void createAll(Iterable<? extends T> entities, int chunkSize) {
+        Preconditions.checkNotNull(entities, "Entities");
+        Preconditions.checkArgument(chunkSize > 0, "ChunkSize must be positive");
+        final EntityManager manager = entityManager();
+        final long start = System.nanoTime();
+        int count = 0;
+        for (List<? extends T> chunk : Iterables.partition(entities, chunkSize)) {
+            final List<T> sorted = Lists.<T>newArrayList(chunk);
+            // inserts of the same type are batched by the provider
+            Collections.sort(sorted, BY_TYPE);
+            for (T entity : sorted) {
+                manager.persist(entity);
+            }
+            manager.flush();
+            manager.clear();
+            count += sorted.size();
+            LOG.trace("Created {} entities so far", count);
+        }
+        invalidateQueries();
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.debug("Created {} {}s in {}ms ({} per second)", new Object[] {
+            count, entityClass().getSimpleName(), millis, millis == 0 ? count : count * 1000L / millis
+        });
+    }
+
+    /**
+     * Provides the chunk size used by {@link #createAll(Iterable)}, which defaults to
+     * the JDBC batch size of the underlying factory's properties or {@value #DEFAULT_CHUNK_SIZE}
+     * if none is configured.
+     *
+     * @since 3.6
+     * @return the chunk size
+     */
+    protected int chunkSize() {
+        final Map<String, Object> properties = entityManager().getEntityManagerFactory().getProperties();
+        for (String key : BATCH_SIZE_PROPERTIES) {
+            final Object value = properties.get(key);
+            if (value == null) {
+                continue;
+            }
+            try {
+                final int size = Integer.parseInt(value.toString().trim());
+                if (size > 0) {
+                    return size;
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid batch size {}={}", key, value);
+            }
+        }
+        return DEFAULT_CHUNK_SIZE;
+    }
+
     @Transactional
     @Override
     public T update(T entity) {
         LOG.debug("Updating {}", entity);
-        return entityManager().merge(entity);
+        final T merged = entityManager().merge(entity);
+        invalidate(identifierFunction().apply(merged));
+        return merged;
     }
 
     @Transactional
@@ -86,7 +210,7 @@ public abstract class AbstractEntityService<T> extends AbstractReadOnlyEntitySer
     @Transactional
     @Override
     public void each(Procedure<? super T> procedure, int batchSize) {
-        each(getTypedQuery(), procedure, batchSize);
+        each(procedure, batchSize, Batch.NOOP);
     }
 
     @Override
@@ -103,7 +227,8 @@ public abstract class AbstractEntityService<T> extends AbstractReadOnlyEntitySer
     @Transactional
     @Override
     public void each(Procedure<? super T> procedure, int batchSize, Procedure<? super EntityManager> batchProcedure) {
-        each(getTypedQuery(), procedure, batchSize, batchProcedure);
+        // iterating the whole table allows keyset pagination which keeps page costs constant
+        each(seek(batchSize).iterator(), procedure, batchSize, batchProcedure);
     }
 
     @Override
@@ -115,11 +240,23 @@ public abstract class AbstractEntityService<T> extends AbstractReadOnlyEntitySer
     @Transactional
     @Override
     public void each(TypedQuery<T> query, Procedure<? super T> procedure, int batchSize,
+        Procedure<? super EntityManager> batchProcedure) {
+        // chunks are loaded after the batch procedure ran, clearing does not detach unprocessed entities
+        final EntityStream<T> stream = stream(query, batchSize, false);
+        try {
+            each(stream, procedure, batchSize, batchProcedure);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void each(Iterator<T> entities, Procedure<? super T> procedure, int batchSize,
         Procedure<? super EntityManager> batchProcedure) {
         Preconditions.checkNotNull(procedure, "Procedure");
         Preconditions.checkNotNull(batchProcedure, "BatchProcedure");
         int i = 1;
-        for (T entity : iterate(query, batchSize)) {
+        while (entities.hasNext()) {
+            final T entity = entities.next();
             LOG.trace("Applying {} to {}", procedure, entity);
             procedure.apply(entity);
             if (i++ % batchSize == 0) {
@@ -128,6 +265,142 @@ public abstract class AbstractEntityService<T> extends AbstractReadOnlyEntitySer
         }
     }
 
+    @Override
+    public void eachPrefetched(Procedure<? super T> procedure, int batchSize, int depth) {
+        Preconditions.checkNotNull(procedure, "Procedure");
+        for (T entity : prefetch(batchSize, depth)) {
+            LOG.trace("Applying {} to {}", procedure, entity);
+            procedure.apply(entity);
+        }
+    }
+
+    @Override
+    public void eachParallel(Procedure<? super T> procedure, int batchSize,
+        Procedure<? super EntityManager> batchProcedure, int partitions) {
+        Preconditions.checkNotNull(procedure, "Procedure");
+        Preconditions.checkNotNull(batchProcedure, "BatchProcedure");
+        Preconditions.checkArgument(batchSize > 0, "BatchSize must be positive");
+        Preconditions.checkArgument(partitions > 0, "Partitions must be positive");
+
+        final PersistenceService service = persistenceService();
+        final ExecutorService executor = parallelExecutor();
+        final Class<?> type = entityType().getIdType().getJavaType();
+        final String attribute = identifierName();
+        // fail before querying anything if the identifier is not integral
+        identifier(0L, type);
+
+        final Object[] bounds = bounds(service, attribute);
+        if (bounds[0] == null) {
+            LOG.debug("No {}s found", entityClass().getSimpleName());
+            return;
+        }
+
+        final long min = Number.class.cast(bounds[0]).longValue();
+        final long max = Number.class.cast(bounds[1]).longValue();
+        final long width = (max - min) / partitions + 1;
+
+        final Keyset<T> keyset = new Keyset<T>(entityClass(), entityType().getName(), attribute, identifierFunction());
+        final List<Partition<T>> tasks = Lists.newArrayListWithCapacity(partitions);
+        long lower = min;
+        while (true) {
+            final long upper = max - lower < width ? max : lower + width - 1;
+            final Keyset<T> range = keyset.range(identifier(lower, type), identifier(upper, type));
+            tasks.add(new Partition<T>(service, range, procedure, batchSize, batchProcedure));
+            if (upper == max) {
+                break;
+            }
+            lower = upper + 1;
+        }
+
+        LOG.debug("Processing {}s in {} partitions", entityClass().getSimpleName(), tasks.size());
+        final List<Future<Integer>> futures;
+        try {
+            futures = executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(e);
+        }
+
+        RuntimeException failure = null;
+        int count = 0;
+        for (Future<Integer> future : futures) {
+            try {
+                count += future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException(e);
+            } catch (ExecutionException e) {
+                LOG.error("Partition failed", e.getCause());
+                if (failure == null) {
+                    failure = propagate(e.getCause());
+                }
+            }
+        }
+
+        if (failure == null) {
+            LOG.debug("Processed {} {}s", count, entityClass().getSimpleName());
+        } else {
+            throw failure;
+        }
+    }
+
+    private Object[] bounds(PersistenceService service, String attribute) {
+        final String jpql = String.format("SELECT MIN(e.%s), MAX(e.%s) FROM %s e",
+            attribute, attribute, entityType().getName());
+        final EntityManager manager = service.createEntityManager();
+        try {
+            return (Object[]) manager.createQuery(jpql).getSingleResult();
+        } finally {
+            manager.close();
+        }
+    }
+
+    private static Object identifier(long value, Class<?> type) {
+        if (type == Long.class || type == long.class) {
+            return Long.valueOf(value);
+        } else if (type == Integer.class || type == int.class) {
+            return Integer.valueOf((int) value);
+        } else if (type == Short.class || type == short.class) {
+            return Short.valueOf((short) value);
+        } else {
+            throw new UnsupportedOperationException(String.format("%s identifiers can not be partitioned", type));
+        }
+    }
+
+    private static RuntimeException propagate(Throwable cause) {
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        } else if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        } else {
+            return new PersistenceException(cause);
+        }
+    }
+
+    /**
+     * Deletes all entities associated with the given identifiers one by one using
+     * {@link #delete(Object)}, which loads them beforehand. Sub-classes are encouraged
+     * to override this method, if deleting allows set-based statements.
+     *
+     * @since 3.6
+     */
+    @Transactional
+    @Override
+    public int deleteAll(Collection<?> identifiers) {
+        Preconditions.checkNotNull(identifiers, "Identifiers");
+        final Collection<T> entities = getAll(identifiers).values();
+        for (T entity : entities) {
+            delete(entity);
+        }
+        return entities.size();
+    }
+
+    @Transactional
+    @Override
+    public int deleteAll(Query query, Object... parameters) {
+        return deleteAll(prepare(query, parameters).getResultList());
+    }
+
     @Transactional
     @Override
     public <C extends Copyable<T>> T createCopy(C entity) {
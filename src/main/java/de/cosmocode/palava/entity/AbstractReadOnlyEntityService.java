@@ -16,16 +16,48 @@
 
 package de.cosmocode.palava.entity;
 
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Primitives;
+import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.jpa.DestroyableEntityManager;
+import de.cosmocode.palava.jpa.PersistenceConfig;
+import de.cosmocode.palava.jpa.PersistenceService;
 import de.cosmocode.palava.jpa.Transactional;
+import de.cosmocode.palava.jpa.cache.EntityCache;
+import de.cosmocode.palava.jpa.cache.QueryResultCache;
+import de.cosmocode.palava.model.base.EntityBase;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityNotFoundException;
 import javax.persistence.PersistenceException;
+import javax.persistence.PersistenceUnitUtil;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Abstract skeleton implementation of the {@link ReadOnlyEntityService} interface.
@@ -35,6 +67,14 @@ import java.util.List;
  */
 public abstract class AbstractReadOnlyEntityService<T> implements ReadOnlyEntityService<T> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractReadOnlyEntityService.class);
+
+    private static final int DEFAULT_IN_LIMIT = 500;
+
+    private volatile String selectAll;
+
+    private ExecutorService executor;
+
     /**
      * Provides an {@link EntityManager} this implementation uses to do it's
      * work. Implementations will ususally delegate to an injected {@link Provider}.
@@ -50,12 +90,269 @@ public abstract class AbstractReadOnlyEntityService<T> implements ReadOnlyEntity
      */
     protected abstract Class<T> entityClass();
 
+    /**
+     * Provides the {@link PersistenceService} this implementation uses to create
+     * short-lived {@link EntityManager}s for background work. The default implementation
+     * returns the factory of {@link #entityManager()}, which is the {@link PersistenceService}
+     * for all {@link EntityManager}s provided by one.
+     *
+     * @since 3.6
+     * @return a {@link PersistenceService}
+     * @throws UnsupportedOperationException if the factory of {@link #entityManager()}
+     *         is no {@link PersistenceService} and this method has not been overridden
+     */
+    protected PersistenceService persistenceService() {
+        final EntityManagerFactory factory = entityManager().getEntityManagerFactory();
+        if (factory instanceof PersistenceService) {
+            return PersistenceService.class.cast(factory);
+        } else {
+            throw new UnsupportedOperationException(String.format(
+                "%s is no PersistenceService, override persistenceService()", factory));
+        }
+    }
+
+    @Inject(optional = true)
+    void setExecutor(@Named(PersistenceConfig.PREFETCH_EXECUTOR) ExecutorService executor) {
+        this.executor = Preconditions.checkNotNull(executor, "Executor");
+    }
+
+    /**
+     * Provides the {@link ExecutorService} this implementation uses to prefetch, which should be bounded.
+     * The default implementation returns the executor bound using {@link PersistenceConfig#PREFETCH_EXECUTOR}
+     * or, if there is none, an executor of this service using one thread per processor and a bounded queue.
+     * Fetches rejected by the executor are done by the iterating thread.
+     *
+     * @since 3.6
+     * @return an {@link ExecutorService}
+     */
+    protected synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = BackgroundExecutor.prefetching(entityClass().getSimpleName());
+        }
+        return executor;
+    }
+
+    /**
+     * Provides the {@link EntityCache} consulted by {@link #getCached(Object)}.
+     * The default implementation returns null, which disables caching.
+     *
+     * <p>
+     *   Entities not yet present in the current persistence context are then loaded using a
+     *   short-lived {@link EntityManager} of the {@link #persistenceService()} and returned
+     *   <strong>detached</strong>. They are shared with other threads and must be treated as read only,
+     *   changes have to be applied using {@link EntityService#update(Object)}.
+     * </p>
+     *
+     * @since 3.6
+     * @return the entity cache or null
+     */
+    protected EntityCache entityCache() {
+        return null;
+    }
+
     @Transactional
     @Override
     public T get(Object identifier) {
         return entityManager().find(entityClass(), identifier);
     }
 
+    @Transactional
+    @Override
+    public T getCached(Object identifier) {
+        final EntityCache cache = entityCache();
+        if (cache == null) {
+            return get(identifier);
+        } else {
+            return get(cache, identifier);
+        }
+    }
+
+    private T get(EntityCache cache, Object identifier) {
+        final EntityManager manager = entityManager();
+        // the persistence context of an unused unit of work is empty, opening it would take a connection
+        if (!(manager instanceof DestroyableEntityManager) ||
+            DestroyableEntityManager.class.cast(manager).isDelegateOpen()) {
+            final PersistenceUnitUtil util = manager.getEntityManagerFactory().getPersistenceUnitUtil();
+            try {
+                // the reference may be shared with associations, so it stays in the persistence context
+                final T reference = manager.getReference(entityClass(), identifier);
+                if (util.isLoaded(reference)) {
+                    // pending changes of the current unit of work take precedence
+                    return reference;
+                }
+            } catch (EntityNotFoundException e) {
+                return null;
+            }
+        }
+
+        final T cached = cache.get(entityClass(), identifier);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long stamp = cache.stamp();
+        final EntityManager loader = persistenceService().createEntityManager();
+        final T entity;
+        try {
+            entity = loader.find(entityClass(), identifier);
+        } finally {
+            loader.close();
+        }
+        if (entity != null) {
+            cache.put(entityClass(), identifier, entity, versionOf(entity), stamp);
+        }
+        return entity;
+    }
+
+    private Comparable<?> versionOf(T entity) {
+        final EntityType<T> type = entityType();
+        if (!type.hasVersionAttribute()) {
+            return null;
+        }
+        for (SingularAttribute<? super T, ?> attribute : type.getSingularAttributes()) {
+            if (attribute.isVersion()) {
+                return Comparable.class.cast(valueOf(attribute.getJavaMember(), entity));
+            }
+        }
+        return null;
+    }
+
+    private Object valueOf(Member member, T entity) {
+        try {
+            if (member instanceof Field) {
+                final Field field = Field.class.cast(member);
+                field.setAccessible(true);
+                return field.get(entity);
+            } else if (member instanceof Method) {
+                final Method method = Method.class.cast(member);
+                method.setAccessible(true);
+                return method.invoke(entity);
+            } else {
+                return null;
+            }
+        } catch (IllegalAccessException e) {
+            LOG.warn("Unable to read version of " + entity, e);
+            return null;
+        } catch (InvocationTargetException e) {
+            LOG.warn("Unable to read version of " + entity, e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Provides the {@link QueryResultCache} consulted by {@link #list(String, Object...)} and
+     * {@link #projectionList(String, Object...)}. The default implementation returns null,
+     * which disables caching. The cache is only used by units of work without pending writes,
+     * see {@link DestroyableEntityManager#mayHavePendingWrites()}. Cached entity results are loaded
+     * from the {@link #entityCache()} if present, which returns shared instances like
+     * {@link #getCached(Object)}. Misses and all others are loaded at once using {@link #get(Collection)}.
+     *
+     * @since 3.6
+     * @return the query result cache or null
+     */
+    protected QueryResultCache queryResultCache() {
+        return null;
+    }
+
+    /**
+     * Invalidates the cached entity associated with the given identifier, if
+     * an {@link #entityCache()} is present, and all cached query results
+     * touching {@link #entityClass()}.
+     *
+     * <p>
+     *   Invalidations happen right away and again once the current transaction completed,
+     *   if the {@link #entityManager()} is a {@link DestroyableEntityManager}. The latter rejects
+     *   entities and results other threads loaded before the changes have been committed.
+     * </p>
+     *
+     * @since 3.6
+     * @param identifier the identifier of the modified entity
+     */
+    protected void invalidate(Object identifier) {
+        if (identifier != null) {
+            invalidateEach(Collections.singleton(identifier));
+        } else {
+            invalidateQueries();
+        }
+    }
+
+    /**
+     * Invalidates the cached entities associated with the given identifiers and all cached
+     * query results touching {@link #entityClass()}, see {@link #invalidate(Object)}.
+     *
+     * @param identifiers the identifiers of the modified entities
+     */
+    void invalidateEach(final Iterable<?> identifiers) {
+        final EntityCache cache = entityCache();
+        if (cache != null) {
+            final Runnable invalidation = new Runnable() {
+
+                @Override
+                public void run() {
+                    for (Object identifier : identifiers) {
+                        cache.invalidate(entityClass(), identifier);
+                    }
+                }
+
+            };
+            invalidation.run();
+            afterCompletion(invalidation);
+        }
+        invalidateQueries();
+    }
+
+    /**
+     * Invalidates all cached entities of {@link #entityClass()}, if an {@link #entityCache()} is present,
+     * and all cached query results touching {@link #entityClass()}, see {@link #invalidate(Object)}.
+     *
+     * @since 3.6
+     */
+    protected void invalidateAll() {
+        final EntityCache cache = entityCache();
+        if (cache != null) {
+            final Runnable invalidation = new Runnable() {
+
+                @Override
+                public void run() {
+                    cache.invalidateAll(entityClass());
+                }
+
+            };
+            invalidation.run();
+            afterCompletion(invalidation);
+        }
+        invalidateQueries();
+    }
+
+    /**
+     * Invalidates all cached query results touching {@link #entityClass()},
+     * if a {@link #queryResultCache()} is present, see {@link #invalidate(Object)}.
+     *
+     * @since 3.6
+     */
+    protected void invalidateQueries() {
+        final QueryResultCache cache = queryResultCache();
+        if (cache != null) {
+            final Runnable invalidation = new Runnable() {
+
+                @Override
+                public void run() {
+                    cache.invalidate(entityClass());
+                }
+
+            };
+            invalidation.run();
+            afterCompletion(invalidation);
+        }
+    }
+
+    private void afterCompletion(Runnable invalidation) {
+        final EntityManager manager = entityManager();
+        if (manager instanceof DestroyableEntityManager) {
+            DestroyableEntityManager.class.cast(manager).afterCompletion(invalidation);
+        }
+    }
+
     @Transactional
     @Override
     public T read(Object identifier) {
@@ -67,6 +364,137 @@ public abstract class AbstractReadOnlyEntityService<T> implements ReadOnlyEntity
         }
     }
 
+    /**
+     * Provides the maximum number of identifiers being used in a single <code>IN</code> query
+     * by {@link #get(Collection)}, {@link #read(Collection)} and {@link #getAll(Collection)}.
+     * Defaults to {@value #DEFAULT_IN_LIMIT}.
+     *
+     * @since 3.6
+     * @return the maximum number of identifiers per query
+     */
+    protected int inLimit() {
+        return DEFAULT_IN_LIMIT;
+    }
+
+    @Transactional
+    @Override
+    public List<T> get(Collection<?> identifiers) {
+        final Map<Object, T> entities = fetch(identifiers);
+        final Class<?> type = identifierType();
+        final List<T> list = Lists.newArrayListWithCapacity(identifiers.size());
+        for (Object identifier : identifiers) {
+            final T entity = entities.get(normalize(identifier, type));
+            if (entity != null) {
+                list.add(entity);
+            }
+        }
+        return list;
+    }
+
+    @Transactional
+    @Override
+    public List<T> read(Collection<?> identifiers) {
+        final Map<Object, T> entities = fetch(identifiers);
+        final Class<?> type = identifierType();
+        final List<T> list = Lists.newArrayListWithCapacity(identifiers.size());
+        for (Object identifier : identifiers) {
+            final T entity = entities.get(normalize(identifier, type));
+            if (entity == null) {
+                throw new PersistenceException(String.format("No entity found for id #%s", identifier));
+            } else {
+                list.add(entity);
+            }
+        }
+        return list;
+    }
+
+    @Transactional
+    @Override
+    public Map<Object, T> getAll(Collection<?> identifiers) {
+        final Map<Object, T> entities = fetch(identifiers);
+        final Class<?> type = identifierType();
+        final Map<Object, T> map = Maps.newLinkedHashMap();
+        for (Object identifier : identifiers) {
+            final T entity = entities.get(normalize(identifier, type));
+            if (entity != null) {
+                map.put(identifier, entity);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Loads all entities with the given identifiers using one <code>IN</code> query per
+     * {@link #inLimit()} identifiers. Entities already present in the persistence context
+     * are returned as the managed instances by the provider.
+     *
+     * @param identifiers the identifiers
+     * @return all found entities by their normalized identifier
+     */
+    private Map<Object, T> fetch(Collection<?> identifiers) {
+        Preconditions.checkNotNull(identifiers, "Identifiers");
+        final Class<?> type = identifierType();
+        final Set<Object> pending = Sets.newLinkedHashSet();
+        for (Object identifier : identifiers) {
+            pending.add(normalize(Preconditions.checkNotNull(identifier, "Identifier"), type));
+        }
+        final Map<Object, T> entities = Maps.newHashMapWithExpectedSize(pending.size());
+        if (pending.isEmpty()) {
+            return entities;
+        }
+
+        LOG.trace("Fetching {} {}s", pending.size(), entityClass().getSimpleName());
+
+        final EntityManager manager = entityManager();
+        final String jpql = String.format("SELECT e FROM %s e WHERE e.%s IN (:identifiers)",
+            entityType().getName(), identifierName());
+        final Function<T, Object> identifier = identifierFunction();
+        for (List<Object> chunk : Iterables.partition(pending, inLimit())) {
+            final TypedQuery<T> query = manager.createQuery(jpql, entityClass());
+            for (T entity : query.setParameter("identifiers", chunk).getResultList()) {
+                entities.put(normalize(identifier.apply(entity), type), entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Provides the identifier type of {@link #entityClass()}, with primitives being wrapped.
+     *
+     * @return the identifier type
+     */
+    Class<?> identifierType() {
+        return Primitives.wrap(entityType().getIdType().getJavaType());
+    }
+
+    /**
+     * Converts numeric identifiers to the given identifier type, e.g. {@link Integer}s
+     * to {@link Long}s, which allows callers to pass any kind of number.
+     *
+     * @param identifier the identifier
+     * @param type the wrapped identifier type
+     * @return the normalized identifier
+     */
+    static Object normalize(Object identifier, Class<?> type) {
+        if (type.isInstance(identifier) || !(identifier instanceof Number)) {
+            return identifier;
+        }
+        final Number number = Number.class.cast(identifier);
+        if (type == Long.class) {
+            return Long.valueOf(number.longValue());
+        } else if (type == Integer.class) {
+            return Integer.valueOf(number.intValue());
+        } else if (type == Short.class) {
+            return Short.valueOf(number.shortValue());
+        } else if (type == Byte.class) {
+            return Byte.valueOf(number.byteValue());
+        } else if (type == BigInteger.class) {
+            return BigInteger.valueOf(number.longValue());
+        } else {
+            return identifier;
+        }
+    }
+
     @Transactional
     @Override
     @SuppressWarnings("unchecked")
@@ -109,19 +537,85 @@ public abstract class AbstractReadOnlyEntityService<T> implements ReadOnlyEntity
     @Override
     @SuppressWarnings("unchecked")
     public List<T> list(String queryName, Object... parameters) {
-        return (List<T>) prepare(entityManager().createNamedQuery(queryName), parameters).getResultList();
+        final QueryResultCache cache = queryResultCache();
+        // cached results ignore pending writes of the current unit of work
+        if (cache == null || !isCacheable()) {
+            return (List<T>) prepare(entityManager().createNamedQuery(queryName), parameters).getResultList();
+        }
+        final List<?> identifiers = cache.get(queryName, parameters);
+        if (identifiers != null) {
+            return getCached(identifiers);
+        }
+        final long stamp = cache.stamp();
+        final List<T> entities = (List<T>) prepare(entityManager().createNamedQuery(queryName),
+            parameters).getResultList();
+        final List<Object> values = Lists.newArrayListWithCapacity(entities.size());
+        final Function<T, Object> identifier = identifierFunction();
+        for (Object entity : entities) {
+            if (!entityClass().isInstance(entity)) {
+                LOG.debug("Named query {} does not select {}s, not caching", queryName, entityClass().getSimpleName());
+                return entities;
+            }
+            values.add(identifier.apply(entityClass().cast(entity)));
+        }
+        cache.put(queryName, parameters, values, cache.touchedBy(queryName, entityManager().getMetamodel()), stamp);
+        return entities;
+    }
+
+    private List<T> getCached(List<?> identifiers) {
+        final EntityCache cache = entityCache();
+        if (cache == null) {
+            return get(identifiers);
+        }
+        final Map<Object, T> cached = Maps.newHashMap();
+        final List<Object> misses = Lists.newArrayList();
+        for (Object identifier : identifiers) {
+            final T entity = cache.get(entityClass(), identifier);
+            if (entity == null) {
+                misses.add(identifier);
+            } else {
+                cached.put(identifier, entity);
+            }
+        }
+        if (!misses.isEmpty()) {
+            cached.putAll(getAll(misses));
+        }
+        final List<T> entities = Lists.newArrayListWithCapacity(identifiers.size());
+        for (Object identifier : identifiers) {
+            final T entity = cached.get(identifier);
+            if (entity != null) {
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Checks whether query results of the current unit of work may be cached or taken from the cache,
+     * which requires a {@link DestroyableEntityManager} without pending writes.
+     *
+     * @return true if the query result cache may be used, false otherwise
+     */
+    private boolean isCacheable() {
+        final EntityManager manager = entityManager();
+        return manager instanceof DestroyableEntityManager &&
+            !DestroyableEntityManager.class.cast(manager).mayHavePendingWrites();
     }
 
     /**
      * Creates a typed query using {@link #entityClass()}. This is like a <code>SELECT * FROM T</code>.
+     * The statement is built once per service. Unlike criteria queries, which are mutable and can't
+     * be shared, the statement string allows the provider to reuse its compiled query plan.
      *
      * @return a typed query without any restrictions
      */
     TypedQuery<T> getTypedQuery() {
-        final CriteriaBuilder builder = entityManager().getCriteriaBuilder();
-        final CriteriaQuery<T> criteria = builder.createQuery(entityClass());
-        criteria.from(entityClass());
-        return entityManager().createQuery(criteria);
+        String statement = selectAll;
+        if (statement == null) {
+            statement = String.format("SELECT e FROM %s e", entityType().getName());
+            selectAll = statement;
+        }
+        return entityManager().createQuery(statement, entityClass());
     }
 
     @Transactional
@@ -141,6 +635,79 @@ public abstract class AbstractReadOnlyEntityService<T> implements ReadOnlyEntity
         return new PreloadingIterable<T>(query, batchSize);
     }
 
+    /**
+     * Provides the metamodel type of {@link #entityClass()}.
+     *
+     * @return the entity type of T
+     */
+    EntityType<T> entityType() {
+        return entityManager().getMetamodel().entity(entityClass());
+    }
+
+    /**
+     * Provides the name of the identifier attribute of {@link #entityClass()}.
+     *
+     * @return the identifier attribute name
+     */
+    String identifierName() {
+        final EntityType<T> type = entityType();
+        return type.getId(type.getIdType().getJavaType()).getName();
+    }
+
+    /**
+     * Provides a function which returns the identifier of an entity. Instances of
+     * {@link EntityBase} are asked directly, all others are resolved using
+     * {@link PersistenceUnitUtil#getIdentifier(Object)}.
+     *
+     * @return a function producing identifiers
+     */
+    Function<T, Object> identifierFunction() {
+        final PersistenceUnitUtil util = entityManager().getEntityManagerFactory().getPersistenceUnitUtil();
+        return new Function<T, Object>() {
+
+            @Override
+            public Object apply(T from) {
+                if (from instanceof EntityBase) {
+                    return EntityBase.class.cast(from).getId();
+                } else {
+                    return util.getIdentifier(from);
+                }
+            }
+
+        };
+    }
+
+    @Override
+    public Iterable<T> seek(int batchSize) {
+        return seek(identifierName(), identifierFunction(), batchSize);
+    }
+
+    @Override
+    public Iterable<T> seek(String attribute, Function<? super T, ?> key, int batchSize) {
+        return new SeekingIterable<T>(entityManager(), keyset(attribute, key), batchSize);
+    }
+
+    private Keyset<T> keyset(String attribute, Function<? super T, ?> key) {
+        return new Keyset<T>(entityClass(), entityType().getName(), attribute, key);
+    }
+
+    @Override
+    public Iterable<T> prefetch(int batchSize, int depth) {
+        final Keyset<T> keyset = keyset(identifierName(), identifierFunction());
+        return new PrefetchingIterable<T>(persistenceService(), executor(), keyset, batchSize, depth);
+    }
+
+    @Override
+    public EntityStream<T> stream(int fetchSize, boolean detach) {
+        final Keyset<T> keyset = keyset(identifierName(), identifierFunction());
+        return ChunkedEntityStream.of(entityManager(), keyset, fetchSize, detach);
+    }
+
+    @Override
+    public EntityStream<T> stream(TypedQuery<T> query, int fetchSize, boolean detach) {
+        return ChunkedEntityStream.of(entityManager(), query, fetchSize, detach);
+    }
+
     @Transactional
     @Override
     @SuppressWarnings("unchecked")
@@ -190,7 +757,20 @@ public abstract class AbstractReadOnlyEntityService<T> implements ReadOnlyEntity
     @Override
     @SuppressWarnings("unchecked")
     public <P> List<P> projectionList(String queryName, Object... parameters) {
-        return (List<P>) prepare(entityManager().createNamedQuery(queryName), parameters).getResultList();
+        final QueryResultCache cache = queryResultCache();
+        // cached results ignore pending writes of the current unit of work
+        if (cache == null || !isCacheable()) {
+            return (List<P>) prepare(entityManager().createNamedQuery(queryName), parameters).getResultList();
+        }
+        final List<?> cached = cache.get(queryName, parameters);
+        if (cached != null) {
+            return (List<P>) cached;
+        }
+        final long stamp = cache.stamp();
+        final List<P> values = (List<P>) prepare(entityManager().createNamedQuery(queryName),
+            parameters).getResultList();
+        cache.put(queryName, parameters, values, cache.touchedBy(queryName, entityManager().getMetamodel()), stamp);
+        return values;
     }
 
     @Transactional
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.collections.Procedure;
+
+/**
+ * A {@link Procedure} which flushes and clears an {@link EntityManager} using an interval
+ * that adapts itself at runtime. Every call counts as one step, the manager is flushed and
+ * cleared every {@link #getInterval()} steps. The interval shrinks if flushing takes longer than
+ * the target latency or if heap usage exceeds the configured threshold and grows while
+ * flushing is fast, which bounds the number of managed entities between two clears.
+ *
+ * <p>
+ *   {@link EntityService#each(Procedure, int, Procedure)} calls batch procedures at the end of
+ *   every page, before the next one is loaded, so every step is one page, e.g.
+ *   {@code service.each(procedure, 100, new AdaptiveBatch())} flushes and clears every
+ *   {@link #getInterval()} pages of 100 entities. Clearing never detaches unprocessed entities.
+ *   Calling it more often than once per page is not supported, the manager would be cleared
+ *   in the middle of a page.
+ * </p>
+ *
+ * <p>
+ *   <strong>Note</strong>: This class is not thread-safe, use one instance per iteration.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class AdaptiveBatch implements Procedure<EntityManager> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBatch.class);
+
+    private static final int DEFAULT_MIN = 1;
+    private static final int DEFAULT_INITIAL = 1;
+    private static final int DEFAULT_MAX = 100;
+    private static final long DEFAULT_TARGET_MILLIS = 200L;
+    private static final double DEFAULT_HEAP_THRESHOLD = 0.8;
+
+    private final int min;
+    private final int max;
+    private final long target;
+    private final double heapThreshold;
+
+    private int interval;
+    private int steps;
+    private long flushes;
+
+    /**
+     * Creates an adaptive batch with an interval between {@value #DEFAULT_MIN} and {@value #DEFAULT_MAX},
+     * starting at {@value #DEFAULT_INITIAL}, a target flush latency of {@value #DEFAULT_TARGET_MILLIS}ms
+     * and a heap threshold of {@value #DEFAULT_HEAP_THRESHOLD}.
+     */
+    public AdaptiveBatch() {
+        this(DEFAULT_MIN, DEFAULT_INITIAL, DEFAULT_MAX, DEFAULT_TARGET_MILLIS, TimeUnit.MILLISECONDS,
+            DEFAULT_HEAP_THRESHOLD);
+    }
+
+    /**
+     * Creates an adaptive batch.
+     *
+     * @param min the minimum interval
+     * @param initial the initial interval
+     * @param max the maximum interval
+     * @param targetLatency the maximum desired duration of a single flush and clear
+     * @param unit the unit of targetLatency
+     * @param heapThreshold the ratio of used to maximum heap above which the interval shrinks
+     * @throws IllegalArgumentException if min is not positive, initial is not in [min, max],
+     *         targetLatency is not positive or heapThreshold is not in (0, 1]
+     * @throws NullPointerException if unit is null
+     */
+    public AdaptiveBatch(int min, int initial, int max, long targetLatency, TimeUnit unit, double heapThreshold) {
+        Preconditions.checkArgument(min > 0, "Min must be positive");
+        Preconditions.checkArgument(min <= initial && initial <= max, "%s not in [%s, %s]", initial, min, max);
+        Preconditions.checkArgument(targetLatency > 0, "TargetLatency must be positive");
+        Preconditions.checkNotNull(unit, "Unit");
+        Preconditions.checkArgument(heapThreshold > 0 && heapThreshold <= 1, "HeapThreshold must be in (0, 1]");
+        this.min = min;
+        this.interval = initial;
+        this.max = max;
+        this.target = unit.toNanos(targetLatency);
+        this.heapThreshold = heapThreshold;
+    }
+
+    @Override
+    public void apply(EntityManager manager) {
+        if (++steps < interval) {
+            return;
+        }
+        steps = 0;
+
+        final long start = System.nanoTime();
+        manager.flush();
+        manager.clear();
+        final long elapsed = System.nanoTime() - start;
+        flushes++;
+
+        adapt(elapsed, heapUsage());
+    }
+
+    private void adapt(long elapsed, double heap) {
+        final int previous = interval;
+        if (heap > heapThreshold || elapsed > target) {
+            interval = Math.max(min, interval / 2);
+        } else if (elapsed < target / 2) {
+            interval = Math.min(max, interval + Math.max(1, interval / 2));
+        }
+
+        if (interval != previous) {
+            LOG.debug("Changed interval from {} to {} (flush took {}ms, heap usage {}%)", new Object[] {
+                previous, interval, TimeUnit.NANOSECONDS.toMillis(elapsed), Math.round(heap * 100)
+            });
+        }
+    }
+
+    private double heapUsage() {
+        final Runtime runtime = Runtime.getRuntime();
+        return (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+    }
+
+    /**
+     * Provides the current interval, i.e. the number of calls (pages) between two flushes.
+     *
+     * @return the current interval
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Provides the number of flushes performed so far.
+     *
+     * @return the number of flushes
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdaptiveBatch [interval=%s, flushes=%s]", interval, flushes);
+    }
+
+}
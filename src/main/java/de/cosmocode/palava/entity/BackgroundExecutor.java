@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Creates the bounded executors entity services use for background work unless
+ * executors are bound, see {@link de.cosmocode.palava.jpa.PersistenceConfig#PREFETCH_EXECUTOR}
+ * and {@link de.cosmocode.palava.jpa.PersistenceConfig#PARALLEL_EXECUTOR}.
+ * The executors' threads terminate once they are idle.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class BackgroundExecutor {
+
+    private static final int TASKS_PER_THREAD = 16;
+
+    private BackgroundExecutor() {
+
+    }
+
+    /**
+     * Creates an executor for prefetching, which rejects fetches once its queue is full.
+     * Rejected fetches are done by the iterating thread.
+     *
+     * @param name the name of the owning service, used to name threads
+     * @return a new executor
+     */
+    static ThreadPoolExecutor prefetching(String name) {
+        return create("palava-entity-prefetch-" + name + "-%d", new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Creates an executor for parallel processing, which runs tasks in the submitting
+     * thread once its queue is full.
+     *
+     * @param name the name of the owning service, used to name threads
+     * @return a new executor
+     */
+    static ThreadPoolExecutor parallel(String name) {
+        return create("palava-entity-parallel-" + name + "-%d", new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static ThreadPoolExecutor create(String nameFormat, RejectedExecutionHandler handler) {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(threads * TASKS_PER_THREAD),
+            new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(), handler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+}
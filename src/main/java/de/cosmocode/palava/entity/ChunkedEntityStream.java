@@ -0,0 +1,197 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.UnmodifiableIterator;
+
+/**
+ * Abstract base implementation of the {@link EntityStream} interface, which loads
+ * chunks of fetch size entities using JDBC fetch size hints and optionally detaches every
+ * chunk once it has been consumed.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+abstract class ChunkedEntityStream<T> extends UnmodifiableIterator<T> implements EntityStream<T> {
+
+    /**
+     * Provider specific query hints for the JDBC fetch size. Unknown hints are ignored by providers.
+     */
+    private static final Set<String> FETCH_SIZE_HINTS = ImmutableSet.of(
+        "org.hibernate.fetchSize",
+        "eclipselink.jdbc.fetch-size"
+    );
+
+    private final EntityManager manager;
+    private final int fetchSize;
+    private final boolean detach;
+
+    private List<T> chunk = Collections.emptyList();
+    private Iterator<T> current = Iterators.emptyIterator();
+    private boolean exhausted;
+    private boolean closed;
+
+    ChunkedEntityStream(EntityManager manager, int fetchSize, boolean detach) {
+        this.manager = Preconditions.checkNotNull(manager, "Manager");
+        Preconditions.checkArgument(fetchSize > 0, "FetchSize must be positive");
+        this.fetchSize = fetchSize;
+        this.detach = detach;
+    }
+
+    /**
+     * Creates a stream over all entities of the given keyset.
+     *
+     * @param <T> generic entity type
+     * @param manager the entity manager being used
+     * @param keyset the keyset being used
+     * @param fetchSize the number of entities per chunk
+     * @param detach whether consumed chunks should be detached
+     * @return a new stream
+     */
+    static <T> EntityStream<T> of(EntityManager manager, final Keyset<T> keyset, int fetchSize, boolean detach) {
+        Preconditions.checkNotNull(keyset, "Keyset");
+        return new ChunkedEntityStream<T>(manager, fetchSize, detach) {
+
+            private Object last;
+
+            @Override
+            TypedQuery<T> next(EntityManager manager, List<T> previous, int fetchSize) {
+                if (!previous.isEmpty()) {
+                    last = keyset.last(previous);
+                }
+                return keyset.query(manager, last).setMaxResults(fetchSize);
+            }
+
+        };
+    }
+
+    /**
+     * Creates a stream over all results of the given query, starting at its first result
+     * and ending after its maximum number of results, if set.
+     *
+     * @param <T> generic entity type
+     * @param manager the entity manager being used
+     * @param query the query being used
+     * @param fetchSize the number of entities per chunk
+     * @param detach whether consumed chunks should be detached
+     * @return a new stream
+     */
+    static <T> EntityStream<T> of(EntityManager manager, final TypedQuery<T> query, int fetchSize, boolean detach) {
+        Preconditions.checkNotNull(query, "Query");
+        final int firstResult = query.getFirstResult();
+        final int maxResults = query.getMaxResults();
+        return new ChunkedEntityStream<T>(manager, fetchSize, detach) {
+
+            private int offset;
+
+            @Override
+            TypedQuery<T> next(EntityManager manager, List<T> previous, int fetchSize) {
+                offset += previous.size();
+                final int remaining = maxResults - offset;
+                if (remaining <= 0) {
+                    return null;
+                }
+                return query.setFirstResult(firstResult + offset).setMaxResults(Math.min(fetchSize, remaining));
+            }
+
+        };
+    }
+
+    /**
+     * Provides the query for the chunk following the given one, limited to at most fetch size results.
+     *
+     * @param entityManager the entity manager being used
+     * @param previous the previous chunk, empty for the first one
+     * @param fetchSize the maximum number of results
+     * @return the query for the next chunk or null if there are no more results
+     */
+    abstract TypedQuery<T> next(EntityManager entityManager, List<T> previous, int fetchSize);
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        } else if (current.hasNext()) {
+            return true;
+        } else if (exhausted) {
+            release();
+            return false;
+        } else {
+            advance();
+            return current.hasNext();
+        }
+    }
+
+    @Override
+    public T next() {
+        if (hasNext()) {
+            return current.next();
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    private void advance() {
+        final TypedQuery<T> query = next(manager, chunk, fetchSize);
+        release();
+        if (query == null) {
+            exhausted = true;
+            current = Iterators.emptyIterator();
+            return;
+        }
+        for (String hint : FETCH_SIZE_HINTS) {
+            query.setHint(hint, Integer.valueOf(fetchSize));
+        }
+        chunk = query.getResultList();
+        // a short chunk is the last one, no need to ask the database again
+        exhausted = chunk.size() < fetchSize;
+        current = chunk.iterator();
+    }
+
+    private void release() {
+        if (detach) {
+            for (T entity : chunk) {
+                manager.detach(entity);
+            }
+        }
+        chunk = Collections.emptyList();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+        current = Iterators.emptyIterator();
+    }
+
+}
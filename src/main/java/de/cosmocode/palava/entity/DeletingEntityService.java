@@ -16,6 +16,8 @@
 
 package de.cosmocode.palava.entity;
 
+import javax.persistence.EntityManager;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +38,10 @@ public abstract class DeletingEntityService<T> extends AbstractEntityService<T>
     public void delete(T entity) {
         Preconditions.checkNotNull(entity, "Entity");
         LOG.debug("Deleting {}", entity);
-        entityManager().remove(entity);
+        final EntityManager manager = entityManager();
+        final T managed = manager.contains(entity) ? entity : manager.merge(entity);
+        invalidate(identifierFunction().apply(managed));
+        manager.remove(managed);
     }
     
 }
@@ -19,8 +19,11 @@ package de.cosmocode.palava.entity;
 import de.cosmocode.collections.Procedure;
 import de.cosmocode.palava.model.base.Copyable;
 
+import java.util.Collection;
+
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
 /**
@@ -41,6 +44,37 @@ public interface EntityService<T> extends ReadOnlyEntityService<T> {
      */
     T create(T entity);
     
+    /**
+     * Saves multiple entities to the database in chunks. Every chunk is persisted
+     * ordered by entity type, which allows the provider to batch inserts, and the
+     * underlying entity manager is flushed and cleared after every chunk. The chunk size
+     * is taken from the configured JDBC batch size, if any.
+     *
+     * <p>
+     *   <strong>Note</strong>: Clearing detaches all entities of the current persistence context,
+     *   including the ones created by this method.
+     * </p>
+     *
+     * @since 3.6
+     * @param entities the entities being persisted
+     * @throws NullPointerException if entities is null
+     * @throws PersistenceException if one of the entities already exists or a transaction is required
+     */
+    void createAll(Iterable<? extends T> entities);
+
+    /**
+     * Saves multiple entities to the database using the specified chunk size.
+     *
+     * @since 3.6
+     * @see #createAll(Iterable)
+     * @param entities the entities being persisted
+     * @param chunkSize the number of entities persisted between each flush and clear
+     * @throws NullPointerException if entities is null
+     * @throws IllegalArgumentException if chunkSize is not positive
+     * @throws PersistenceException if one of the entities already exists or a transaction is required
+     */
+    void createAll(Iterable<? extends T> entities, int chunkSize);
+
     /**
      * Updates an entities state in the database.
      * 
@@ -76,9 +110,15 @@ public interface EntityService<T> extends ReadOnlyEntityService<T> {
 
     /**
      * Performs an operation on each element of type T.
+     *
+     * <p>
+     *   <strong>Note</strong>: Since 3.6 entities are visited in the order of their identifiers
+     *   using keyset pagination, see {@link #seek(int)}. Every page is loaded after the
+     *   previous one has been processed.
+     * </p>
      * 
      * @param procedure the command which will be called with each instance of T
-     * @param batchSize the number of iterations between each flush
+     * @param batchSize the number of iterations between each flush, also used as page size
      * @throws NullPointerException if procedure is null
      */
     void each(Procedure<? super T> procedure, int batchSize);
@@ -112,10 +152,17 @@ public interface EntityService<T> extends ReadOnlyEntityService<T> {
      * <p>
      *   Note: {@link Batch} supports several reusable {@link Procedure}s for the third parameter.
      * </p>
+     *
+     * <p>
+     *   <strong>Note</strong>: Since 3.6 entities are visited in the order of their identifiers
+     *   using keyset pagination, see {@link #seek(int)}. The batch procedure is called at the end
+     *   of every page, before the next one is loaded, so clearing the {@link EntityManager}
+     *   only detaches entities which have already been processed.
+     * </p>
      * 
      * @since 2.3
      * @param procedure the command which will be called with each instance of T
-     * @param batchSize the number of iterations between each flush
+     * @param batchSize the number of iterations between each flush, also used as page size
      * @param batchProcedure the procedure which is called every time the batch size is hit
      * @throws NullPointerException if procedure or batchProcedure is null
      */
@@ -129,6 +176,11 @@ public interface EntityService<T> extends ReadOnlyEntityService<T> {
      *   Note: {@link Batch} supports several reusable {@link Procedure}s for the third parameter.
      * </p>
      *
+     * <p>
+     *   Results are loaded in pages of batch size entities. The batch procedure is called at the end
+     *   of every page, before the next one is loaded.
+     * </p>
+     *
      * @since 3.4
      * @param queryName the query name being used
      * @param procedure the command which will be called with each instance of T
@@ -147,6 +199,11 @@ public interface EntityService<T> extends ReadOnlyEntityService<T> {
      *   Note: {@link Batch} supports several reusable {@link Procedure}s for the third parameter.
      * </p>
      *
+     * <p>
+     *   Results are loaded in pages of batch size entities. The batch procedure is called at the end
+     *   of every page, before the next one is loaded.
+     * </p>
+     *
      * @since 3.4
      * @param query the query being used
      * @param procedure the command which will be called with each instance of T
@@ -157,6 +214,52 @@ public interface EntityService<T> extends ReadOnlyEntityService<T> {
     void each(TypedQuery<T> query, Procedure<? super T> procedure, int batchSize,
         Procedure<? super EntityManager> batchProcedure);
 
+    /**
+     * Performs an operation on each element of type T in parallel. The identifier range of T is
+     * split into the given number of partitions, each of which is processed on a background
+     * thread using its own {@link EntityManager} and transaction. The batch procedure is called
+     * with the partition's {@link EntityManager} everytime the batch size is hit in that partition.
+     *
+     * <p>
+     *   <strong>Note</strong>: The procedure has to be thread-safe. Every partition commits
+     *   on its own, a failing partition does not roll back the others. This method
+     *   blocks until all partitions are finished.
+     * </p>
+     *
+     * @since 3.6
+     * @param procedure the command which will be called with each instance of T
+     * @param batchSize the number of iterations between each call of batchProcedure per partition
+     * @param batchProcedure the procedure which is called every time the batch size is hit
+     * @param partitions the number of identifier ranges being processed in parallel
+     * @throws NullPointerException if procedure or batchProcedure is null
+     * @throws IllegalArgumentException if batchSize or partitions is not positive
+     * @throws UnsupportedOperationException if the implementation does not support this feature
+     *         or the identifier of T is not an integral number
+     * @throws PersistenceException if processing one of the partitions failed
+     */
+    void eachParallel(Procedure<? super T> procedure, int batchSize, Procedure<? super EntityManager> batchProcedure,
+        int partitions);
+
+    /**
+     * Performs an operation on each element of type T while the following pages are fetched
+     * in the background, see {@link #prefetch(int, int)}. This overlaps database access with
+     * processing and suits procedures which are expensive to compute.
+     *
+     * <p>
+     *   <strong>Note</strong>: The procedure is called with detached entities, changes have to be
+     *   applied using {@link #update(Object)}.
+     * </p>
+     *
+     * @since 3.6
+     * @param procedure the command which will be called with each instance of T
+     * @param batchSize the number of entities per page
+     * @param depth the maximum number of pages being fetched ahead
+     * @throws NullPointerException if procedure is null
+     * @throws IllegalArgumentException if batchSize or depth is not positive
+     * @throws UnsupportedOperationException if the implementation does not support this feature
+     */
+    void eachPrefetched(Procedure<? super T> procedure, int batchSize, int depth);
+
     /**
      * Deletes an entity.
      * 
@@ -169,6 +272,29 @@ public interface EntityService<T> extends ReadOnlyEntityService<T> {
      * @param entity the entity being deleted
      */
     void delete(T entity);
+
+    /**
+     * Deletes all entities associated with the given identifiers, see {@link #delete(Object)}.
+     * Numbers are converted to the identifier type.
+     *
+     * @since 3.6
+     * @param identifiers the identifiers of the entities being deleted
+     * @return the number of deleted entities
+     * @throws NullPointerException if identifiers is or contains null
+     */
+    int deleteAll(Collection<?> identifiers);
+
+    /**
+     * Deletes all entities associated with the identifiers selected by the given query,
+     * see {@link #deleteAll(Collection)}.
+     *
+     * @since 3.6
+     * @param query a query selecting identifiers
+     * @param parameters the parameters the query needs
+     * @return the number of deleted entities
+     * @throws NullPointerException if query is null
+     */
+    int deleteAll(Query query, Object... parameters);
     
     /**
      * Creates a copy of the given entity and saves it to the database.
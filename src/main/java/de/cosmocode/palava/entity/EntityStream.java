@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * A closeable {@link Iterator} over entities, which loads entities in chunks
+ * instead of materializing all of them at once.
+ *
+ * <p>
+ *   Streams should be closed as soon as they are no longer needed, which releases
+ *   the current chunk. Closing a stream twice has no effect.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+public interface EntityStream<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Closes this stream. Subsequent calls to {@link #hasNext()} will return false.
+     */
+    @Override
+    void close();
+
+}
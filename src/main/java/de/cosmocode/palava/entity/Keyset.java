@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+
+/**
+ * Describes a keyset (seek) based pagination over all entities of a specific type.
+ * Instead of skipping rows using an offset, every page is fetched using
+ * <code>WHERE e.attribute &gt; :last ORDER BY e.attribute</code>, which allows
+ * the database to seek directly to the next page using an index.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+final class Keyset<T> {
+
+    private final Class<T> type;
+    private final String entityName;
+    private final String attribute;
+    private final Function<? super T, ?> key;
+
+    private final String first;
+    private final String next;
+
+    private final Object lower;
+    private final Object upper;
+
+    public Keyset(Class<T> type, String entityName, String attribute, Function<? super T, ?> key) {
+        this.type = Preconditions.checkNotNull(type, "Type");
+        this.entityName = Preconditions.checkNotNull(entityName, "EntityName");
+        this.attribute = Preconditions.checkNotNull(attribute, "Attribute");
+        this.key = Preconditions.checkNotNull(key, "Key");
+        this.first = String.format("SELECT e FROM %s e ORDER BY e.%s", entityName, attribute);
+        this.next = String.format("SELECT e FROM %s e WHERE e.%s > :last ORDER BY e.%s",
+            entityName, attribute, attribute);
+        this.lower = null;
+        this.upper = null;
+    }
+
+    private Keyset(Keyset<T> keyset, Object lower, Object upper) {
+        this.type = keyset.type;
+        this.entityName = keyset.entityName;
+        this.attribute = keyset.attribute;
+        this.key = keyset.key;
+        this.first = String.format("SELECT e FROM %s e WHERE e.%s >= :lower AND e.%s <= :upper ORDER BY e.%s",
+            entityName, attribute, attribute, attribute);
+        this.next = String.format("SELECT e FROM %s e WHERE e.%s > :last AND e.%s <= :upper ORDER BY e.%s",
+            entityName, attribute, attribute, attribute);
+        this.lower = Preconditions.checkNotNull(lower, "Lower");
+        this.upper = Preconditions.checkNotNull(upper, "Upper");
+    }
+
+    /**
+     * Creates a keyset restricted to the given closed range of attribute values.
+     *
+     * @param from the lowest included value
+     * @param to the highest included value
+     * @return a new keyset over the given range
+     * @throws NullPointerException if from or to is null
+     */
+    Keyset<T> range(Object from, Object to) {
+        return new Keyset<T>(this, from, to);
+    }
+
+    /**
+     * Fetches the page following the given key.
+     *
+     * @param manager the entity manager being used
+     * @param last the key of the last element of the previous page, null for the first page
+     * @param batchSize the maximum page size
+     * @return the next page
+     */
+    List<T> page(EntityManager manager, Object last, int batchSize) {
+        return query(manager, last).setMaxResults(batchSize).getResultList();
+    }
+
+    /**
+     * Creates the query for the page following the given key.
+     *
+     * @param manager the entity manager being used
+     * @param last the key of the last element of the previous page, null for the first page
+     * @return the query selecting all following entities
+     */
+    TypedQuery<T> query(EntityManager manager, Object last) {
+        final TypedQuery<T> query;
+        if (last == null) {
+            query = manager.createQuery(first, type);
+            if (lower != null) {
+                query.setParameter("lower", lower);
+            }
+        } else {
+            query = manager.createQuery(next, type).setParameter("last", last);
+        }
+        if (upper != null) {
+            query.setParameter("upper", upper);
+        }
+        return query;
+    }
+
+    @Override
+    public String toString() {
+        if (lower == null) {
+            return String.format("Keyset [%s.%s]", entityName, attribute);
+        } else {
+            return String.format("Keyset [%s.%s in [%s, %s]]", entityName, attribute, lower, upper);
+        }
+    }
+
+    /**
+     * Provides the key of the last element of the given page.
+     *
+     * @param page a non empty page
+     * @return the key of the last element
+     */
+    Object last(List<T> page) {
+        return key.apply(page.get(page.size() - 1));
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.collections.Procedure;
+import de.cosmocode.palava.jpa.PersistenceService;
+
+/**
+ * A single range of {@link AbstractEntityService#eachParallel(Procedure, int, Procedure, int)}
+ * which processes all entities of its {@link Keyset} using its own {@link EntityManager}
+ * and transaction.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+final class Partition<T> implements Callable<Integer> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Partition.class);
+
+    private final PersistenceService service;
+    private final Keyset<T> keyset;
+    private final Procedure<? super T> procedure;
+    private final int batchSize;
+    private final Procedure<? super EntityManager> batchProcedure;
+
+    public Partition(PersistenceService service, Keyset<T> keyset, Procedure<? super T> procedure, int batchSize,
+        Procedure<? super EntityManager> batchProcedure) {
+        this.service = Preconditions.checkNotNull(service, "Service");
+        this.keyset = Preconditions.checkNotNull(keyset, "Keyset");
+        this.procedure = Preconditions.checkNotNull(procedure, "Procedure");
+        this.batchSize = batchSize;
+        this.batchProcedure = Preconditions.checkNotNull(batchProcedure, "BatchProcedure");
+    }
+
+    @Override
+    public Integer call() {
+        final EntityManager manager = service.createEntityManager();
+        try {
+            final EntityTransaction tx = manager.getTransaction();
+            tx.begin();
+            try {
+                final int count = process(manager);
+                tx.commit();
+                LOG.debug("Processed {} entities using {}", count, keyset);
+                return count;
+            } finally {
+                if (tx.isActive()) {
+                    LOG.warn("Rolling back partition {}", keyset);
+                    tx.rollback();
+                }
+            }
+        } finally {
+            manager.close();
+        }
+    }
+
+    private int process(EntityManager manager) {
+        int i = 0;
+        Object last = null;
+        while (true) {
+            // pages are loaded after the batch procedure ran, clearing does not detach unprocessed entities
+            final List<T> page = keyset.page(manager, last, batchSize);
+            if (page.isEmpty()) {
+                return i;
+            }
+            last = keyset.last(page);
+            for (T entity : page) {
+                procedure.apply(entity);
+                if (++i % batchSize == 0) {
+                    batchProcedure.apply(manager);
+                }
+            }
+            if (page.size() < batchSize) {
+                return i;
+            }
+        }
+    }
+
+}
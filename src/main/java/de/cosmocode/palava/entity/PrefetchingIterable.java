@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.palava.jpa.PersistenceService;
+
+/**
+ * Background prefetching {@link Iterable} implementation used by
+ * {@link AbstractReadOnlyEntityService#prefetch(int, int)}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+final class PrefetchingIterable<T> implements Iterable<T> {
+
+    private final PersistenceService service;
+    private final Executor executor;
+    private final Keyset<T> keyset;
+    private final int batchSize;
+    private final int depth;
+
+    public PrefetchingIterable(PersistenceService service, Executor executor, Keyset<T> keyset,
+        int batchSize, int depth) {
+        this.service = Preconditions.checkNotNull(service, "Service");
+        this.executor = Preconditions.checkNotNull(executor, "Executor");
+        this.keyset = Preconditions.checkNotNull(keyset, "Keyset");
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive");
+        Preconditions.checkArgument(depth > 0, "Depth must be positive");
+        this.batchSize = batchSize;
+        this.depth = depth;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new PrefetchingIterator<T>(service, executor, keyset, batchSize, depth);
+    }
+
+}
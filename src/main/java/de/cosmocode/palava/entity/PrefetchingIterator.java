@@ -0,0 +1,224 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.UnmodifiableIterator;
+
+import de.cosmocode.palava.jpa.PersistenceService;
+
+/**
+ * A preloading iterator which fetches pages in the background. Fetches run on the given
+ * executor using a {@link Keyset} and short-lived {@link EntityManager}s while the caller
+ * consumes the current page. The returned entities are therefore detached.
+ *
+ * <p>
+ *   Every fetch is a separate task which schedules the next one as long as less than
+ *   depth pages are waiting, and consuming a page schedules the next fetch if none is running.
+ *   No thread ever waits for the caller, an abandoned iteration stops after at most depth pages.
+ *   Fetches rejected by the executor are done by the caller once it runs out of pages.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+final class PrefetchingIterator<T> extends UnmodifiableIterator<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrefetchingIterator.class);
+
+    private final PersistenceService service;
+    private final Executor executor;
+    private final Keyset<T> keyset;
+    private final int batchSize;
+    private final int depth;
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private final Queue<Page<T>> pages = new LinkedList<Page<T>>();
+    private Object last;
+    private boolean fetching;
+    private boolean exhausted;
+
+    private Iterator<T> current = Iterators.emptyIterator();
+    private boolean done;
+
+    public PrefetchingIterator(PersistenceService service, Executor executor, Keyset<T> keyset,
+        int batchSize, int depth) {
+        this.service = Preconditions.checkNotNull(service, "Service");
+        this.executor = Preconditions.checkNotNull(executor, "Executor");
+        this.keyset = Preconditions.checkNotNull(keyset, "Keyset");
+        this.batchSize = batchSize;
+        this.depth = depth;
+        synchronized (lock) {
+            schedule();
+        }
+    }
+
+    /**
+     * Schedules the next fetch. Must be called while holding the lock.
+     */
+    private void schedule() {
+        fetching = true;
+        try {
+            executor.execute(new Fetch());
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Executor rejected prefetching, fetching on demand");
+            fetching = false;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (current.hasNext()) {
+            return true;
+        } else if (done) {
+            return false;
+        } else {
+            advance();
+            return current.hasNext();
+        }
+    }
+
+    private void advance() {
+        Page<T> page = null;
+        while (page == null) {
+            synchronized (lock) {
+                while (pages.isEmpty() && fetching) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException(e);
+                    }
+                }
+                if (pages.isEmpty()) {
+                    // the executor rejected the fetch
+                    fetching = true;
+                } else {
+                    page = pages.remove();
+                    if (!fetching && !exhausted) {
+                        schedule();
+                    }
+                }
+            }
+            if (page == null) {
+                new Fetch().run();
+            }
+        }
+        if (page.failure != null) {
+            done = true;
+            throw page.failure;
+        } else if (page.entities.isEmpty()) {
+            done = true;
+        }
+        current = page.entities.iterator();
+    }
+
+    @Override
+    public T next() {
+        if (hasNext()) {
+            return current.next();
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * A fetched page or the failure which occured while fetching it. An empty page marks the end.
+     *
+     * @param <T> generic entity type
+     */
+    private static final class Page<T> {
+
+        private final List<T> entities;
+        private final RuntimeException failure;
+
+        public Page(List<T> entities, RuntimeException failure) {
+            this.entities = entities;
+            this.failure = failure;
+        }
+
+    }
+
+    /**
+     * Fetches the page following the last fetched one.
+     */
+    private final class Fetch implements Runnable {
+
+        @Override
+        public void run() {
+            final Object after;
+            synchronized (lock) {
+                after = last;
+            }
+            Page<T> page;
+            try {
+                page = new Page<T>(fetch(after), null);
+            /*CHECKSTYLE:OFF*/
+            } catch (RuntimeException e) {
+            /*CHECKSTYLE:ON*/
+                LOG.error("Prefetching failed", e);
+                page = new Page<T>(Collections.<T>emptyList(), e);
+            }
+            synchronized (lock) {
+                fetching = false;
+                pages.add(page);
+                if (page.failure != null || page.entities.size() < batchSize) {
+                    exhausted = true;
+                    if (!page.entities.isEmpty()) {
+                        // marks the end
+                        pages.add(new Page<T>(Collections.<T>emptyList(), null));
+                    }
+                } else {
+                    last = keyset.last(page.entities);
+                    if (pages.size() < depth) {
+                        schedule();
+                    }
+                }
+                lock.notifyAll();
+            }
+        }
+
+        private List<T> fetch(Object after) {
+            final EntityManager manager = service.createEntityManager();
+            try {
+                return keyset.page(manager, after, batchSize);
+            } finally {
+                manager.close();
+            }
+        }
+
+    }
+
+}
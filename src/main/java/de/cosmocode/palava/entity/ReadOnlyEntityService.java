@@ -16,6 +16,7 @@
 
 package de.cosmocode.palava.entity;
 
+import com.google.common.base.Function;
 import com.google.common.collect.UnmodifiableIterator;
 
 import javax.persistence.EntityNotFoundException;
@@ -24,7 +25,9 @@ import javax.persistence.NonUniqueResultException;
 import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A service which allows readonly-operations on entites of a specific type.
@@ -43,6 +46,19 @@ public interface ReadOnlyEntityService<T> {
      *         or null if there is no such entity
      */
     T get(Object identifier);
+
+    /**
+     * Retrieves an entity from a shared cache, if the implementation provides one,
+     * and behaves like {@link #get(Object)} otherwise. An entity already loaded by the
+     * current persistence context is returned as it is. All others may be <strong>detached</strong>
+     * instances shared with other threads, which must be treated as read only.
+     *
+     * @since 3.6
+     * @param identifier the entity's identifier
+     * @return the entity associated with the given identifier
+     *         or null if there is no such entity
+     */
+    T getCached(Object identifier);
     
     /**
      * Retrieves an entity from the database.
@@ -54,6 +70,42 @@ public interface ReadOnlyEntityService<T> {
      */
     T read(Object identifier);
     
+    /**
+     * Retrieves multiple entities from the database using a small number of <code>IN</code> queries.
+     * Entities already loaded by the current persistence context are returned as the managed instances.
+     *
+     * @since 3.6
+     * @param identifiers the entities' identifiers, numbers are converted to the identifier type
+     * @return a list of all entities associated with the given identifiers
+     *         in the order of their identifiers, missing entities are skipped
+     * @throws NullPointerException if identifiers is or contains null
+     */
+    List<T> get(Collection<?> identifiers);
+
+    /**
+     * Retrieves multiple entities from the database using a small number of <code>IN</code> queries.
+     * Entities already loaded by the current persistence context are returned as the managed instances.
+     *
+     * @since 3.6
+     * @param identifiers the entities' identifiers, numbers are converted to the identifier type
+     * @return a list of all entities associated with the given identifiers
+     *         in the order of their identifiers
+     * @throws NullPointerException if identifiers is or contains null
+     * @throws PersistenceException if there is no entity for one of the given identifiers
+     */
+    List<T> read(Collection<?> identifiers);
+
+    /**
+     * Retrieves multiple entities from the database like {@link #get(Collection)} does.
+     *
+     * @since 3.6
+     * @param identifiers the entities' identifiers, numbers are converted to the identifier type
+     * @return a map of all found entities keyed by their identifiers, iterating
+     *         in the order of the given identifiers, missing entities are skipped
+     * @throws NullPointerException if identifiers is or contains null
+     */
+    Map<Object, T> getAll(Collection<?> identifiers);
+
     /**
      * Retrievs an entity from the database.
      *
@@ -157,7 +209,83 @@ public interface ReadOnlyEntityService<T> {
      * @throws IllegalArgumentException if batchSize is not positive
      */
     Iterable<T> iterate(TypedQuery<T> query, int batchSize);
-    
+
+    /**
+     * Iterates through all entities of type T ordered by their identifier using keyset pagination.
+     * Every page is fetched using <code>WHERE id &gt; :last ORDER BY id</code> instead of an offset,
+     * which keeps the cost per page constant, no matter how deep the iteration goes. The next page
+     * is loaded once the current one has been consumed.
+     *
+     * @since 3.6
+     * @param batchSize the number of entities per page
+     * @return an {@link Iterable} of {@link UnmodifiableIterator}s over all elements of T
+     * @throws IllegalArgumentException if batchSize is not positive
+     */
+    Iterable<T> seek(int batchSize);
+
+    /**
+     * Iterates through all entities of type T ordered by the specified attribute using keyset pagination.
+     * The attribute has to be unique and not null, otherwise entities may be skipped.
+     *
+     * @since 3.6
+     * @param attribute the name of the ordered attribute
+     * @param key a function which returns the value of the attribute for a given entity
+     * @param batchSize the number of entities per page
+     * @return an {@link Iterable} of {@link UnmodifiableIterator}s over all elements of T
+     * @throws NullPointerException if attribute or key is null
+     * @throws IllegalArgumentException if batchSize is not positive
+     */
+    Iterable<T> seek(String attribute, Function<? super T, ?> key, int batchSize);
+
+    /**
+     * Iterates through all entities of type T ordered by their identifier while fetching
+     * the following pages in the background. Pages are loaded using keyset pagination and
+     * short-lived {@link javax.persistence.EntityManager}s, which allows processing the current
+     * page while the next ones are being fetched.
+     *
+     * <p>
+     *   <strong>Note</strong>: The returned entities are detached, changes will not be
+     *   persisted and lazy relationships can not be loaded.
+     * </p>
+     *
+     * @since 3.6
+     * @param batchSize the amount of entities per page
+     * @param depth the maximum number of pages being fetched ahead
+     * @return an {@link Iterable} of {@link UnmodifiableIterator}s over all elements of T
+     * @throws IllegalArgumentException if batchSize or depth is not positive
+     * @throws UnsupportedOperationException if the implementation does not support this feature
+     */
+    Iterable<T> prefetch(int batchSize, int depth);
+
+    /**
+     * Streams all entities of type T ordered by their identifier. Entities are loaded
+     * in chunks of fetch size entities using keyset pagination and JDBC fetch size hints,
+     * which allows processing whole tables in constant memory if detach is enabled.
+     *
+     * @since 3.6
+     * @param fetchSize the number of entities per chunk
+     * @param detach whether every chunk should be detached from the persistence context once consumed
+     * @return a new {@link EntityStream} which should be closed after use
+     * @throws IllegalArgumentException if fetchSize is not positive
+     */
+    EntityStream<T> stream(int fetchSize, boolean detach);
+
+    /**
+     * Streams all results of the given query. Results are loaded in chunks of fetch
+     * size entities using {@link TypedQuery#setFirstResult(int)} and JDBC fetch size hints.
+     * The stream starts at the query's first result and ends after its maximum number
+     * of results, if set. The query is modified while streaming.
+     *
+     * @since 3.6
+     * @param query the query being streamed
+     * @param fetchSize the number of entities per chunk
+     * @param detach whether every chunk should be detached from the persistence context once consumed
+     * @return a new {@link EntityStream} which should be closed after use
+     * @throws NullPointerException if query is null
+     * @throws IllegalArgumentException if fetchSize is not positive
+     */
+    EntityStream<T> stream(TypedQuery<T> query, int fetchSize, boolean detach);
+
     /**
      * Retrieves a projection, a single column, single row value.
      *
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Iterator;
+
+import javax.persistence.EntityManager;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keyset based {@link Iterable} implementation used by {@link AbstractReadOnlyEntityService#seek(int)}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+final class SeekingIterable<T> implements Iterable<T> {
+
+    private final EntityManager manager;
+    private final Keyset<T> keyset;
+    private final int batchSize;
+
+    public SeekingIterable(EntityManager manager, Keyset<T> keyset, int batchSize) {
+        this.manager = Preconditions.checkNotNull(manager, "Manager");
+        this.keyset = Preconditions.checkNotNull(keyset, "Keyset");
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new SeekingIterator<T>(manager, keyset, batchSize);
+    }
+
+}
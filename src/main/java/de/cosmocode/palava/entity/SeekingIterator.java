@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.UnmodifiableIterator;
+
+/**
+ * An iterator which pages using a {@link Keyset} instead of an offset. Pages are loaded
+ * lazily once the previous one has been consumed completely, which allows callers to
+ * clear the underlying {@link EntityManager} between pages without detaching entities
+ * which have not been returned yet.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+final class SeekingIterator<T> extends UnmodifiableIterator<T> {
+
+    private final EntityManager manager;
+    private final Keyset<T> keyset;
+    private final int batchSize;
+
+    private Object last;
+    private boolean exhausted;
+
+    private Iterator<T> current = Iterators.emptyIterator();
+
+    public SeekingIterator(EntityManager manager, Keyset<T> keyset, int batchSize) {
+        this.manager = Preconditions.checkNotNull(manager, "Manager");
+        this.keyset = Preconditions.checkNotNull(keyset, "Keyset");
+        this.batchSize = batchSize;
+    }
+
+    private void load() {
+        final List<T> page = keyset.page(manager, last, batchSize);
+        // a short page is the last one, no need to ask the database again
+        exhausted = page.size() < batchSize;
+        if (!page.isEmpty()) {
+            last = keyset.last(page);
+        }
+        current = page.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!current.hasNext() && !exhausted) {
+            load();
+        }
+        return current.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (hasNext()) {
+            return current.next();
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+
+import de.cosmocode.palava.jpa.Transactional;
+import de.cosmocode.palava.model.base.AbstractEntity;
+import de.cosmocode.palava.model.base.EntityBase;
+
+/**
+ * An abstract {@link EntityService} which hides entities by setting their deletion date
+ * instead of removing them. Besides {@link #delete(AbstractEntity)}, this implementation
+ * allows soft deleting and restoring many entities at once using set-based
+ * <code>UPDATE</code> statements, which also set the modification date and increment the version.
+ *
+ * <p>
+ *   Set-based operations flush pending changes beforehand, refresh all affected entities
+ *   managed by the current entity manager and evict affected entities from the second
+ *   level cache afterwards. Besides identifiers, they accept entities.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <T> generic entity type
+ */
+public abstract class SoftDeletingEntityService<T extends AbstractEntity> extends AbstractEntityService<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SoftDeletingEntityService.class);
+
+    private static final String DELETE = "UPDATE %s e SET e.deletedAt = :now, e.modifiedAt = :now, " +
+        "e.version = e.version + 1 WHERE e.%s IN (:identifiers) AND e.deletedAt IS NULL";
+
+    private static final String RESTORE = "UPDATE %s e SET e.deletedAt = NULL, e.modifiedAt = :now, " +
+        "e.version = e.version + 1 WHERE e.%s IN (:identifiers) AND e.deletedAt IS NOT NULL";
+
+    /**
+     * Marks the given entity as deleted using {@link EntityBase#setDeleted()}.
+     *
+     * @param entity the entity being deleted
+     * @throws NullPointerException if entity is null
+     */
+    @Override
+    public void delete(T entity) {
+        Preconditions.checkNotNull(entity, "Entity");
+        LOG.debug("Marking {} as deleted", entity);
+        final EntityManager manager = entityManager();
+        final T managed = manager.contains(entity) ? entity : manager.merge(entity);
+        managed.setDeleted();
+        invalidate(managed.getId());
+    }
+
+    /**
+     * Marks all entities associated with the given identifiers as deleted, which are not yet deleted.
+     *
+     * @param identifiers the identifiers of the entities or the entities being deleted
+     * @return the number of deleted entities
+     * @throws NullPointerException if identifiers is or contains null
+     */
+    @Transactional
+    @Override
+    public int deleteAll(Collection<?> identifiers) {
+        return update(DELETE, identifiers);
+    }
+
+    /**
+     * Restores all entities associated with the given identifiers, which are deleted.
+     *
+     * @param identifiers the identifiers of the entities or the entities being restored
+     * @return the number of restored entities
+     * @throws NullPointerException if identifiers is or contains null
+     */
+    @Transactional
+    public int restoreAll(Collection<?> identifiers) {
+        return update(RESTORE, identifiers);
+    }
+
+    /**
+     * Restores all entities associated with the identifiers selected by the given query,
+     * see {@link #restoreAll(Collection)}.
+     *
+     * @param query a query selecting identifiers
+     * @param parameters the parameters the query needs
+     * @return the number of restored entities
+     * @throws NullPointerException if query is null
+     */
+    @Transactional
+    public int restoreAll(Query query, Object... parameters) {
+        return restoreAll(prepare(query, parameters).getResultList());
+    }
+
+    private int update(String statement, Collection<?> identifiers) {
+        Preconditions.checkNotNull(identifiers, "Identifiers");
+        final Class<?> type = identifierType();
+        final Set<Object> unique = Sets.newLinkedHashSet();
+        for (Object identifier : identifiers) {
+            Preconditions.checkNotNull(identifier, "Identifier");
+            if (entityClass().isInstance(identifier)) {
+                unique.add(normalize(entityClass().cast(identifier).getId(), type));
+            } else {
+                unique.add(normalize(identifier, type));
+            }
+        }
+        if (unique.isEmpty()) {
+            return 0;
+        }
+
+        final EntityManager manager = entityManager();
+        // refreshing would discard pending changes
+        manager.flush();
+
+        final String jpql = String.format(statement, entityType().getName(), identifierName());
+        final Date now = new Date();
+        int updated = 0;
+        for (List<Object> chunk : Iterables.partition(unique, inLimit())) {
+            final Query query = manager.createQuery(jpql);
+            query.setParameter("now", now, TemporalType.TIMESTAMP);
+            query.setParameter("identifiers", chunk);
+            updated += query.executeUpdate();
+        }
+        LOG.debug("Updated {} of {} {}s", new Object[] {
+            updated, unique.size(), entityClass().getSimpleName()
+        });
+
+        final PersistenceUnitUtil util = manager.getEntityManagerFactory().getPersistenceUnitUtil();
+        for (Object identifier : unique) {
+            final T entity;
+            try {
+                // returns the managed instance if there is one, an unloaded reference otherwise
+                entity = manager.getReference(entityClass(), identifier);
+            } catch (EntityNotFoundException e) {
+                continue;
+            }
+            if (util.isLoaded(entity)) {
+                LOG.trace("Refreshing {}", entity);
+                manager.refresh(entity);
+            }
+        }
+
+        final Cache cache = manager.getEntityManagerFactory().getCache();
+        if (cache != null) {
+            for (Object identifier : unique) {
+                cache.evict(entityClass(), identifier);
+            }
+        }
+        invalidateEach(unique);
+        return updated;
+    }
+
+}
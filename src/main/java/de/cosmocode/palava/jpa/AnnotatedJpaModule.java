@@ -27,6 +27,7 @@ import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 
+import de.cosmocode.palava.jpa.cache.CacheManager;
 import de.cosmocode.palava.scope.UnitOfWork;
 
 /**
@@ -54,7 +55,8 @@ final class AnnotatedJpaModule implements Module {
             to(Key.get(PersistenceService.class, annotation)).in(Singleton.class);
         binder.bind(EntityManager.class).annotatedWith(annotation).
             toProvider(Key.get(PersistenceService.class, annotation)).in(UnitOfWork.class);
-        
+        binder.bind(CacheManager.class).annotatedWith(annotation).toProvider(
+            new CacheManagerProvider(binder.getProvider(Key.get(PersistenceService.class, annotation))));
     }
 
 }
@@ -18,6 +18,7 @@ package de.cosmocode.palava.jpa;
 
 import java.lang.annotation.Annotation;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -29,6 +30,7 @@ import com.google.inject.name.Names;
 
 import de.cosmocode.palava.core.inject.AbstractRebindModule;
 import de.cosmocode.palava.core.inject.Config;
+import de.cosmocode.palava.jpa.cache.CacheManager;
 import de.cosmocode.palava.scope.UnitOfWork;
 
 /**
@@ -57,6 +59,24 @@ public final class AnnotatedRebindingJpaModule extends AbstractRebindModule {
     protected void optionals() {
         bind(Properties.class).annotatedWith(Names.named(PersistenceConfig.PROPERTIES)).to(
             Key.get(Properties.class, Names.named(config.prefixed(PersistenceConfig.PROPERTIES))));
+        bind(Boolean.class).annotatedWith(Names.named(PersistenceConfig.PARALLEL_BOOTSTRAP)).to(
+            Key.get(Boolean.class, Names.named(config.prefixed(PersistenceConfig.PARALLEL_BOOTSTRAP))));
+        bind(Boolean.class).annotatedWith(Names.named(PersistenceConfig.WARM_UP)).to(
+            Key.get(Boolean.class, Names.named(config.prefixed(PersistenceConfig.WARM_UP))));
+        bind(Integer.class).annotatedWith(Names.named(PersistenceConfig.WARM_UP_CONNECTIONS)).to(
+            Key.get(Integer.class, Names.named(config.prefixed(PersistenceConfig.WARM_UP_CONNECTIONS))));
+        bind(String.class).annotatedWith(Names.named(PersistenceConfig.PRELOAD)).to(
+            Key.get(String.class, Names.named(config.prefixed(PersistenceConfig.PRELOAD))));
+        bind(Integer.class).annotatedWith(Names.named(PersistenceConfig.PRELOAD_BATCH_SIZE)).to(
+            Key.get(Integer.class, Names.named(config.prefixed(PersistenceConfig.PRELOAD_BATCH_SIZE))));
+        bind(Long.class).annotatedWith(Names.named(PersistenceConfig.LEAK_THRESHOLD)).to(
+            Key.get(Long.class, Names.named(config.prefixed(PersistenceConfig.LEAK_THRESHOLD))));
+        bind(TimeUnit.class).annotatedWith(Names.named(PersistenceConfig.LEAK_THRESHOLD_UNIT)).to(
+            Key.get(TimeUnit.class, Names.named(config.prefixed(PersistenceConfig.LEAK_THRESHOLD_UNIT))));
+        bind(Long.class).annotatedWith(Names.named(PersistenceConfig.SLOW_QUERY_THRESHOLD)).to(
+            Key.get(Long.class, Names.named(config.prefixed(PersistenceConfig.SLOW_QUERY_THRESHOLD))));
+        bind(TimeUnit.class).annotatedWith(Names.named(PersistenceConfig.SLOW_QUERY_THRESHOLD_UNIT)).to(
+            Key.get(TimeUnit.class, Names.named(config.prefixed(PersistenceConfig.SLOW_QUERY_THRESHOLD_UNIT))));
     }
 
     @Override
@@ -67,6 +87,8 @@ public final class AnnotatedRebindingJpaModule extends AbstractRebindModule {
             to(Key.get(PersistenceService.class, annotation)).in(Singleton.class);
         bind(EntityManager.class).annotatedWith(annotation).
             toProvider(Key.get(PersistenceService.class, annotation)).in(UnitOfWork.class);
+        bind(CacheManager.class).annotatedWith(annotation).toProvider(
+            new CacheManagerProvider(getProvider(Key.get(PersistenceService.class, annotation))));
     }
 
     @Override
@@ -74,6 +96,7 @@ public final class AnnotatedRebindingJpaModule extends AbstractRebindModule {
         expose(PersistenceService.class).annotatedWith(annotation);
         expose(EntityManagerFactory.class).annotatedWith(annotation);
         expose(EntityManager.class).annotatedWith(annotation);
+        expose(CacheManager.class).annotatedWith(annotation);
     }
 
 }
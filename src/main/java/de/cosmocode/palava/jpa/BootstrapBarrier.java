@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Fails the startup if an entity manager factory which has been bootstrapped in parallel
+ * could not be created. Factories of units created after this barrier are awaited by the
+ * units themselves.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class BootstrapBarrier implements Initializable {
+
+    private final ParallelBootstrap bootstrap;
+
+    @Inject
+    public BootstrapBarrier(ParallelBootstrap bootstrap) {
+        this.bootstrap = Preconditions.checkNotNull(bootstrap, "Bootstrap");
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        bootstrap.await();
+    }
+
+}
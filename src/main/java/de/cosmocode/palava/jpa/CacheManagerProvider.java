@@ -0,0 +1,52 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Provider;
+
+import de.cosmocode.palava.jpa.cache.CacheManager;
+
+/**
+ * Provides the {@link CacheManager} of a bound {@link PersistenceService}, which keeps the
+ * cache manager out of the {@link PersistenceService} interface and therefore out of the way
+ * of custom implementations.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class CacheManagerProvider implements Provider<CacheManager> {
+
+    private final Provider<? extends PersistenceService> provider;
+
+    public CacheManagerProvider(Provider<? extends PersistenceService> provider) {
+        this.provider = Preconditions.checkNotNull(provider, "Provider");
+    }
+
+    @Override
+    public CacheManager get() {
+        final PersistenceService service = provider.get();
+        if (service instanceof DefaultPersistenceService) {
+            return DefaultPersistenceService.class.cast(service).getCacheManager();
+        } else if (service instanceof RoutingPersistenceService) {
+            return RoutingPersistenceService.class.cast(service).getCacheManager();
+        } else {
+            throw new IllegalStateException(String.format("%s does not manage caches", service));
+        }
+    }
+
+}
@@ -0,0 +1,524 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.persistence.Cache;
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.palava.jpa.cache.CacheManager;
+import de.cosmocode.palava.jpa.cache.CacheStatisticsMBean;
+import de.cosmocode.palava.jpa.cache.EntityCache;
+import de.cosmocode.palava.jpa.cache.QueryResultCache;
+
+/**
+ * Default implementation of the {@link CacheManager} interface, which uses keyset pagination
+ * to preload entities in batches of constant cost.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class DefaultCacheManager implements CacheManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultCacheManager.class);
+
+    private static final String STORE_MODE = "javax.persistence.cache.storeMode";
+
+    private final String unitName;
+
+    private final EntityManagerFactory factory;
+
+    private final MBeanServer server;
+
+    private final int batchSize;
+
+    private final ConcurrentMap<String, CacheStatisticsMBean> caches = Maps.newConcurrentMap();
+
+    /**
+     * Constructor.
+     *
+     * @param unitName the persistence unit name, used for logging and JMX
+     * @param factory the factory whose second level cache is managed
+     * @param server the server registered caches are exported to
+     * @param batchSize the number of entities loaded at once when preloading
+     */
+    DefaultCacheManager(String unitName, EntityManagerFactory factory, MBeanServer server, int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "BatchSize must be positive");
+        this.unitName = Preconditions.checkNotNull(unitName, "UnitName");
+        this.factory = Preconditions.checkNotNull(factory, "Factory");
+        this.server = Preconditions.checkNotNull(server, "Server");
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public int preload(Class<?> type) {
+        Preconditions.checkNotNull(type, "Type");
+        return preload(factory, type, null, null);
+    }
+
+    @Override
+    public int preload(Class<?> type, Object from, Object to) {
+        Preconditions.checkNotNull(type, "Type");
+        Preconditions.checkNotNull(from, "From");
+        Preconditions.checkNotNull(to, "To");
+        return preload(factory, type, from, to);
+    }
+
+    /**
+     * Resolves the entity types and identifier ranges of all given regions.
+     *
+     * @param target the factory whose metamodel is searched
+     * @param regions the regions to resolve
+     * @return the resolved ranges, in the order of the given regions
+     * @throws IllegalArgumentException if a region does not name an entity or if its
+     *         identifiers don't match the identifier type of the entity
+     */
+    static List<Range> resolve(EntityManagerFactory target, List<Region> regions) {
+        final ImmutableList.Builder<Range> builder = ImmutableList.builder();
+        for (Region region : regions) {
+            builder.add(region.resolve(target));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Preloads all given ranges using the given factory. Failures are logged but never propagated.
+     * This allows to preload during the creation of the factory, before it is available to this manager.
+     *
+     * @param target the factory to load from
+     * @param ranges the resolved ranges to preload
+     */
+    void preload(EntityManagerFactory target, List<Range> ranges) {
+        for (Range range : ranges) {
+            try {
+                preload(target, range.type, range.from, range.to);
+            /*CHECKSTYLE:OFF*/
+            } catch (RuntimeException e) {
+            /*CHECKSTYLE:ON*/
+                LOG.warn("Unable to preload " + range + " of " + unitName, e);
+            }
+        }
+    }
+
+    private int preload(EntityManagerFactory target, Class<?> type, Object from, Object to) {
+        final long start = System.nanoTime();
+        final Keyset keyset = new Keyset(target, type, from, to);
+        final EntityManager manager = target.createEntityManager();
+        Object first = null;
+        int count = 0;
+        try {
+            Object last = null;
+            while (true) {
+                final Query query = keyset.query(manager, "e", last);
+                // forces the provider to put entities into the cache even if they are already present
+                query.setHint(STORE_MODE, CacheStoreMode.REFRESH);
+                final List<?> page = query.setMaxResults(batchSize).getResultList();
+                if (first == null && !page.isEmpty()) {
+                    first = target.getPersistenceUnitUtil().getIdentifier(page.get(0));
+                }
+                count += page.size();
+                LOG.trace("Preloaded {} {}s so far", count, type.getSimpleName());
+                if (page.size() < batchSize) {
+                    break;
+                }
+                last = target.getPersistenceUnitUtil().getIdentifier(page.get(page.size() - 1));
+                // cached entities don't need to be kept in the persistence context
+                manager.clear();
+            }
+        } finally {
+            manager.close();
+        }
+        LOG.info("Preloaded {} {}s of {} in {}ms", new Object[] {
+            count, type.getSimpleName(), unitName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        });
+        if (first != null && !target.getCache().contains(type, first)) {
+            LOG.warn("Preloaded {}s are not cached by {}, is the second level cache enabled for them?",
+                type.getSimpleName(), unitName);
+        }
+        return count;
+    }
+
+    private static Object identifier(String value, Class<?> type) {
+        if (type == Long.class || type == long.class) {
+            return Long.valueOf(value);
+        } else if (type == Integer.class || type == int.class) {
+            return Integer.valueOf(value);
+        } else if (type == Short.class || type == short.class) {
+            return Short.valueOf(value);
+        } else if (type == String.class) {
+            return value;
+        } else {
+            throw new IllegalArgumentException(String.format("%s identifiers can not be configured", type));
+        }
+    }
+
+    @Override
+    public boolean contains(Class<?> type, Object identifier) {
+        Preconditions.checkNotNull(type, "Type");
+        Preconditions.checkNotNull(identifier, "Identifier");
+        return factory.getCache().contains(type, identifier);
+    }
+
+    @Override
+    public void evict(Class<?> type) {
+        Preconditions.checkNotNull(type, "Type");
+        LOG.info("Evicting all {}s of {}", type.getSimpleName(), unitName);
+        factory.getCache().evict(type);
+        for (CacheStatisticsMBean cache : caches.values()) {
+            if (cache instanceof EntityCache) {
+                EntityCache.class.cast(cache).invalidateAll(type);
+            } else {
+                QueryResultCache.class.cast(cache).invalidate(type);
+            }
+        }
+    }
+
+    @Override
+    public void evict(Class<?> type, Collection<?> identifiers) {
+        Preconditions.checkNotNull(type, "Type");
+        Preconditions.checkNotNull(identifiers, "Identifiers");
+        LOG.info("Evicting {} {}s of {}", new Object[] {identifiers.size(), type.getSimpleName(), unitName});
+        final Cache cache = factory.getCache();
+        for (Object identifier : identifiers) {
+            cache.evict(type, identifier);
+        }
+        for (CacheStatisticsMBean each : caches.values()) {
+            if (each instanceof EntityCache) {
+                for (Object identifier : identifiers) {
+                    EntityCache.class.cast(each).invalidate(type, identifier);
+                }
+            } else {
+                QueryResultCache.class.cast(each).invalidate(type);
+            }
+        }
+    }
+
+    @Override
+    public void evictAll() {
+        LOG.info("Evicting all entities of {}", unitName);
+        factory.getCache().evictAll();
+        for (CacheStatisticsMBean cache : caches.values()) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public double getOccupancy(Class<?> type) {
+        Preconditions.checkNotNull(type, "Type");
+        final Keyset keyset = new Keyset(factory, type, null, null);
+        final Cache cache = factory.getCache();
+        final EntityManager manager = factory.createEntityManager();
+        int total = 0;
+        int cached = 0;
+        try {
+            Object last = null;
+            while (true) {
+                final List<?> page = keyset.query(manager, "e." + keyset.identifier, last).
+                    setMaxResults(batchSize).getResultList();
+                for (Object identifier : page) {
+                    if (cache.contains(type, identifier)) {
+                        cached++;
+                    }
+                }
+                total += page.size();
+                if (page.size() < batchSize) {
+                    break;
+                }
+                last = page.get(page.size() - 1);
+            }
+        } finally {
+            manager.close();
+        }
+        LOG.debug("{}/{} {}s of {} are cached", new Object[] {cached, total, type.getSimpleName(), unitName});
+        return total == 0 ? 0d : (double) cached / total;
+    }
+
+    @Override
+    public void register(String name, EntityCache cache) {
+        register(name, (CacheStatisticsMBean) cache);
+    }
+
+    @Override
+    public void register(String name, QueryResultCache cache) {
+        register(name, (CacheStatisticsMBean) cache);
+    }
+
+    private void register(String name, CacheStatisticsMBean cache) {
+        Preconditions.checkNotNull(name, "Name");
+        Preconditions.checkNotNull(cache, "Cache");
+        Preconditions.checkState(caches.putIfAbsent(name, cache) == null,
+            "There is already a cache named %s registered in %s", name, unitName);
+        try {
+            // caches don't follow the standard mbean naming convention
+            server.registerMBean(new StandardMBean(cache, CacheStatisticsMBean.class), nameOf(name));
+        } catch (JMException e) {
+            LOG.warn("Unable to register statistics of cache " + name + " of " + unitName, e);
+        }
+    }
+
+    private ObjectName nameOf(String name) throws JMException {
+        return new ObjectName(String.format("de.cosmocode.palava.jpa:type=CacheStatistics,unit=%s,name=%s",
+            ObjectName.quote(unitName), ObjectName.quote(name)));
+    }
+
+    @Override
+    public Map<String, CacheStatisticsMBean> getStatistics() {
+        return ImmutableMap.copyOf(caches);
+    }
+
+    /**
+     * Unregisters the statistics of all registered caches.
+     */
+    void dispose() {
+        for (String name : caches.keySet()) {
+            try {
+                server.unregisterMBean(nameOf(name));
+            } catch (JMException e) {
+                LOG.warn("Unable to unregister statistics of cache " + name + " of " + unitName, e);
+            }
+        }
+        caches.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DefaultCacheManager [unitName=%s, batchSize=%s]", unitName, batchSize);
+    }
+
+    /**
+     * Builds queries seeking through an entity class ordered by identifier.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private static final class Keyset {
+
+        private final String entity;
+
+        private final String identifier;
+
+        private final Object from;
+
+        private final Object to;
+
+        public Keyset(EntityManagerFactory factory, Class<?> type, Object from, Object to) {
+            final EntityType<?> entityType = factory.getMetamodel().entity(type);
+            this.entity = entityType.getName();
+            this.identifier = entityType.getId(entityType.getIdType().getJavaType()).getName();
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Creates a query selecting the page after the given identifier.
+         *
+         * @param manager the manager used to create the query
+         * @param selection the selection clause
+         * @param last the last identifier of the previous page, null for the first page
+         * @return a new query
+         */
+        public Query query(EntityManager manager, String selection, Object last) {
+            final List<String> conditions = Lists.newArrayListWithCapacity(3);
+            if (from != null) {
+                conditions.add(String.format("e.%s >= :from", identifier));
+            }
+            if (to != null) {
+                conditions.add(String.format("e.%s <= :to", identifier));
+            }
+            if (last != null) {
+                conditions.add(String.format("e.%s > :last", identifier));
+            }
+            final StringBuilder jpql = new StringBuilder("SELECT ").append(selection).
+                append(" FROM ").append(entity).append(" e");
+            for (int i = 0; i < conditions.size(); i++) {
+                jpql.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+            }
+            jpql.append(" ORDER BY e.").append(identifier);
+            final Query query = manager.createQuery(jpql.toString());
+            if (from != null) {
+                query.setParameter("from", from);
+            }
+            if (to != null) {
+                query.setParameter("to", to);
+            }
+            if (last != null) {
+                query.setParameter("last", last);
+            }
+            return query;
+        }
+
+    }
+
+    /**
+     * A configured region of entities which should be preloaded, either
+     * a whole entity class or a range of identifiers.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    static final class Region {
+
+        private static final Pattern PATTERN = Pattern.compile("([\\w.$]+)(?:\\[([^\\]]+)\\.\\.([^\\]]+)\\])?");
+
+        private static final Pattern NUMBER = Pattern.compile("-?\\d+");
+
+        private final String name;
+
+        private final String from;
+
+        private final String to;
+
+        private Region(String name, String from, String to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Parses a comma separated list of entity or class names, each optionally followed
+         * by an inclusive range of identifiers, e.g. {@code "Country, Product[1..5000]"}.
+         * Whether the identifiers match the identifier type of the entity can only be checked
+         * once the metamodel is available, see {@link #resolve(EntityManagerFactory)}.
+         *
+         * @param value the value to parse
+         * @return all parsed regions
+         * @throws NullPointerException if value is null
+         * @throws IllegalArgumentException if value is malformed, if the bounds of a range are
+         *         of different kinds or if the lower bound exceeds the upper bound
+         */
+        static List<Region> parse(String value) {
+            Preconditions.checkNotNull(value, "Value");
+            final ImmutableList.Builder<Region> builder = ImmutableList.builder();
+            for (String each : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+                final Matcher matcher = PATTERN.matcher(each);
+                Preconditions.checkArgument(matcher.matches(), "Malformed region %s", each);
+                final String from = trim(matcher.group(2));
+                final String to = trim(matcher.group(3));
+                if (from != null) {
+                    checkBounds(each, from, to);
+                }
+                builder.add(new Region(matcher.group(1), from, to));
+            }
+            return builder.build();
+        }
+
+        private static void checkBounds(String region, String from, String to) {
+            final boolean numeric = NUMBER.matcher(from).matches();
+            Preconditions.checkArgument(numeric == NUMBER.matcher(to).matches(),
+                "Bounds of region %s must either both be numbers or both be strings", region);
+            if (numeric) {
+                Preconditions.checkArgument(new BigInteger(from).compareTo(new BigInteger(to)) <= 0,
+                    "Lower bound of region %s exceeds its upper bound", region);
+            } else {
+                Preconditions.checkArgument(from.compareTo(to) <= 0,
+                    "Lower bound of region %s exceeds its upper bound", region);
+            }
+        }
+
+        private static String trim(String value) {
+            return value == null ? null : value.trim();
+        }
+
+        /**
+         * Resolves the entity type of this region by entity or class name and converts
+         * the configured identifiers into the identifier type of the entity.
+         *
+         * @param factory the factory whose metamodel is searched
+         * @return the resolved range
+         * @throws IllegalArgumentException if there is no such entity or if the identifiers
+         *         don't match its identifier type
+         */
+        Range resolve(EntityManagerFactory factory) {
+            for (EntityType<?> type : factory.getMetamodel().getEntities()) {
+                if (name.equals(type.getName()) || name.equals(type.getJavaType().getName())) {
+                    if (from == null) {
+                        return new Range(type.getJavaType(), null, null);
+                    }
+                    final Class<?> identifierType = type.getIdType().getJavaType();
+                    try {
+                        return new Range(type.getJavaType(),
+                            identifier(from, identifierType), identifier(to, identifierType));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException(String.format("Invalid identifiers in %s", this), e);
+                    }
+                }
+            }
+            throw new IllegalArgumentException(String.format("No entity named %s", name));
+        }
+
+        @Override
+        public String toString() {
+            return from == null ? name : String.format("%s[%s..%s]", name, from, to);
+        }
+
+    }
+
+    /**
+     * A {@link Region} resolved against the metamodel of a factory.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    static final class Range {
+
+        private final Class<?> type;
+
+        private final Object from;
+
+        private final Object to;
+
+        private Range(Class<?> type, Object from, Object to) {
+            this.type = type;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String toString() {
+            final String name = type.getSimpleName();
+            return from == null ? name : String.format("%s[%s..%s]", name, from, to);
+        }
+
+    }
+
+}
@@ -16,14 +16,27 @@
 
 package de.cosmocode.palava.jpa;
 
+import java.lang.management.ManagementFactory;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.FlushModeType;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
 import javax.persistence.PersistenceUnitUtil;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.metamodel.Metamodel;
@@ -32,12 +45,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import de.cosmocode.collections.Procedure;
 import de.cosmocode.palava.core.lifecycle.Disposable;
 import de.cosmocode.palava.core.lifecycle.Initializable;
 import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.jpa.cache.CacheManager;
 
 /**
  * Default implementation of the {@link PersistenceService} interface.
@@ -49,14 +65,48 @@ final class DefaultPersistenceService implements PersistenceService, Initializab
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultPersistenceService.class);
 
+    private static final int DEFAULT_PRELOAD_BATCH_SIZE = 500;
+
     private final String unitName;
 
-    private EntityManagerFactory factory;
+    private volatile EntityManagerFactory factory;
+
+    private boolean parallelBootstrap;
+
+    private ParallelBootstrap parallelBootstrapper;
+
+    private Future<EntityManagerFactory> bootstrap;
 
     private Properties properties;
     
     private FlushModeType flushModeType;
 
+    private boolean warmUp;
+
+    private int warmUpConnections = 1;
+
+    private String preload = "";
+
+    private int preloadBatchSize = DEFAULT_PRELOAD_BATCH_SIZE;
+
+    private DefaultCacheManager cacheManager;
+
+    private long leakThreshold = -1L;
+
+    private TimeUnit leakThresholdUnit = TimeUnit.SECONDS;
+
+    private long slowQueryThreshold = -1L;
+
+    private TimeUnit slowQueryThresholdUnit = TimeUnit.MILLISECONDS;
+
+    private SlowQueryLog slowQueryLog;
+
+    private MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private EntityManagerMonitor monitor;
+
+    private ScheduledExecutorService leakDetector;
+
     @Inject
     public DefaultPersistenceService(@Named(PersistenceConfig.UNIT_NAME) String unitName) {
         this.unitName = Preconditions.checkNotNull(unitName, "UnitName");
@@ -72,6 +122,63 @@ final class DefaultPersistenceService implements PersistenceService, Initializab
         this.flushModeType = Preconditions.checkNotNull(flushModeType, "FlushModeType");
     }
 
+    @Inject(optional = true)
+    void setParallelBootstrap(@Named(PersistenceConfig.PARALLEL_BOOTSTRAP) boolean parallelBootstrap) {
+        this.parallelBootstrap = parallelBootstrap;
+    }
+
+    @Inject(optional = true)
+    void setParallelBootstrapper(ParallelBootstrap parallelBootstrapper) {
+        this.parallelBootstrapper = Preconditions.checkNotNull(parallelBootstrapper, "ParallelBootstrapper");
+    }
+
+    @Inject(optional = true)
+    void setWarmUp(@Named(PersistenceConfig.WARM_UP) boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    @Inject(optional = true)
+    void setWarmUpConnections(@Named(PersistenceConfig.WARM_UP_CONNECTIONS) int warmUpConnections) {
+        Preconditions.checkArgument(warmUpConnections >= 0, "WarmUpConnections must not be negative");
+        this.warmUpConnections = warmUpConnections;
+    }
+
+    @Inject(optional = true)
+    void setPreload(@Named(PersistenceConfig.PRELOAD) String preload) {
+        this.preload = Preconditions.checkNotNull(preload, "Preload");
+    }
+
+    @Inject(optional = true)
+    void setPreloadBatchSize(@Named(PersistenceConfig.PRELOAD_BATCH_SIZE) int preloadBatchSize) {
+        Preconditions.checkArgument(preloadBatchSize > 0, "PreloadBatchSize must be positive");
+        this.preloadBatchSize = preloadBatchSize;
+    }
+
+    @Inject(optional = true)
+    void setLeakThreshold(@Named(PersistenceConfig.LEAK_THRESHOLD) long leakThreshold) {
+        this.leakThreshold = leakThreshold;
+    }
+
+    @Inject(optional = true)
+    void setLeakThresholdUnit(@Named(PersistenceConfig.LEAK_THRESHOLD_UNIT) TimeUnit leakThresholdUnit) {
+        this.leakThresholdUnit = Preconditions.checkNotNull(leakThresholdUnit, "LeakThresholdUnit");
+    }
+
+    @Inject(optional = true)
+    void setSlowQueryThreshold(@Named(PersistenceConfig.SLOW_QUERY_THRESHOLD) long slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    @Inject(optional = true)
+    void setSlowQueryThresholdUnit(@Named(PersistenceConfig.SLOW_QUERY_THRESHOLD_UNIT) TimeUnit unit) {
+        this.slowQueryThresholdUnit = Preconditions.checkNotNull(unit, "SlowQueryThresholdUnit");
+    }
+
+    @Inject(optional = true)
+    void setServer(MBeanServer server) {
+        this.server = Preconditions.checkNotNull(server, "Server");
+    }
+
     @Override
     public void initialize() throws LifecycleException {
         if (flushModeType == null) {
@@ -80,78 +187,234 @@ final class DefaultPersistenceService implements PersistenceService, Initializab
             LOG.info("Configuring EntityManagers with FlushMode {}", flushModeType);
         }
         
-        if (properties == null) {
-            LOG.info("Creating entity manager factory");
-            this.factory = Persistence.createEntityManagerFactory(unitName);
+        final List<DefaultCacheManager.Region> regions;
+        try {
+            regions = DefaultCacheManager.Region.parse(preload);
+        } catch (IllegalArgumentException e) {
+            throw new LifecycleException(e);
+        }
+        this.cacheManager = new DefaultCacheManager(unitName, this, server, preloadBatchSize);
+        final Procedure<EntityManagerFactory> startup = startup(
+            warmUp ? new WarmUp(unitName, warmUpConnections) : null, regions);
+
+        if (parallelBootstrap) {
+            LOG.info("Creating entity manager factory of {} in background", unitName);
+            if (parallelBootstrapper == null) {
+                // not created by an injector, nobody shares the executor
+                parallelBootstrapper = new ParallelBootstrap();
+            }
+            this.bootstrap = parallelBootstrapper.submit(unitName, properties, startup);
+        } else {
+            if (properties == null) {
+                LOG.info("Creating entity manager factory");
+                this.factory = Persistence.createEntityManagerFactory(unitName);
+            } else {
+                LOG.info("Creating entity manager factory using {}", properties);
+                this.factory = Persistence.createEntityManagerFactory(unitName, properties);
+            }
+            try {
+                startup.apply(factory);
+            } catch (IllegalArgumentException e) {
+                factory.close();
+                throw new LifecycleException(e);
+            }
+        }
+
+        monitor(leakThresholdUnit.toNanos(leakThreshold));
+
+        if (slowQueryThreshold < 0) {
+            LOG.info("Slow query log is disabled");
         } else {
-            LOG.info("Creating entity manager factory using {}", properties);
-            this.factory = Persistence.createEntityManagerFactory(unitName, properties);
+            LOG.info("Logging queries taking longer than {} {}", slowQueryThreshold, slowQueryThresholdUnit);
+            this.slowQueryLog = new SlowQueryLog(slowQueryThresholdUnit.toNanos(slowQueryThreshold));
+        }
+    }
+
+    private Procedure<EntityManagerFactory> startup(final WarmUp warmUpOrNull,
+        final List<DefaultCacheManager.Region> regions) {
+        return new Procedure<EntityManagerFactory>() {
+
+            @Override
+            public void apply(EntityManagerFactory input) {
+                // misconfigured regions fail the startup instead of being skipped silently
+                final List<DefaultCacheManager.Range> ranges = DefaultCacheManager.resolve(input, regions);
+                if (warmUpOrNull != null) {
+                    warmUpOrNull.run(input);
+                }
+                if (ranges.isEmpty()) {
+                    return;
+                }
+                LOG.info("Preloading {} of {}", ranges, unitName);
+                // the factory is not yet available through this service
+                cacheManager.preload(input, ranges);
+            }
+
+        };
+    }
+
+    private void monitor(long threshold) {
+        this.monitor = new EntityManagerMonitor(unitName, threshold);
+        try {
+            // the monitor does not follow the standard mbean naming convention
+            server.registerMBean(new StandardMBean(monitor, EntityManagerStatisticsMBean.class), statisticsName());
+        } catch (JMException e) {
+            LOG.warn("Unable to register entity manager statistics of " + unitName, e);
+        }
+
+        if (threshold > 0) {
+            LOG.info("Reporting entity managers open longer than {} {}", leakThreshold, leakThresholdUnit);
+            leakDetector = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("palava-jpa-leak-detector-%d").setDaemon(true).build());
+            leakDetector.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    monitor.check();
+                }
+
+            }, threshold, threshold, TimeUnit.NANOSECONDS);
+        } else {
+            LOG.info("Leak detection of entity managers is disabled");
+        }
+    }
+
+    private ObjectName statisticsName() throws JMException {
+        return new ObjectName(String.format("de.cosmocode.palava.jpa:type=EntityManagerStatistics,name=%s",
+            ObjectName.quote(unitName)));
+    }
+
+    /**
+     * Provides the factory, waiting for its creation if it is bootstrapped in parallel.
+     *
+     * @return the factory
+     * @throws PersistenceException if the factory could not be created
+     */
+    private EntityManagerFactory factory() {
+        final EntityManagerFactory current = factory;
+        if (current == null) {
+            Preconditions.checkState(bootstrap != null, "%s has not been initialized", unitName);
+            try {
+                factory = bootstrap.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Interrupted while creating factory of " + unitName, e);
+            } catch (ExecutionException e) {
+                throw new PersistenceException("Unable to create factory of " + unitName, e.getCause());
+            }
+            return factory;
+        } else {
+            return current;
         }
     }
 
     @Override
     public EntityManager createEntityManager() {
-        final EntityManager entityManager = factory.createEntityManager();
+        final EntityManager entityManager = factory().createEntityManager();
         if (flushModeType != null) {
             LOG.trace("Setting FlushMode of {} to {}", entityManager, flushModeType.name());
             entityManager.setFlushMode(flushModeType);
         }
-        return entityManager;
+        return decorate(entityManager);
     }
 
     @Override
     public EntityManager createEntityManager(@SuppressWarnings("rawtypes") Map map) {
-        final EntityManager entityManager = factory.createEntityManager(map);
+        final EntityManager entityManager = factory().createEntityManager(map);
         if (flushModeType != null) {
             LOG.trace("Setting FlushMode of {} to {}", entityManager, flushModeType.name());
             entityManager.setFlushMode(flushModeType);
         }
-        return entityManager;
+        return decorate(entityManager);
     }
     
+    private EntityManager decorate(EntityManager entityManager) {
+        return slowQueryLog == null ? entityManager : new SlowQueryEntityManager(entityManager, slowQueryLog);
+    }
+
+    EntityManagerMonitor getMonitor() {
+        return monitor;
+    }
+
     @Override
     public EntityManager get() {
-        return new DestroyableEntityManager(createEntityManager());
+        return new DestroyableEntityManager(this, monitor);
     }
 
     @Override
     public CriteriaBuilder getCriteriaBuilder() {
-        return factory.getCriteriaBuilder();
+        return factory().getCriteriaBuilder();
+    }
+
+    /**
+     * Provides the manager of this service's {@link #getCache() cache}.
+     *
+     * @since 3.6
+     * @return the cache manager
+     * @throws IllegalStateException if this service has not been initialized
+     */
+    CacheManager getCacheManager() {
+        Preconditions.checkState(cacheManager != null, "%s has not been initialized", unitName);
+        return cacheManager;
     }
 
     @Override
     public Metamodel getMetamodel() {
-        return factory.getMetamodel();
+        return factory().getMetamodel();
     }
 
     @Override
     public Map<String, Object> getProperties() {
-        return factory.getProperties();
+        return factory().getProperties();
     }
 
     @Override
     public Cache getCache() {
-        return factory.getCache();
+        return factory().getCache();
     }
 
     @Override
     public PersistenceUnitUtil getPersistenceUnitUtil() {
-        return factory.getPersistenceUnitUtil();
+        return factory().getPersistenceUnitUtil();
     }
 
     @Override
     public boolean isOpen() {
-        return factory.isOpen();
+        try {
+            return factory().isOpen();
+        } catch (PersistenceException e) {
+            // the factory could not be created
+            return false;
+        }
     }
 
     @Override
     public void close() {
-        LOG.info("Closing {}", factory);
-        factory.close();
+        final EntityManagerFactory current;
+        try {
+            current = factory();
+        } catch (PersistenceException e) {
+            LOG.warn("No entity manager factory of {} to close", unitName);
+            return;
+        }
+        LOG.info("Closing {}", current);
+        current.close();
     }
 
     @Override
     public void dispose() {
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        if (monitor != null) {
+            try {
+                server.unregisterMBean(statisticsName());
+            } catch (JMException e) {
+                LOG.warn("Unable to unregister entity manager statistics of " + unitName, e);
+            }
+        }
+        if (cacheManager != null) {
+            cacheManager.dispose();
+        }
         close();
     }
 
@@ -24,6 +24,8 @@ import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
+import de.cosmocode.palava.jpa.cache.CacheManager;
+
 /**
  * {@link Module} which binds the {@link PersistenceService} interface
  * to its default implementation and registers as a {@link Provider} for {@link EntityManager}s.
@@ -36,6 +38,8 @@ public final class DefaultPersistenceServiceModule implements Module {
     public void configure(Binder binder) {
         binder.bind(PersistenceService.class).to(DefaultPersistenceService.class).in(Singleton.class);
         binder.bind(EntityManagerFactory.class).to(PersistenceService.class).in(Singleton.class);
+        binder.bind(CacheManager.class).toProvider(
+            new CacheManagerProvider(binder.getProvider(PersistenceService.class)));
     }
     
 }
@@ -0,0 +1,420 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Default implementation of the {@link WriteBehindService} interface which uses a bounded
+ * queue and a single worker thread. The worker persists up to the configured batch size of
+ * entities per transaction and waits at most the configured flush interval for a batch to fill up.
+ * Pending entities are drained on {@link #dispose()}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class DefaultWriteBehindService implements WriteBehindService, Initializable, Disposable, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultWriteBehindService.class);
+
+    private static final Object STOP = new Object();
+
+    private static final Ordering<Object> BY_TYPE = Ordering.natural().onResultOf(new Function<Object, String>() {
+
+        @Override
+        public String apply(Object from) {
+            return from.getClass().getName();
+        }
+
+    });
+
+    private final PersistenceService service;
+
+    private int capacity = 10000;
+
+    private int batchSize = 100;
+
+    private long flushInterval = 1L;
+
+    private TimeUnit flushIntervalUnit = TimeUnit.SECONDS;
+
+    private long shutdownTimeout = 30L;
+
+    private TimeUnit shutdownTimeoutUnit = TimeUnit.SECONDS;
+
+    private WriteBehindPolicy policy = WriteBehindPolicy.BLOCK;
+
+    private BlockingQueue<Object> queue;
+
+    private ExecutorService worker;
+
+    private volatile boolean running;
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong discarded = new AtomicLong();
+
+    @Inject
+    public DefaultWriteBehindService(PersistenceService service) {
+        this.service = Preconditions.checkNotNull(service, "Service");
+    }
+
+    @Inject(optional = true)
+    void setCapacity(@Named(PersistenceConfig.WRITE_BEHIND_CAPACITY) int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    @Inject(optional = true)
+    void setBatchSize(@Named(PersistenceConfig.WRITE_BEHIND_BATCH_SIZE) int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "BatchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    @Inject(optional = true)
+    void setFlushInterval(@Named(PersistenceConfig.WRITE_BEHIND_FLUSH_INTERVAL) long flushInterval) {
+        Preconditions.checkArgument(flushInterval >= 0, "FlushInterval must not be negative");
+        this.flushInterval = flushInterval;
+    }
+
+    @Inject(optional = true)
+    void setFlushIntervalUnit(@Named(PersistenceConfig.WRITE_BEHIND_FLUSH_INTERVAL_UNIT) TimeUnit unit) {
+        this.flushIntervalUnit = Preconditions.checkNotNull(unit, "FlushIntervalUnit");
+    }
+
+    @Inject(optional = true)
+    void setShutdownTimeout(@Named(PersistenceConfig.WRITE_BEHIND_SHUTDOWN_TIMEOUT) long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    @Inject(optional = true)
+    void setShutdownTimeoutUnit(@Named(PersistenceConfig.WRITE_BEHIND_SHUTDOWN_TIMEOUT_UNIT) TimeUnit unit) {
+        this.shutdownTimeoutUnit = Preconditions.checkNotNull(unit, "ShutdownTimeoutUnit");
+    }
+
+    @Inject(optional = true)
+    void setPolicy(@Named(PersistenceConfig.WRITE_BEHIND_POLICY) WriteBehindPolicy policy) {
+        this.policy = Preconditions.checkNotNull(policy, "Policy");
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        LOG.info("Writing behind in batches of {} every {} {} using a queue of {} ({})", new Object[] {
+            batchSize, flushInterval, flushIntervalUnit, capacity, policy
+        });
+        queue = new ArrayBlockingQueue<Object>(capacity);
+        running = true;
+        worker = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().
+            setNameFormat("palava-jpa-write-behind-%d").setDaemon(true).build());
+        worker.execute(this);
+    }
+
+    BlockingQueue<Object> queue() {
+        return queue;
+    }
+
+    void discarded(Object entity) {
+        discarded.incrementAndGet();
+        LOG.warn("Write behind queue is full, discarding {}", entity);
+    }
+
+    @Override
+    public void persist(Object entity) {
+        Preconditions.checkNotNull(entity, "Entity");
+        Preconditions.checkState(running, "%s is not running", this);
+        policy.enqueue(this, entity);
+    }
+
+    @Override
+    public void persistAll(Iterable<?> entities) {
+        Preconditions.checkNotNull(entities, "Entities");
+        for (Object entity : entities) {
+            persist(entity);
+        }
+    }
+
+    @Override
+    public int getPending() {
+        return queue.size();
+    }
+
+    @Override
+    public void run() {
+        final long interval = flushIntervalUnit.toNanos(flushInterval);
+        final List<Object> batch = Lists.newArrayListWithCapacity(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                fill(batch, interval);
+            } catch (InterruptedException e) {
+                LOG.warn("Write behind worker has been interrupted, {} entities remain unwritten", queue.size());
+                Thread.currentThread().interrupt();
+                return;
+            }
+            batch.remove(STOP);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            try {
+                write(batch);
+            /*CHECKSTYLE:OFF*/
+            } catch (RuntimeException e) {
+            /*CHECKSTYLE:ON*/
+                // the worker must survive, otherwise blocked producers would wait forever
+                LOG.error("Unable to write batch of " + batch.size() + " entities", e);
+                failed.addAndGet(batch.size());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Fills the given batch until it is full, the flush interval since the first element
+     * elapsed or this service has been stopped.
+     */
+    private void fill(List<Object> batch, long interval) throws InterruptedException {
+        final Object first = running ? queue.poll(interval, TimeUnit.NANOSECONDS) : queue.poll();
+        if (first == null || first == STOP) {
+            return;
+        }
+        batch.add(first);
+        final long deadline = System.nanoTime() + interval;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            final long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                return;
+            }
+            final Object next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null || next == STOP) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Persists the given entities in a single transaction. If that fails, the identifiers
+     * and versions assigned by the failed attempt are restored and every entity is
+     * persisted in a transaction of its own. Only the given entities are restored,
+     * entities persisted by cascading keep what the failed attempt assigned and can
+     * therefore not be persisted again.
+     *
+     * @param entities the entities to persist
+     */
+    void write(List<Object> entities) {
+        final long start = System.nanoTime();
+        final List<Snapshot> snapshots = entities.size() > 1 ? snapshot(entities) : Collections.<Snapshot>emptyList();
+        if (persist(entities)) {
+            written.addAndGet(entities.size());
+            LOG.debug("Wrote {} entities in {}ms", entities.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } else if (entities.size() > 1) {
+            LOG.warn("Writing batch of {} entities failed, writing them one by one", entities.size());
+            for (Snapshot snapshot : snapshots) {
+                snapshot.restore();
+            }
+            for (Object entity : entities) {
+                write(Collections.singletonList(entity));
+            }
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    private List<Snapshot> snapshot(List<Object> entities) {
+        final Metamodel metamodel = service.getMetamodel();
+        final List<Snapshot> snapshots = Lists.newArrayListWithCapacity(entities.size());
+        for (Object entity : entities) {
+            final EntityType<?> type;
+            try {
+                type = metamodel.entity(entity.getClass());
+            } catch (IllegalArgumentException e) {
+                LOG.debug("{} is not an entity, no snapshot taken", entity);
+                continue;
+            }
+            snapshots.add(new Snapshot(entity, type));
+        }
+        return snapshots;
+    }
+
+    private boolean persist(List<Object> entities) {
+        final List<Object> sorted = Lists.newArrayList(entities);
+        // inserts of the same type are batched by the provider
+        Collections.sort(sorted, BY_TYPE);
+        final EntityManager manager;
+        try {
+            manager = service.createEntityManager();
+        /*CHECKSTYLE:OFF*/
+        } catch (RuntimeException e) {
+        /*CHECKSTYLE:ON*/
+            LOG.error("Unable to create entity manager to write " + entities, e);
+            return false;
+        }
+        final EntityTransaction tx = manager.getTransaction();
+        try {
+            tx.begin();
+            for (Object entity : sorted) {
+                manager.persist(entity);
+            }
+            tx.commit();
+            return true;
+        /*CHECKSTYLE:OFF*/
+        } catch (RuntimeException e) {
+        /*CHECKSTYLE:ON*/
+            LOG.error("Unable to write " + entities, e);
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            return false;
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (worker == null) {
+            return;
+        }
+        LOG.info("Draining {} pending entities", queue.size());
+        running = false;
+        // wakes up an idle worker; a full queue keeps it busy anyway
+        queue.offer(STOP);
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(shutdownTimeout, shutdownTimeoutUnit)) {
+                LOG.warn("Write behind worker did not finish within {} {}", shutdownTimeout, shutdownTimeoutUnit);
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            worker.shutdownNow();
+        }
+        LOG.info("Wrote {} entities, {} failed, {} discarded", new Object[] {
+            written.get(), failed.get(), discarded.get()
+        });
+    }
+
+    /**
+     * The identifier and version of an entity before it has been persisted.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private static final class Snapshot {
+
+        private final Object entity;
+        private final List<Member> members = Lists.newArrayList();
+        private final List<Object> values = Lists.newArrayList();
+
+        public Snapshot(Object entity, EntityType<?> type) {
+            this.entity = entity;
+            for (SingularAttribute<?, ?> attribute : type.getSingularAttributes()) {
+                if (attribute.isId() || attribute.isVersion()) {
+                    final Member member = attribute.getJavaMember();
+                    members.add(member);
+                    values.add(get(member));
+                }
+            }
+        }
+
+        /**
+         * Restores the captured identifier and version.
+         */
+        void restore() {
+            for (int i = 0; i < members.size(); i++) {
+                set(members.get(i), values.get(i));
+            }
+        }
+
+        private Object get(Member member) {
+            try {
+                if (member instanceof Field) {
+                    final Field field = Field.class.cast(member);
+                    field.setAccessible(true);
+                    return field.get(entity);
+                } else {
+                    final Method getter = Method.class.cast(member);
+                    getter.setAccessible(true);
+                    return getter.invoke(entity);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to read " + member, e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Unable to read " + member, e.getCause());
+            }
+        }
+
+        private void set(Member member, Object value) {
+            try {
+                if (member instanceof Field) {
+                    Field.class.cast(member).set(entity, value);
+                } else {
+                    final Method getter = Method.class.cast(member);
+                    final String property = getter.getName().replaceFirst("^(get|is)", "");
+                    final Method setter = getter.getDeclaringClass().getDeclaredMethod("set" + property,
+                        getter.getReturnType());
+                    setter.setAccessible(true);
+                    setter.invoke(entity, value);
+                }
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("No setter for " + member, e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to write " + member, e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Unable to write " + member, e.getCause());
+            }
+        }
+
+    }
+
+}
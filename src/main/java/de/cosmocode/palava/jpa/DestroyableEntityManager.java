@@ -16,9 +16,29 @@
 
 package de.cosmocode.palava.jpa;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import javax.persistence.RollbackException;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.metamodel.Metamodel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import de.cosmocode.palava.scope.Destroyable;
 import de.cosmocode.patterns.Decorator;
@@ -26,31 +46,619 @@ import de.cosmocode.patterns.Decorator;
 /**
  * A {@link Decorator} for an {@link EntityManager} which adds {@link Destroyable}
  * behaviour.
+ * 
+ * <p>
+ *   When created using an {@link EntityManagerFactory}, the decorated manager will be
+ *   created on first use. Beginning a transaction is deferred until the first operation
+ *   which actually requires the underlying manager, which allows units of work
+ *   which never touch the database to run without any database work at all.
+ * </p>
+ *
+ * <p>
+ *   A manager which materialized on a replica of a {@link RoutingPersistenceService} is closed
+ *   as soon as it is used for writable work outside of a transaction and recreated on the primary.
+ *   Entities loaded through the replica become detached at that point and have to be merged
+ *   or loaded again before they can be modified.
+ * </p>
  *
  * @author Willi Schoenborn
  */
 @Decorator(EntityManager.class)
 public final class DestroyableEntityManager extends ForwardingEntityManager implements Destroyable {
     
-    private final EntityManager manager;
+    private static final Logger LOG = LoggerFactory.getLogger(DestroyableEntityManager.class);
+
+    /**
+     * Query hints which mark results as read only. Unknown hints are ignored by providers.
+     */
+    private static final Map<String, Object> READ_ONLY_HINTS = ImmutableMap.<String, Object>of(
+        "org.hibernate.readOnly", Boolean.TRUE,
+        "eclipselink.read-only", "True"
+    );
+
+    private final Deque<Suspended> suspended = new ArrayDeque<Suspended>();
+
+    private EntityManagerFactory factory;
+
+    private final EntityTransaction transaction = new LazyTransaction();
+
+    private EntityManager manager;
+
+    private FlushModeType flushMode;
+
+    private boolean begin;
+
+    private boolean rollbackOnly;
+
+    private boolean destroyed;
+
+    private boolean readOnly;
+
+    private FlushModeType writableFlushMode;
+
+    private boolean replica;
+
+    private List<Runnable> completions = Lists.newArrayList();
+
+    private final EntityManagerMonitor monitor;
+
+    private EntityManagerMonitor.Usage usage;
 
     public DestroyableEntityManager(EntityManager manager) {
         this.manager = Preconditions.checkNotNull(manager, "Manager");
+        this.factory = null;
+        this.monitor = null;
     }
-    
+
+    /**
+     * Creates a lazy {@link DestroyableEntityManager} which creates
+     * its decorated manager using the given factory on first use.
+     *
+     * @since 3.6
+     * @param factory the factory being used to create the decorated manager
+     * @throws NullPointerException if factory is null
+     */
+    public DestroyableEntityManager(EntityManagerFactory factory) {
+        this(factory, null);
+    }
+
+    /**
+     * Creates a lazy {@link DestroyableEntityManager} which reports its lifecycle
+     * to the given monitor.
+     *
+     * @since 3.6
+     * @param factory the factory being used to create the decorated manager
+     * @param monitor the monitor, may be null
+     * @throws NullPointerException if factory is null
+     */
+    DestroyableEntityManager(EntityManagerFactory factory, EntityManagerMonitor monitor) {
+        this.factory = Preconditions.checkNotNull(factory, "Factory");
+        this.monitor = monitor;
+    }
+
+    /**
+     * Provides the decorated manager without beginning a deferred transaction.
+     *
+     * @return the decorated manager
+     */
+    private EntityManager manager() {
+        if (replica && !readOnly && !manager.getTransaction().isActive()) {
+            // replicas must not be written to, this detaches everything loaded so far
+            LOG.debug("Leaving replica for writable work, detaching all loaded entities");
+            close(manager);
+            manager = null;
+        }
+        if (manager == null) {
+            Preconditions.checkState(!destroyed, "%s has already been destroyed", this);
+            LOG.trace("Creating entity manager on first use");
+            manager = create();
+            if (monitor != null && usage == null) {
+                usage = monitor.open(manager);
+            }
+            if (flushMode != null) {
+                manager.setFlushMode(flushMode);
+            }
+            if (readOnly) {
+                writableFlushMode = manager.getFlushMode();
+                manager.setFlushMode(FlushModeType.COMMIT);
+            }
+        }
+        return manager;
+    }
+
+    private EntityManager create() {
+        if (readOnly && factory instanceof RoutingPersistenceService) {
+            final RoutingPersistenceService routing = RoutingPersistenceService.class.cast(factory);
+            final EntityManager created = routing.createReadOnlyEntityManager();
+            replica = routing.isReplica(created);
+            return created;
+        } else {
+            replica = false;
+            return factory.createEntityManager();
+        }
+    }
+
     @Override
     protected EntityManager delegate() {
-        return manager;
+        final EntityManager delegate = manager();
+        if (begin) {
+            begin = false;
+            LOG.trace("Beginning deferred transaction");
+            final EntityTransaction tx = delegate.getTransaction();
+            tx.begin();
+            if (rollbackOnly) {
+                rollbackOnly = false;
+                tx.setRollbackOnly();
+            }
+        }
+        return delegate;
+    }
+
+    private EntityManagerFactory factory() {
+        return factory == null ? manager.getEntityManagerFactory() : factory;
+    }
+
+    @Override
+    public EntityManagerFactory getEntityManagerFactory() {
+        return factory();
+    }
+
+    @Override
+    public CriteriaBuilder getCriteriaBuilder() {
+        return factory().getCriteriaBuilder();
+    }
+
+    @Override
+    public Metamodel getMetamodel() {
+        return factory().getMetamodel();
+    }
+
+    @Override
+    public boolean contains(Object entity) {
+        return manager != null && manager.contains(entity);
+    }
+
+    @Override
+    public void clear() {
+        if (manager != null) {
+            manager.clear();
+            if (usage != null) {
+                usage.cleared();
+            }
+        }
+    }
+
+    private <T> T found(T entity) {
+        if (usage != null) {
+            usage.find(entity != null);
+        }
+        return entity;
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey) {
+        return found(super.find(entityClass, primaryKey));
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey, Map<String, Object> properties) {
+        return found(super.find(entityClass, primaryKey, properties));
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey, LockModeType lockMode) {
+        return found(super.find(entityClass, primaryKey, lockMode));
+    }
+
+    @Override
+    public <T> T find(Class<T> entityClass, Object primaryKey, LockModeType lockMode,
+        Map<String, Object> properties) {
+        return found(super.find(entityClass, primaryKey, lockMode, properties));
+    }
+
+    @Override
+    public void persist(Object entity) {
+        super.persist(entity);
+        if (usage != null) {
+            usage.write(true);
+        }
+    }
+
+    @Override
+    public <T> T merge(T entity) {
+        final T merged = super.merge(entity);
+        if (usage != null) {
+            usage.write(true);
+        }
+        return merged;
+    }
+
+    @Override
+    public void remove(Object entity) {
+        super.remove(entity);
+        if (usage != null) {
+            usage.write(false);
+        }
+    }
+
+    @Override
+    public FlushModeType getFlushMode() {
+        if (manager == null && readOnly) {
+            return FlushModeType.COMMIT;
+        } else if (manager == null && flushMode != null) {
+            return flushMode;
+        } else {
+            return manager().getFlushMode();
+        }
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Checks whether this manager may have written changes which are visible to its own
+     * queries but not yet to others, i.e. whether a transaction is active outside of read only mode.
+     *
+     * @since 3.6
+     * @return true if there may be uncommitted writes, false otherwise
+     */
+    public boolean mayHavePendingWrites() {
+        return !readOnly && transaction.isActive();
+    }
+
+    /**
+     * Enables or disables the read only mode of this manager. In read only mode
+     * the decorated manager uses {@link FlushModeType#COMMIT} and all created queries
+     * carry read only hints, which allow the provider to skip snapshots for dirty checking.
+     * Disabling read only mode on a manager which materialized on a replica moves it to the
+     * primary on next use outside of a transaction, which detaches all entities loaded so far.
+     *
+     * @since 3.6
+     * @param readOnly true to enable, false to disable read only mode
+     */
+    void setReadOnly(boolean readOnly) {
+        if (this.readOnly == readOnly) {
+            return;
+        }
+        this.readOnly = readOnly;
+        if (manager == null) {
+            return;
+        }
+        if (readOnly) {
+            writableFlushMode = manager.getFlushMode();
+            manager.setFlushMode(FlushModeType.COMMIT);
+        } else {
+            manager.setFlushMode(writableFlushMode);
+            writableFlushMode = null;
+        }
+    }
+
+    private <Q extends Query> Q counted(Q query) {
+        if (usage != null) {
+            usage.query();
+        }
+        return query;
+    }
+
+    private <Q extends Query> Q hinted(Q query) {
+        counted(query);
+        if (readOnly) {
+            for (Map.Entry<String, Object> hint : READ_ONLY_HINTS.entrySet()) {
+                query.setHint(hint.getKey(), hint.getValue());
+            }
+        }
+        return query;
+    }
+
+    @Override
+    public <T> TypedQuery<T> createQuery(CriteriaQuery<T> criteriaQuery) {
+        return hinted(super.createQuery(criteriaQuery));
+    }
+
+    @Override
+    public <T> TypedQuery<T> createQuery(String qlString, Class<T> resultClass) {
+        return hinted(super.createQuery(qlString, resultClass));
+    }
+
+    @Override
+    public Query createQuery(String qlString) {
+        return hinted(super.createQuery(qlString));
+    }
+
+    @Override
+    public <T> TypedQuery<T> createNamedQuery(String name, Class<T> resultClass) {
+        return hinted(super.createNamedQuery(name, resultClass));
+    }
+
+    @Override
+    public Query createNamedQuery(String name) {
+        return hinted(super.createNamedQuery(name));
+    }
+
+    @Override
+    public Query createNativeQuery(String sqlString) {
+        return counted(super.createNativeQuery(sqlString));
+    }
+
+    @Override
+    public Query createNativeQuery(String sqlString, @SuppressWarnings("rawtypes") Class resultClass) {
+        return counted(super.createNativeQuery(sqlString, resultClass));
+    }
+
+    @Override
+    public Query createNativeQuery(String sqlString, String resultSetMapping) {
+        return counted(super.createNativeQuery(sqlString, resultSetMapping));
+    }
+
+    @Override
+    public void setFlushMode(FlushModeType flushMode) {
+        if (manager == null) {
+            this.flushMode = flushMode;
+        } else {
+            manager.setFlushMode(flushMode);
+        }
+    }
+
+    @Override
+    public EntityTransaction getTransaction() {
+        return transaction;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !destroyed && (manager == null || manager.isOpen());
     }
     
+    /**
+     * Checks whether the decorated manager has been opened since this manager has been
+     * created, reset or resumed. Unlike most other methods, this neither opens the decorated
+     * manager nor begins a deferred transaction.
+     *
+     * @since 3.6
+     * @return true if the persistence context may contain entities, false otherwise
+     */
+    public boolean isDelegateOpen() {
+        return manager != null && manager.isOpen();
+    }
+
     @Override
     public void close() {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Registers a callback which runs once the current transaction has been committed or
+     * rolled back, e.g. to invalidate caches again after changes became visible to others.
+     * The callback runs right away if there is no active transaction.
+     *
+     * @since 3.6
+     * @param callback the callback
+     * @throws NullPointerException if callback is null
+     */
+    public void afterCompletion(Runnable callback) {
+        Preconditions.checkNotNull(callback, "Callback");
+        if (transaction.isActive()) {
+            completions.add(callback);
+        } else {
+            callback.run();
+        }
+    }
+
+    private void completed() {
+        if (completions.isEmpty()) {
+            return;
+        }
+        final List<Runnable> callbacks = completions;
+        completions = Lists.newArrayList();
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            /*CHECKSTYLE:OFF*/
+            } catch (RuntimeException e) {
+            /*CHECKSTYLE:ON*/
+                LOG.warn("Completion callback " + callback + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Suspends the current decorated manager, including its transaction state.
+     * Until {@link #resume()} is called, this manager uses a new decorated manager.
+     *
+     * @since 3.6
+     */
+    void suspend() {
+        if (factory == null) {
+            factory = manager.getEntityManagerFactory();
+        }
+        suspended.push(new Suspended(this));
+        manager = null;
+        completions = Lists.newArrayList();
+        flushMode = null;
+        begin = false;
+        rollbackOnly = false;
+        readOnly = false;
+        writableFlushMode = null;
+        replica = false;
+    }
+
+    /**
+     * Closes the current decorated manager and resumes the most recently suspended one.
+     *
+     * @since 3.6
+     * @throws IllegalStateException if there is no suspended manager
+     */
+    void resume() {
+        Preconditions.checkState(!suspended.isEmpty(), "No suspended manager");
+        close(manager);
+        completed();
+        final Suspended state = suspended.pop();
+        manager = state.manager;
+        completions = state.completions;
+        flushMode = state.flushMode;
+        begin = state.begin;
+        rollbackOnly = state.rollbackOnly;
+        readOnly = state.readOnly;
+        writableFlushMode = state.writableFlushMode;
+        replica = state.replica;
+    }
+
+    /**
+     * Closes the current decorated manager, rolling back an unfinished transaction,
+     * so the next operation uses a fresh one.
+     *
+     * @since 3.6
+     * @throws IllegalStateException if there are suspended managers
+     */
+    void reset() {
+        Preconditions.checkState(suspended.isEmpty(), "Unable to reset while managers are suspended");
+        close(manager);
+        completed();
+        manager = null;
+        begin = false;
+        rollbackOnly = false;
+        writableFlushMode = null;
+        replica = false;
+        if (usage != null) {
+            monitor.close(usage);
+            usage = null;
+        }
+    }
+
+    private void close(EntityManager delegate) {
+        if (delegate == null || !delegate.isOpen()) {
+            return;
+        }
+        if (delegate.getTransaction().isActive()) {
+            LOG.warn("Rolling back unfinished transaction of {}", delegate);
+            delegate.getTransaction().rollback();
+        }
+        delegate.close();
+    }
+
     @Override
     public void destroy() {
-        if (manager.isOpen()) manager.close();
+        destroyed = true;
+        begin = false;
+        replica = false;
+        while (!suspended.isEmpty()) {
+            close(suspended.pop().manager);
+        }
+        if (manager != null && manager.isOpen()) {
+            manager.close();
+        }
+        completed();
+        if (usage != null) {
+            monitor.close(usage);
+            usage = null;
+        }
+    }
+
+    /**
+     * The state of a suspended decorated manager.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private static final class Suspended {
+
+        private final EntityManager manager;
+        private final FlushModeType flushMode;
+        private final boolean begin;
+        private final boolean rollbackOnly;
+        private final boolean readOnly;
+        private final FlushModeType writableFlushMode;
+        private final boolean replica;
+        private final List<Runnable> completions;
+
+        public Suspended(DestroyableEntityManager current) {
+            this.manager = current.manager;
+            this.flushMode = current.flushMode;
+            this.begin = current.begin;
+            this.rollbackOnly = current.rollbackOnly;
+            this.readOnly = current.readOnly;
+            this.writableFlushMode = current.writableFlushMode;
+            this.replica = current.replica;
+            this.completions = current.completions;
+        }
+
+    }
+
+    /**
+     * An {@link EntityTransaction} which defers beginning until the
+     * decorated manager is used for the first time.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private final class LazyTransaction implements EntityTransaction {
+
+        @Override
+        public void begin() {
+            Preconditions.checkState(!isActive(), "Transaction is already active");
+            begin = true;
+        }
+
+        @Override
+        public void commit() {
+            try {
+                if (begin) {
+                    begin = false;
+                    if (rollbackOnly) {
+                        rollbackOnly = false;
+                        throw new RollbackException("Transaction has been marked for rollback only");
+                    }
+                    LOG.trace("Deferred transaction has never been used, nothing to commit");
+                } else {
+                    manager().getTransaction().commit();
+                    if (!replica && factory instanceof RoutingPersistenceService) {
+                        RoutingPersistenceService.class.cast(factory).committed();
+                    }
+                }
+            } finally {
+                completed();
+            }
+        }
+
+        @Override
+        public void rollback() {
+            try {
+                if (begin) {
+                    begin = false;
+                    rollbackOnly = false;
+                    LOG.trace("Deferred transaction has never been used, nothing to roll back");
+                } else {
+                    manager().getTransaction().rollback();
+                }
+            } finally {
+                completed();
+            }
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            if (begin) {
+                rollbackOnly = true;
+            } else {
+                manager().getTransaction().setRollbackOnly();
+            }
+        }
+
+        @Override
+        public boolean getRollbackOnly() {
+            if (begin) {
+                return rollbackOnly;
+            } else {
+                return manager().getTransaction().getRollbackOnly();
+            }
+        }
+
+        @Override
+        public boolean isActive() {
+            return begin || manager != null && manager.getTransaction().isActive();
+        }
+
     }
     
 }
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Tracks the lifecycle of all {@link DestroyableEntityManager}s of a single persistence unit,
+ * aggregates their statistics and detects managers which are open longer than a threshold.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class EntityManagerMonitor implements EntityManagerStatisticsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntityManagerMonitor.class);
+
+    private static final double P99 = 0.99;
+
+    private final String unitName;
+
+    private final long threshold;
+
+    private final Set<Usage> open = Sets.newSetFromMap(new ConcurrentHashMap<Usage, Boolean>());
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong finds = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong maxOperations = new AtomicLong();
+    private final AtomicLong maxTouched = new AtomicLong();
+
+    private final LatencyHistogram durations = new LatencyHistogram();
+
+    /**
+     * Creates a new monitor.
+     *
+     * @param unitName the name of the monitored persistence unit
+     * @param threshold the leak threshold in nanoseconds, 0 or less disables leak detection
+     */
+    EntityManagerMonitor(String unitName, long threshold) {
+        this.unitName = unitName;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Registers a newly opened manager.
+     *
+     * @param manager the opened manager
+     * @return a new usage which has to be passed to {@link #close(Usage)} once the manager is closed
+     */
+    Usage open(EntityManager manager) {
+        final Usage usage = new Usage(manager, LOG.isDebugEnabled());
+        open.add(usage);
+        opened.incrementAndGet();
+        return usage;
+    }
+
+    /**
+     * Unregisters a closed manager and aggregates its statistics.
+     *
+     * @param usage the usage of the closed manager
+     */
+    void close(Usage usage) {
+        if (!open.remove(usage)) {
+            return;
+        }
+        final long duration = System.nanoTime() - usage.opened;
+        closed.incrementAndGet();
+        durations.record(duration);
+        finds.addAndGet(usage.finds);
+        queries.addAndGet(usage.queries);
+        writes.addAndGet(usage.writes);
+        max(maxOperations, usage.finds + usage.queries + usage.writes);
+        max(maxTouched, usage.peak);
+        if (usage.flagged) {
+            LOG.warn("Leaked entity manager of {} has been closed after {}ms",
+                unitName, TimeUnit.NANOSECONDS.toMillis(duration));
+        }
+    }
+
+    private static void max(AtomicLong max, long value) {
+        while (true) {
+            final long current = max.get();
+            if (value <= current || max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks all open managers and reports the ones which are open longer than the threshold.
+     * Every manager is reported only once.
+     */
+    void check() {
+        if (threshold <= 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        for (Usage usage : open) {
+            if (usage.flagged || now - usage.opened < threshold) {
+                continue;
+            }
+            usage.flagged = true;
+            leaks.incrementAndGet();
+            LOG.warn("Entity manager {} of {} has been opened by {} {}ms ago and is still open", new Object[] {
+                usage.manager, unitName, usage.thread, TimeUnit.NANOSECONDS.toMillis(now - usage.opened)
+            });
+            if (usage.origin != null) {
+                LOG.debug("Leaked entity manager has been opened here", usage.origin);
+            }
+        }
+    }
+
+    @Override
+    public long getOpened() {
+        return opened.get();
+    }
+
+    @Override
+    public long getClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public int getOpen() {
+        return open.size();
+    }
+
+    @Override
+    public long getLeaks() {
+        return leaks.get();
+    }
+
+    @Override
+    public double getMeanOpenTime() {
+        return durations.getMean();
+    }
+
+    @Override
+    public double get99thPercentileOpenTime() {
+        return durations.getPercentile(P99);
+    }
+
+    @Override
+    public double getMaxOpenTime() {
+        return durations.getMax();
+    }
+
+    @Override
+    public long getFinds() {
+        return finds.get();
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.get();
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.get();
+    }
+
+    @Override
+    public long getMaxOperations() {
+        return maxOperations.get();
+    }
+
+    @Override
+    public long getMaxFoundOrWrittenEntities() {
+        return maxTouched.get();
+    }
+
+    @Override
+    public void reset() {
+        opened.set(0L);
+        closed.set(0L);
+        leaks.set(0L);
+        finds.set(0L);
+        queries.set(0L);
+        writes.set(0L);
+        maxOperations.set(0L);
+        maxTouched.set(0L);
+        durations.reset();
+    }
+
+    /**
+     * The statistics of a single open manager. Counters are only updated
+     * by the thread using the manager.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    static final class Usage {
+
+        private final EntityManager manager;
+        private final long opened = System.nanoTime();
+        private final String thread = Thread.currentThread().getName();
+        private final Throwable origin;
+
+        private volatile boolean flagged;
+
+        private long finds;
+        private long queries;
+        private long writes;
+        private long touched;
+        private long peak;
+
+        private Usage(EntityManager manager, boolean trace) {
+            this.manager = manager;
+            this.origin = trace ? new Throwable("Opened by " + thread) : null;
+        }
+
+        /**
+         * Counts a find.
+         *
+         * @param hit whether an entity has been found
+         */
+        void find(boolean hit) {
+            finds++;
+            if (hit) {
+                touched();
+            }
+        }
+
+        /**
+         * Counts a created query.
+         */
+        void query() {
+            queries++;
+        }
+
+        /**
+         * Counts a persist, merge or remove.
+         *
+         * @param managing whether the operation makes an entity managed
+         */
+        void write(boolean managing) {
+            writes++;
+            if (managing) {
+                touched();
+            }
+        }
+
+        private void touched() {
+            touched++;
+            if (touched > peak) {
+                peak = touched;
+            }
+        }
+
+        /**
+         * Resets the number of found or written entities after the persistence context has been cleared.
+         */
+        void cleared() {
+            touched = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+/**
+ * JMX interface of the aggregated {@link javax.persistence.EntityManager} lifecycle statistics
+ * of a single persistence unit. All durations are in milliseconds.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public interface EntityManagerStatisticsMBean {
+
+    /**
+     * Provides the number of managers opened so far.
+     *
+     * @return the number of opened managers
+     */
+    long getOpened();
+
+    /**
+     * Provides the number of managers closed so far.
+     *
+     * @return the number of closed managers
+     */
+    long getClosed();
+
+    /**
+     * Provides the number of currently open managers.
+     *
+     * @return the number of open managers
+     */
+    int getOpen();
+
+    /**
+     * Provides the number of managers which have been open longer than the leak threshold.
+     *
+     * @return the number of detected leaks
+     */
+    long getLeaks();
+
+    /**
+     * Provides the mean duration managers were open.
+     *
+     * @return the mean open duration in milliseconds
+     */
+    double getMeanOpenTime();
+
+    /**
+     * Provides the 99th percentile of the duration managers were open.
+     *
+     * @return the 99th percentile of the open duration in milliseconds
+     */
+    double get99thPercentileOpenTime();
+
+    /**
+     * Provides the maximum duration a manager was open.
+     *
+     * @return the maximum open duration in milliseconds
+     */
+    double getMaxOpenTime();
+
+    /**
+     * Provides the total number of finds served by all closed managers.
+     *
+     * @return the number of finds
+     */
+    long getFinds();
+
+    /**
+     * Provides the total number of queries created by all closed managers.
+     *
+     * @return the number of queries
+     */
+    long getQueries();
+
+    /**
+     * Provides the total number of persist, merge and remove operations of all closed managers.
+     *
+     * @return the number of writes
+     */
+    long getWrites();
+
+    /**
+     * Provides the highest number of operations a single manager served.
+     *
+     * @return the maximum number of operations per manager
+     */
+    long getMaxOperations();
+
+    /**
+     * Provides the highest number of entities a single manager found, persisted or merged
+     * since its last clear. Entities loaded by queries or through associations are not counted,
+     * which makes this a lower bound of the managed entities.
+     *
+     * @return the maximum number of found or written entities per manager
+     */
+    long getMaxFoundOrWrittenEntities();
+
+    /**
+     * Resets all counters and histograms, except the number of open managers.
+     */
+    void reset();
+
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.Parameter;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+
+import com.google.common.collect.ForwardingObject;
+
+import de.cosmocode.patterns.Decorator;
+
+/**
+ * Abstract {@link Decorator} for {@link Query}s. All methods returning
+ * the query itself return this decorator instead of the delegate.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public abstract class ForwardingQuery extends ForwardingObject implements Query {
+
+    @Override
+    protected abstract Query delegate();
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public List getResultList() {
+        return delegate().getResultList();
+    }
+
+    @Override
+    public Object getSingleResult() {
+        return delegate().getSingleResult();
+    }
+
+    @Override
+    public int executeUpdate() {
+        return delegate().executeUpdate();
+    }
+
+    @Override
+    public Query setMaxResults(int maxResult) {
+        delegate().setMaxResults(maxResult);
+        return this;
+    }
+
+    @Override
+    public int getMaxResults() {
+        return delegate().getMaxResults();
+    }
+
+    @Override
+    public Query setFirstResult(int startPosition) {
+        delegate().setFirstResult(startPosition);
+        return this;
+    }
+
+    @Override
+    public int getFirstResult() {
+        return delegate().getFirstResult();
+    }
+
+    @Override
+    public Query setHint(String hintName, Object value) {
+        delegate().setHint(hintName, value);
+        return this;
+    }
+
+    @Override
+    public Map<String, Object> getHints() {
+        return delegate().getHints();
+    }
+
+    @Override
+    public <T> Query setParameter(Parameter<T> param, T value) {
+        delegate().setParameter(param, value);
+        return this;
+    }
+
+    @Override
+    public Query setParameter(Parameter<Calendar> param, Calendar value, TemporalType temporalType) {
+        delegate().setParameter(param, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public Query setParameter(Parameter<Date> param, Date value, TemporalType temporalType) {
+        delegate().setParameter(param, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public Query setParameter(String name, Object value) {
+        delegate().setParameter(name, value);
+        return this;
+    }
+
+    @Override
+    public Query setParameter(String name, Calendar value, TemporalType temporalType) {
+        delegate().setParameter(name, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public Query setParameter(String name, Date value, TemporalType temporalType) {
+        delegate().setParameter(name, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public Query setParameter(int position, Object value) {
+        delegate().setParameter(position, value);
+        return this;
+    }
+
+    @Override
+    public Query setParameter(int position, Calendar value, TemporalType temporalType) {
+        delegate().setParameter(position, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public Query setParameter(int position, Date value, TemporalType temporalType) {
+        delegate().setParameter(position, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public Set<Parameter<?>> getParameters() {
+        return delegate().getParameters();
+    }
+
+    @Override
+    public Parameter<?> getParameter(String name) {
+        return delegate().getParameter(name);
+    }
+
+    @Override
+    public <T> Parameter<T> getParameter(String name, Class<T> type) {
+        return delegate().getParameter(name, type);
+    }
+
+    @Override
+    public Parameter<?> getParameter(int position) {
+        return delegate().getParameter(position);
+    }
+
+    @Override
+    public <T> Parameter<T> getParameter(int position, Class<T> type) {
+        return delegate().getParameter(position, type);
+    }
+
+    @Override
+    public boolean isBound(Parameter<?> param) {
+        return delegate().isBound(param);
+    }
+
+    @Override
+    public <T> T getParameterValue(Parameter<T> param) {
+        return delegate().getParameterValue(param);
+    }
+
+    @Override
+    public Object getParameterValue(String name) {
+        return delegate().getParameterValue(name);
+    }
+
+    @Override
+    public Object getParameterValue(int position) {
+        return delegate().getParameterValue(position);
+    }
+
+    @Override
+    public Query setFlushMode(FlushModeType flushMode) {
+        delegate().setFlushMode(flushMode);
+        return this;
+    }
+
+    @Override
+    public FlushModeType getFlushMode() {
+        return delegate().getFlushMode();
+    }
+
+    @Override
+    public Query setLockMode(LockModeType lockMode) {
+        delegate().setLockMode(lockMode);
+        return this;
+    }
+
+    @Override
+    public LockModeType getLockMode() {
+        return delegate().getLockMode();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> cls) {
+        return delegate().unwrap(cls);
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.Parameter;
+import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
+
+import de.cosmocode.patterns.Decorator;
+
+/**
+ * Abstract {@link Decorator} for {@link TypedQuery}s. All methods returning
+ * the query itself return this decorator instead of the delegate.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ * @param <X> generic result type
+ */
+public abstract class ForwardingTypedQuery<X> extends ForwardingQuery implements TypedQuery<X> {
+
+    @Override
+    protected abstract TypedQuery<X> delegate();
+
+    @Override
+    public List<X> getResultList() {
+        return delegate().getResultList();
+    }
+
+    @Override
+    public X getSingleResult() {
+        return delegate().getSingleResult();
+    }
+
+    @Override
+    public TypedQuery<X> setMaxResults(int maxResult) {
+        super.setMaxResults(maxResult);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setFirstResult(int startPosition) {
+        super.setFirstResult(startPosition);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setHint(String hintName, Object value) {
+        super.setHint(hintName, value);
+        return this;
+    }
+
+    @Override
+    public <T> TypedQuery<X> setParameter(Parameter<T> param, T value) {
+        super.setParameter(param, value);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setParameter(Parameter<Calendar> param, Calendar value, TemporalType temporalType) {
+        super.setParameter(param, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setParameter(Parameter<Date> param, Date value, TemporalType temporalType) {
+        super.setParameter(param, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setParameter(String name, Object value) {
+        super.setParameter(name, value);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setParameter(String name, Calendar value, TemporalType temporalType) {
+        super.setParameter(name, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setParameter(String name, Date value, TemporalType temporalType) {
+        super.setParameter(name, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setParameter(int position, Object value) {
+        super.setParameter(position, value);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setParameter(int position, Calendar value, TemporalType temporalType) {
+        super.setParameter(position, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setParameter(int position, Date value, TemporalType temporalType) {
+        super.setParameter(position, value, temporalType);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setFlushMode(FlushModeType flushMode) {
+        super.setFlushMode(flushMode);
+        return this;
+    }
+
+    @Override
+    public TypedQuery<X> setLockMode(LockModeType lockMode) {
+        super.setLockMode(lockMode);
+        return this;
+    }
+
+}
@@ -27,6 +27,7 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
 import de.cosmocode.palava.core.inject.RebindModule;
+import de.cosmocode.palava.jpa.cache.CacheManager;
 import de.cosmocode.palava.scope.UnitOfWork;
 
 /**
@@ -42,6 +43,8 @@ public final class JpaModule implements Module {
         binder.bind(PersistenceService.class).to(DefaultPersistenceService.class).in(Singleton.class);
         binder.bind(EntityManagerFactory.class).to(PersistenceService.class).in(Singleton.class);
         binder.bind(EntityManager.class).toProvider(PersistenceService.class).in(UnitOfWork.class);
+        binder.bind(CacheManager.class).toProvider(
+            new CacheManagerProvider(binder.getProvider(PersistenceService.class)));
     }
     
     /**
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram using exponential buckets of microseconds.
+ * Bucket i counts durations in [2^(i-1), 2^i) microseconds, the last bucket
+ * counts everything above. Percentiles are therefore approximated by the
+ * upper bound of the bucket they fall into.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the given duration.
+     *
+     * @param nanos the duration in nanoseconds, negative values are ignored
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        final int index = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(index);
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        while (true) {
+            final long current = max.get();
+            if (micros <= current || max.compareAndSet(current, micros)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Provides the number of recorded durations.
+     *
+     * @return the number of recorded durations
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Provides the mean of all recorded durations.
+     *
+     * @return the mean in milliseconds, 0 if nothing has been recorded yet
+     */
+    double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0.0 : total.get() / MICROS_PER_MILLI / n;
+    }
+
+    /**
+     * Provides the maximum of all recorded durations.
+     *
+     * @return the maximum in milliseconds
+     */
+    double getMax() {
+        return max.get() / MICROS_PER_MILLI;
+    }
+
+    /**
+     * Provides an approximation of the given percentile.
+     *
+     * @param percentile the percentile, in (0, 1]
+     * @return the upper bound of the bucket containing the given percentile in milliseconds,
+     *         0 if nothing has been recorded yet
+     */
+    double getPercentile(double percentile) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0.0;
+        }
+        final double threshold = percentile * n;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold) {
+                return (1L << i) / MICROS_PER_MILLI;
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Resets all recorded values. Concurrent recordings may be lost partially.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0L);
+        }
+        count.set(0L);
+        total.set(0L);
+        max.set(0L);
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Singleton;
+
+import de.cosmocode.collections.Procedure;
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Creates {@link EntityManagerFactory}s on an executor shared by all persistence
+ * units of an injector, which allows to bootstrap multiple units concurrently.
+ * The executor's threads terminate once they are idle. Pending creations are awaited
+ * by the {@link BootstrapBarrier}, see {@link ParallelBootstrapModule}. Creations
+ * submitted after that are awaited right away.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@Singleton
+final class ParallelBootstrap implements Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelBootstrap.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final Queue<Map.Entry<String, Future<EntityManagerFactory>>> pending =
+        new ConcurrentLinkedQueue<Map.Entry<String, Future<EntityManagerFactory>>>();
+
+    private volatile boolean awaited;
+
+    ParallelBootstrap() {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(threads, threads, 10L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().
+            setNameFormat("palava-jpa-bootstrap-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits the creation of the specified unit's factory.
+     *
+     * @param unitName the persistence unit name
+     * @param properties the properties, may be null
+     * @param startup the procedure applied to the created factory before it is handed out
+     * @return a future holding the created factory
+     * @throws LifecycleException if pending creations have already been awaited
+     *         and the creation of this factory failed
+     */
+    Future<EntityManagerFactory> submit(final String unitName, final Properties properties,
+        final Procedure<? super EntityManagerFactory> startup) throws LifecycleException {
+        final Future<EntityManagerFactory> future = executor.submit(new Callable<EntityManagerFactory>() {
+
+            @Override
+            public EntityManagerFactory call() {
+                final long start = System.nanoTime();
+                try {
+                    final EntityManagerFactory factory = properties == null ?
+                        Persistence.createEntityManagerFactory(unitName) :
+                        Persistence.createEntityManagerFactory(unitName, properties);
+                    LOG.info("Created entity manager factory of {} in {}ms", unitName,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    try {
+                        startup.apply(factory);
+                    /*CHECKSTYLE:OFF*/
+                    } catch (RuntimeException e) {
+                    /*CHECKSTYLE:ON*/
+                        factory.close();
+                        throw e;
+                    }
+                    return factory;
+                /*CHECKSTYLE:OFF*/
+                } catch (RuntimeException e) {
+                /*CHECKSTYLE:ON*/
+                    // reported right away, otherwise the failure would surface on first use only
+                    LOG.error("Unable to create entity manager factory of " + unitName, e);
+                    throw e;
+                }
+            }
+
+        });
+        pending.add(Maps.immutableEntry(unitName, future));
+        if (awaited) {
+            // nobody else is going to wait for it
+            await();
+        }
+        return future;
+    }
+
+    /**
+     * Waits for the creation of all factories submitted so far. Factories
+     * submitted afterwards are awaited during submission.
+     *
+     * @throws LifecycleException if the creation of at least one factory failed or
+     *         the current thread has been interrupted while waiting
+     */
+    void await() throws LifecycleException {
+        awaited = true;
+        final List<String> failed = Lists.newArrayList();
+        Throwable cause = null;
+        for (Map.Entry<String, Future<EntityManagerFactory>> entry = pending.poll(); entry != null;
+            entry = pending.poll()) {
+            try {
+                entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LifecycleException("Interrupted while creating factory of " + entry.getKey(), e);
+            } catch (ExecutionException e) {
+                failed.add(entry.getKey());
+                if (cause == null) {
+                    cause = e.getCause();
+                }
+            }
+        }
+        if (cause != null) {
+            throw new LifecycleException("Unable to create factories of " + failed, cause);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+}
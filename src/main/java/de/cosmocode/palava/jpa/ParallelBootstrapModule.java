@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+
+/**
+ * {@link Module} which waits for all entity manager factories bootstrapped in parallel
+ * during startup, see {@link PersistenceConfig#PARALLEL_BOOTSTRAP}. Without this module,
+ * a failed bootstrap is logged but surfaces on first use of the affected unit only.
+ *
+ * <p>
+ *   This module should be installed after all jpa modules. Units created before the barrier
+ *   of this module are bootstrapped concurrently, units created afterwards wait for their own factory.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class ParallelBootstrapModule implements Module {
+
+    @Override
+    public void configure(Binder binder) {
+        binder.bind(BootstrapBarrier.class).asEagerSingleton();
+    }
+
+}
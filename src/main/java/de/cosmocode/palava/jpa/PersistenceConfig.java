@@ -31,6 +31,50 @@ public final class PersistenceConfig {
     public static final String FLUSH_MODE = PREFIX + "flushMode";
     
     public static final String PROPERTIES = PREFIX + "properties";
+
+    public static final String PARALLEL_BOOTSTRAP = PREFIX + "parallelBootstrap";
+
+    public static final String WARM_UP = PREFIX + "warmUp";
+
+    public static final String WARM_UP_CONNECTIONS = PREFIX + "warmUpConnections";
+
+    public static final String PRELOAD = PREFIX + "preload";
+
+    public static final String PRELOAD_BATCH_SIZE = PREFIX + "preloadBatchSize";
+
+    public static final String LEAK_THRESHOLD = PREFIX + "leakThreshold";
+
+    public static final String LEAK_THRESHOLD_UNIT = PREFIX + "leakThresholdUnit";
+
+    public static final String SLOW_QUERY_THRESHOLD = PREFIX + "slowQueryThreshold";
+
+    public static final String SLOW_QUERY_THRESHOLD_UNIT = PREFIX + "slowQueryThresholdUnit";
+
+    public static final String REPLICAS = PREFIX + "replicas";
+
+    public static final String REPLICA_SELECTION = PREFIX + "replicaSelection";
+
+    public static final String READ_YOUR_WRITES = PREFIX + "readYourWrites";
+
+    public static final String READ_YOUR_WRITES_UNIT = PREFIX + "readYourWritesUnit";
+    
+    public static final String PREFETCH_EXECUTOR = PREFIX + "prefetchExecutor";
+
+    public static final String PARALLEL_EXECUTOR = PREFIX + "parallelExecutor";
+
+    public static final String WRITE_BEHIND_CAPACITY = PREFIX + "writeBehindCapacity";
+
+    public static final String WRITE_BEHIND_BATCH_SIZE = PREFIX + "writeBehindBatchSize";
+
+    public static final String WRITE_BEHIND_FLUSH_INTERVAL = PREFIX + "writeBehindFlushInterval";
+
+    public static final String WRITE_BEHIND_FLUSH_INTERVAL_UNIT = PREFIX + "writeBehindFlushIntervalUnit";
+
+    public static final String WRITE_BEHIND_POLICY = PREFIX + "writeBehindPolicy";
+
+    public static final String WRITE_BEHIND_SHUTDOWN_TIMEOUT = PREFIX + "writeBehindShutdownTimeout";
+
+    public static final String WRITE_BEHIND_SHUTDOWN_TIMEOUT_UNIT = PREFIX + "writeBehindShutdownTimeoutUnit";
     
     private PersistenceConfig() {
         
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCallFilter;
+import de.cosmocode.palava.ipc.IpcCallFilterChain;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+import de.cosmocode.palava.ipc.IpcSession;
+
+/**
+ * An {@link IpcCallFilter} which binds the calling session to the {@link RoutingPersistenceService}
+ * in order to support reading your own writes.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class ReadYourWritesFilter implements IpcCallFilter {
+
+    private final RoutingPersistenceService service;
+
+    @Inject
+    public ReadYourWritesFilter(RoutingPersistenceService service) {
+        this.service = Preconditions.checkNotNull(service, "Service");
+    }
+
+    @Override
+    public Map<String, Object> filter(IpcCall call, IpcCommand command, IpcCallFilterChain chain)
+        throws IpcCommandExecutionException {
+        final IpcSession session = call.getConnection().getSession();
+        service.enter(session == null ? null : session.getSessionId());
+        try {
+            return chain.filter(call, command);
+        } finally {
+            service.leave();
+        }
+    }
+
+}
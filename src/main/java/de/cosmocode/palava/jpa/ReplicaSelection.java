@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Strategies used by the {@link RoutingJpaModule routing persistence service}
+ * to choose a replica for read only units of work.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public enum ReplicaSelection {
+
+    /**
+     * Uses all replicas in turn.
+     */
+    ROUND_ROBIN {
+
+        @Override
+        int select(AtomicInteger counter, AtomicIntegerArray outstanding) {
+            return (counter.getAndIncrement() & Integer.MAX_VALUE) % outstanding.length();
+        }
+
+    },
+
+    /**
+     * Uses the replica with the fewest open entity managers. Ties are
+     * broken in turn.
+     */
+    LEAST_OUTSTANDING {
+
+        @Override
+        int select(AtomicInteger counter, AtomicIntegerArray outstanding) {
+            final int length = outstanding.length();
+            final int offset = (counter.getAndIncrement() & Integer.MAX_VALUE) % length;
+            int selected = offset;
+            int fewest = Integer.MAX_VALUE;
+            for (int i = 0; i < length; i++) {
+                final int index = (offset + i) % length;
+                final int current = outstanding.get(index);
+                if (current < fewest) {
+                    fewest = current;
+                    selected = index;
+                }
+            }
+            return selected;
+        }
+
+    };
+
+    /**
+     * Selects a replica.
+     *
+     * @param counter a counter shared by all selections
+     * @param outstanding the number of open entity managers per replica
+     * @return the index of the selected replica
+     */
+    abstract int select(AtomicInteger counter, AtomicIntegerArray outstanding);
+
+}
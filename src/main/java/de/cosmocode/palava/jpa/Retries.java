@@ -0,0 +1,94 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.sql.SQLException;
+import java.util.Random;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Static utility methods used to retry transactions which failed
+ * due to concurrent modifications.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class Retries {
+
+    /**
+     * SQL states of serialization failures and deadlocks (PostgreSQL).
+     */
+    private static final ImmutableSet<String> SQL_STATES = ImmutableSet.of("40001", "40P01");
+
+    /**
+     * MySQL's error code for deadlocks.
+     */
+    private static final int MYSQL_DEADLOCK = 1213;
+
+    private static final int MAX_SHIFT = 16;
+
+    private static final Random RANDOM = new Random();
+
+    private Retries() {
+
+    }
+
+    /**
+     * Checks whether the given failure, or one of its causes, signals a concurrent modification,
+     * i.e. an optimistic or pessimistic lock failure, a deadlock or a serialization failure.
+     *
+     * @param throwable the failure
+     * @return true if executing the failed transaction again may succeed, false otherwise
+     */
+    static boolean isRetriable(Throwable throwable) {
+        for (Throwable current = throwable; current != null; current = current.getCause()) {
+            if (current instanceof OptimisticLockException || current instanceof PessimisticLockException) {
+                return true;
+            } else if (current instanceof SQLException) {
+                final SQLException e = SQLException.class.cast(current);
+                if (SQL_STATES.contains(e.getSQLState()) || e.getErrorCode() == MYSQL_DEADLOCK) {
+                    return true;
+                }
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes a randomized backoff, uniformly distributed between zero and
+     * the exponentially growing upper bound of the given attempt.
+     *
+     * @param attempt the number of the failed attempt, starting with 1
+     * @param backoff the base backoff
+     * @return the backoff before the next attempt
+     */
+    static long backoff(int attempt, long backoff) {
+        if (backoff <= 0L) {
+            return 0L;
+        }
+        final long bound = backoff << Math.min(attempt - 1, MAX_SHIFT);
+        return (long) (RANDOM.nextDouble() * bound);
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.ipc.Commands;
+import de.cosmocode.palava.ipc.FilterModule;
+import de.cosmocode.palava.jpa.cache.CacheManager;
+import de.cosmocode.palava.scope.UnitOfWork;
+
+/**
+ * Module which does the same as {@link JpaModule} but routes read only units of work
+ * to the replica units configured using {@link PersistenceConfig#REPLICAS}.
+ *
+ * <p>
+ *   Commands annotated with {@link Transactional} are filtered to support reading your own
+ *   writes, therefore this module should be installed before the {@link TransactionModule}.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class RoutingJpaModule extends FilterModule {
+
+    @Override
+    protected void configure() {
+        bind(RoutingPersistenceService.class).in(Singleton.class);
+        bind(PersistenceService.class).to(RoutingPersistenceService.class).in(Singleton.class);
+        bind(EntityManagerFactory.class).to(PersistenceService.class).in(Singleton.class);
+        bind(EntityManager.class).toProvider(PersistenceService.class).in(UnitOfWork.class);
+        bind(CacheManager.class).toProvider(new CacheManagerProvider(getProvider(PersistenceService.class)));
+        filter(Commands.annotatedWith(Transactional.class)).through(ReadYourWritesFilter.class);
+    }
+
+}
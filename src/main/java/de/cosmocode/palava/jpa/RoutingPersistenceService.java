@@ -0,0 +1,483 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.management.MBeanServer;
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.metamodel.Metamodel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+import de.cosmocode.palava.core.lifecycle.Initializable;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+import de.cosmocode.palava.jpa.cache.CacheManager;
+import de.cosmocode.palava.jpa.cache.CacheStatisticsMBean;
+import de.cosmocode.palava.jpa.cache.EntityCache;
+import de.cosmocode.palava.jpa.cache.QueryResultCache;
+
+/**
+ * A {@link PersistenceService} which routes read only units of work to replica units
+ * and everything else to the primary unit.
+ *
+ * <p>
+ *   {@link EntityManager}s provided by {@link #get()} materialize on a replica if they are
+ *   first used in read only mode. If a read your writes window is configured, sessions
+ *   which committed on the primary within that window keep reading from the primary.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class RoutingPersistenceService implements PersistenceService, Initializable, Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingPersistenceService.class);
+
+    private final DefaultPersistenceService primary;
+
+    private final List<DefaultPersistenceService> replicas;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    private final AtomicIntegerArray outstanding;
+
+    private final ThreadLocal<String> session = new ThreadLocal<String>();
+
+    private ReplicaSelection selection = ReplicaSelection.ROUND_ROBIN;
+
+    private long readYourWrites;
+
+    private TimeUnit readYourWritesUnit = TimeUnit.SECONDS;
+
+    private ConcurrentMap<String, Boolean> writers;
+
+    private final CacheManager cacheManager = new RoutingCacheManager();
+
+    @Inject
+    public RoutingPersistenceService(@Named(PersistenceConfig.UNIT_NAME) String unitName,
+        @Named(PersistenceConfig.REPLICAS) String replicas) {
+        this.primary = new DefaultPersistenceService(unitName);
+        final ImmutableList.Builder<DefaultPersistenceService> builder = ImmutableList.builder();
+        for (String replica : Splitter.on(',').trimResults().omitEmptyStrings().split(replicas)) {
+            builder.add(new DefaultPersistenceService(replica));
+        }
+        this.replicas = builder.build();
+        this.outstanding = new AtomicIntegerArray(this.replicas.size());
+    }
+
+    @Inject(optional = true)
+    void setSelection(@Named(PersistenceConfig.REPLICA_SELECTION) ReplicaSelection selection) {
+        this.selection = Preconditions.checkNotNull(selection, "Selection");
+    }
+
+    @Inject(optional = true)
+    void setReadYourWrites(@Named(PersistenceConfig.READ_YOUR_WRITES) long readYourWrites) {
+        this.readYourWrites = readYourWrites;
+    }
+
+    @Inject(optional = true)
+    void setReadYourWritesUnit(@Named(PersistenceConfig.READ_YOUR_WRITES_UNIT) TimeUnit unit) {
+        this.readYourWritesUnit = Preconditions.checkNotNull(unit, "ReadYourWritesUnit");
+    }
+
+    @Inject(optional = true)
+    void setProperties(@Named(PersistenceConfig.PROPERTIES) Properties properties) {
+        primary.setProperties(properties);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setProperties(properties);
+        }
+    }
+
+    @Inject(optional = true)
+    void setFlushModeType(@Named(PersistenceConfig.FLUSH_MODE) FlushModeType flushModeType) {
+        primary.setFlushModeType(flushModeType);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setFlushModeType(flushModeType);
+        }
+    }
+
+    @Inject(optional = true)
+    void setParallelBootstrap(@Named(PersistenceConfig.PARALLEL_BOOTSTRAP) boolean parallelBootstrap) {
+        primary.setParallelBootstrap(parallelBootstrap);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setParallelBootstrap(parallelBootstrap);
+        }
+    }
+
+    @Inject(optional = true)
+    void setParallelBootstrapper(ParallelBootstrap parallelBootstrapper) {
+        primary.setParallelBootstrapper(parallelBootstrapper);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setParallelBootstrapper(parallelBootstrapper);
+        }
+    }
+
+    @Inject(optional = true)
+    void setWarmUp(@Named(PersistenceConfig.WARM_UP) boolean warmUp) {
+        primary.setWarmUp(warmUp);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setWarmUp(warmUp);
+        }
+    }
+
+    @Inject(optional = true)
+    void setWarmUpConnections(@Named(PersistenceConfig.WARM_UP_CONNECTIONS) int warmUpConnections) {
+        primary.setWarmUpConnections(warmUpConnections);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setWarmUpConnections(warmUpConnections);
+        }
+    }
+
+    @Inject(optional = true)
+    void setPreload(@Named(PersistenceConfig.PRELOAD) String preload) {
+        primary.setPreload(preload);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setPreload(preload);
+        }
+    }
+
+    @Inject(optional = true)
+    void setPreloadBatchSize(@Named(PersistenceConfig.PRELOAD_BATCH_SIZE) int preloadBatchSize) {
+        primary.setPreloadBatchSize(preloadBatchSize);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setPreloadBatchSize(preloadBatchSize);
+        }
+    }
+
+    @Inject(optional = true)
+    void setLeakThreshold(@Named(PersistenceConfig.LEAK_THRESHOLD) long leakThreshold) {
+        primary.setLeakThreshold(leakThreshold);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setLeakThreshold(leakThreshold);
+        }
+    }
+
+    @Inject(optional = true)
+    void setLeakThresholdUnit(@Named(PersistenceConfig.LEAK_THRESHOLD_UNIT) TimeUnit leakThresholdUnit) {
+        primary.setLeakThresholdUnit(leakThresholdUnit);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setLeakThresholdUnit(leakThresholdUnit);
+        }
+    }
+
+    @Inject(optional = true)
+    void setSlowQueryThreshold(@Named(PersistenceConfig.SLOW_QUERY_THRESHOLD) long slowQueryThreshold) {
+        primary.setSlowQueryThreshold(slowQueryThreshold);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setSlowQueryThreshold(slowQueryThreshold);
+        }
+    }
+
+    @Inject(optional = true)
+    void setSlowQueryThresholdUnit(@Named(PersistenceConfig.SLOW_QUERY_THRESHOLD_UNIT) TimeUnit unit) {
+        primary.setSlowQueryThresholdUnit(unit);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setSlowQueryThresholdUnit(unit);
+        }
+    }
+
+    @Inject(optional = true)
+    void setServer(MBeanServer server) {
+        primary.setServer(server);
+        for (DefaultPersistenceService replica : replicas) {
+            replica.setServer(server);
+        }
+    }
+
+    @Override
+    public void initialize() throws LifecycleException {
+        primary.initialize();
+        for (DefaultPersistenceService replica : replicas) {
+            replica.initialize();
+        }
+
+        if (replicas.isEmpty()) {
+            LOG.warn("No replicas configured, routing all units of work to the primary");
+        } else {
+            LOG.info("Routing read only units of work to {} replicas using {}", replicas.size(), selection);
+        }
+
+        if (readYourWrites > 0) {
+            LOG.info("Reading from the primary for {} {} after commits", readYourWrites, readYourWritesUnit);
+            writers = new MapMaker().expireAfterWrite(readYourWrites, readYourWritesUnit).makeMap();
+        }
+    }
+
+    /**
+     * Binds the given session to the current thread until {@link #leave()} is called.
+     *
+     * @param sessionId the current session id, may be null
+     */
+    void enter(String sessionId) {
+        session.set(sessionId);
+    }
+
+    /**
+     * Unbinds the current session from the current thread.
+     */
+    void leave() {
+        session.remove();
+    }
+
+    /**
+     * Records a commit on the primary for the current session.
+     */
+    void committed() {
+        final String sessionId = session.get();
+        if (writers != null && sessionId != null) {
+            writers.put(sessionId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Creates a new {@link EntityManager} for read only work, which uses a replica
+     * unless there are none or the current session has written recently.
+     *
+     * @return a new entity manager
+     */
+    EntityManager createReadOnlyEntityManager() {
+        if (replicas.isEmpty()) {
+            return primary.createEntityManager();
+        }
+        final String sessionId = session.get();
+        if (writers != null && sessionId != null && writers.containsKey(sessionId)) {
+            LOG.trace("Session {} has written recently, reading from primary", sessionId);
+            return primary.createEntityManager();
+        }
+        final int index = selection.select(counter, outstanding);
+        outstanding.incrementAndGet(index);
+        LOG.trace("Reading from replica {}", index);
+        return new ReplicaEntityManager(replicas.get(index).createEntityManager(), index);
+    }
+
+    /**
+     * Checks whether the given manager has been created on a replica.
+     *
+     * @param manager the manager
+     * @return true if manager uses a replica, false otherwise
+     */
+    boolean isReplica(EntityManager manager) {
+        return manager instanceof ReplicaEntityManager;
+    }
+
+    @Override
+    public EntityManager createEntityManager() {
+        return primary.createEntityManager();
+    }
+
+    @Override
+    public EntityManager createEntityManager(@SuppressWarnings("rawtypes") Map map) {
+        return primary.createEntityManager(map);
+    }
+
+    @Override
+    public EntityManager get() {
+        return new DestroyableEntityManager(this, primary.getMonitor());
+    }
+
+    @Override
+    public CriteriaBuilder getCriteriaBuilder() {
+        return primary.getCriteriaBuilder();
+    }
+
+    @Override
+    public Metamodel getMetamodel() {
+        return primary.getMetamodel();
+    }
+
+    @Override
+    public Map<String, Object> getProperties() {
+        return primary.getProperties();
+    }
+
+    @Override
+    public Cache getCache() {
+        return primary.getCache();
+    }
+
+    /**
+     * Provides a cache manager which preloads and evicts on the primary and all replicas.
+     *
+     * @since 3.6
+     * @return the cache manager
+     */
+    CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    @Override
+    public PersistenceUnitUtil getPersistenceUnitUtil() {
+        return primary.getPersistenceUnitUtil();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return primary.isOpen();
+    }
+
+    @Override
+    public void close() {
+        for (DefaultPersistenceService replica : replicas) {
+            replica.close();
+        }
+        primary.close();
+    }
+
+    @Override
+    public void dispose() {
+        for (DefaultPersistenceService replica : replicas) {
+            replica.dispose();
+        }
+        primary.dispose();
+    }
+
+    /**
+     * An {@link EntityManager} created on a replica which keeps track
+     * of the outstanding managers per replica.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private final class ReplicaEntityManager extends ForwardingEntityManager {
+
+        private final EntityManager manager;
+        private final int index;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        public ReplicaEntityManager(EntityManager manager, int index) {
+            this.manager = manager;
+            this.index = index;
+        }
+
+        @Override
+        protected EntityManager delegate() {
+            return manager;
+        }
+
+        @Override
+        public void close() {
+            try {
+                super.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    outstanding.decrementAndGet(index);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A {@link CacheManager} which preloads and evicts on the primary and all replicas,
+     * because each of them holds its own second level cache. Everything else is answered
+     * by the primary.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private final class RoutingCacheManager implements CacheManager {
+
+        @Override
+        public int preload(Class<?> type) {
+            for (DefaultPersistenceService replica : replicas) {
+                replica.getCacheManager().preload(type);
+            }
+            return primary.getCacheManager().preload(type);
+        }
+
+        @Override
+        public int preload(Class<?> type, Object from, Object to) {
+            for (DefaultPersistenceService replica : replicas) {
+                replica.getCacheManager().preload(type, from, to);
+            }
+            return primary.getCacheManager().preload(type, from, to);
+        }
+
+        @Override
+        public boolean contains(Class<?> type, Object identifier) {
+            return primary.getCacheManager().contains(type, identifier);
+        }
+
+        @Override
+        public void evict(Class<?> type) {
+            primary.getCacheManager().evict(type);
+            for (DefaultPersistenceService replica : replicas) {
+                replica.getCacheManager().evict(type);
+            }
+        }
+
+        @Override
+        public void evict(Class<?> type, Collection<?> identifiers) {
+            primary.getCacheManager().evict(type, identifiers);
+            for (DefaultPersistenceService replica : replicas) {
+                replica.getCacheManager().evict(type, identifiers);
+            }
+        }
+
+        @Override
+        public void evictAll() {
+            primary.getCacheManager().evictAll();
+            for (DefaultPersistenceService replica : replicas) {
+                replica.getCacheManager().evictAll();
+            }
+        }
+
+        @Override
+        public double getOccupancy(Class<?> type) {
+            return primary.getCacheManager().getOccupancy(type);
+        }
+
+        @Override
+        public void register(String name, EntityCache cache) {
+            primary.getCacheManager().register(name, cache);
+        }
+
+        @Override
+        public void register(String name, QueryResultCache cache) {
+            primary.getCacheManager().register(name, cache);
+        }
+
+        @Override
+        public Map<String, CacheStatisticsMBean> getStatistics() {
+            return primary.getCacheManager().getStatistics();
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link EntityManager} decorator which times all queries it creates
+ * using a {@link SlowQueryLog}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class SlowQueryEntityManager extends ForwardingEntityManager {
+
+    private final EntityManager manager;
+
+    private final SlowQueryLog log;
+
+    SlowQueryEntityManager(EntityManager manager, SlowQueryLog log) {
+        this.manager = Preconditions.checkNotNull(manager, "Manager");
+        this.log = Preconditions.checkNotNull(log, "Log");
+    }
+
+    @Override
+    protected EntityManager delegate() {
+        return manager;
+    }
+
+    @Override
+    public <T> TypedQuery<T> createQuery(CriteriaQuery<T> criteriaQuery) {
+        return log.wrap(super.createQuery(criteriaQuery), "criteria query of " + criteriaQuery.getResultType());
+    }
+
+    @Override
+    public <T> TypedQuery<T> createQuery(String qlString, Class<T> resultClass) {
+        return log.wrap(super.createQuery(qlString, resultClass), qlString);
+    }
+
+    @Override
+    public Query createQuery(String qlString) {
+        return log.wrap(super.createQuery(qlString), qlString);
+    }
+
+    @Override
+    public <T> TypedQuery<T> createNamedQuery(String name, Class<T> resultClass) {
+        return log.wrap(super.createNamedQuery(name, resultClass), "named query " + name);
+    }
+
+    @Override
+    public Query createNamedQuery(String name) {
+        return log.wrap(super.createNamedQuery(name), "named query " + name);
+    }
+
+    @Override
+    public Query createNativeQuery(String sqlString, @SuppressWarnings("rawtypes") Class resultClass) {
+        return log.wrap(super.createNativeQuery(sqlString, resultClass), sqlString);
+    }
+
+    @Override
+    public Query createNativeQuery(String sqlString, String resultSetMapping) {
+        return log.wrap(super.createNativeQuery(sqlString, resultSetMapping), sqlString);
+    }
+
+    @Override
+    public Query createNativeQuery(String sqlString) {
+        return log.wrap(super.createNativeQuery(sqlString), sqlString);
+    }
+
+}
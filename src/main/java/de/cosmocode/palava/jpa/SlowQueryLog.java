@@ -0,0 +1,240 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.NoResultException;
+import javax.persistence.Parameter;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Decorates {@link Query}s in order to time their executions and logs every
+ * execution which took at least the configured threshold, including the query,
+ * its bound parameters, the number of rows and the currently executing command.
+ * Failed executions, e.g. due to a timeout, are logged as well.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class SlowQueryLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private final long threshold;
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the threshold in nanoseconds
+     */
+    SlowQueryLog(long threshold) {
+        Preconditions.checkArgument(threshold >= 0, "Threshold must not be negative");
+        this.threshold = threshold;
+    }
+
+    Query wrap(Query query, String statement) {
+        return new TimedQuery(query, statement);
+    }
+
+    <T> TypedQuery<T> wrap(TypedQuery<T> query, String statement) {
+        return new TimedTypedQuery<T>(query, statement);
+    }
+
+    /**
+     * Logs the given execution if it took at least the threshold.
+     *
+     * @param query the executed query
+     * @param statement the statement of the query
+     * @param start the start of the execution in nanoseconds
+     * @param rows the number of rows, negative if the execution failed
+     */
+    void record(Query query, String statement, long start, int rows) {
+        final long duration = System.nanoTime() - start;
+        if (duration < threshold) {
+            return;
+        }
+        if (rows < 0) {
+            LOG.warn("Slow query in {} failed after {}ms: {} {}", new Object[] {
+                MDC.get(TransactionFilter.COMMAND), TimeUnit.NANOSECONDS.toMillis(duration),
+                statement, parametersOf(query)
+            });
+        } else {
+            LOG.warn("Slow query in {} took {}ms and returned {} rows: {} {}", new Object[] {
+                MDC.get(TransactionFilter.COMMAND), TimeUnit.NANOSECONDS.toMillis(duration),
+                rows, statement, parametersOf(query)
+            });
+        }
+    }
+
+    private Object parametersOf(Query query) {
+        final Map<Object, Object> parameters = Maps.newLinkedHashMap();
+        try {
+            for (Parameter<?> parameter : query.getParameters()) {
+                final Object key = parameter.getName() == null ? parameter.getPosition() : parameter.getName();
+                parameters.put(key, query.isBound(parameter) ? query.getParameterValue(parameter) : "<unbound>");
+            }
+        } catch (IllegalStateException e) {
+            return "<unknown parameters>";
+        } catch (PersistenceException e) {
+            return "<unknown parameters>";
+        }
+        return parameters;
+    }
+
+    /**
+     * Timed {@link Query}.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private final class TimedQuery extends ForwardingQuery {
+
+        private final Query query;
+        private final String statement;
+
+        public TimedQuery(Query query, String statement) {
+            this.query = Preconditions.checkNotNull(query, "Query");
+            this.statement = statement;
+        }
+
+        @Override
+        protected Query delegate() {
+            return query;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public List getResultList() {
+            final long start = System.nanoTime();
+            int rows = -1;
+            try {
+                final List list = super.getResultList();
+                rows = list.size();
+                return list;
+            } finally {
+                record(query, statement, start, rows);
+            }
+        }
+
+        @Override
+        public Object getSingleResult() {
+            final long start = System.nanoTime();
+            int rows = -1;
+            try {
+                final Object result = super.getSingleResult();
+                rows = 1;
+                return result;
+            } catch (NoResultException e) {
+                rows = 0;
+                throw e;
+            } finally {
+                record(query, statement, start, rows);
+            }
+        }
+
+        @Override
+        public int executeUpdate() {
+            final long start = System.nanoTime();
+            int rows = -1;
+            try {
+                rows = super.executeUpdate();
+                return rows;
+            } finally {
+                record(query, statement, start, rows);
+            }
+        }
+
+    }
+
+    /**
+     * Timed {@link TypedQuery}.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     * @param <X> generic result type
+     */
+    private final class TimedTypedQuery<X> extends ForwardingTypedQuery<X> {
+
+        private final TypedQuery<X> query;
+        private final String statement;
+
+        public TimedTypedQuery(TypedQuery<X> query, String statement) {
+            this.query = Preconditions.checkNotNull(query, "Query");
+            this.statement = statement;
+        }
+
+        @Override
+        protected TypedQuery<X> delegate() {
+            return query;
+        }
+
+        @Override
+        public List<X> getResultList() {
+            final long start = System.nanoTime();
+            int rows = -1;
+            try {
+                final List<X> list = super.getResultList();
+                rows = list.size();
+                return list;
+            } finally {
+                record(query, statement, start, rows);
+            }
+        }
+
+        @Override
+        public X getSingleResult() {
+            final long start = System.nanoTime();
+            int rows = -1;
+            try {
+                final X result = super.getSingleResult();
+                rows = 1;
+                return result;
+            } catch (NoResultException e) {
+                rows = 0;
+                throw e;
+            } finally {
+                record(query, statement, start, rows);
+            }
+        }
+
+        @Override
+        public int executeUpdate() {
+            final long start = System.nanoTime();
+            int rows = -1;
+            try {
+                rows = super.executeUpdate();
+                return rows;
+            } finally {
+                record(query, statement, start, rows);
+            }
+        }
+
+    }
+
+}
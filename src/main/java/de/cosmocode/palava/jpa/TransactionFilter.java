@@ -16,16 +16,19 @@
 
 package de.cosmocode.palava.jpa;
 
+import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityTransaction;
-import javax.persistence.PersistenceException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 
@@ -38,55 +41,231 @@ import de.cosmocode.palava.ipc.IpcCommandExecutionException;
 /**
  * An {@link IpcCallFilter} which handles transaction management for
  * specific jobs.
+ * 
+ * <p>
+ *   The {@link TransactionMode} and the read only flag are taken from the {@link Transactional}
+ *   annotation of the command's execute method and default to {@link TransactionMode#REQUIRED}.
+ * </p>
+ *
+ * <p>
+ *   The class name of the executing command is put into the logging {@link MDC}
+ *   using the key {@value #COMMAND}.
+ * </p>
+ *
+ * <p>
+ *   Commands which start their own transaction are executed again using a fresh
+ *   {@link EntityManager} if they failed due to a concurrent modification and
+ *   {@link Transactional#attempts()} allows it. A filter chain can only be passed once,
+ *   therefore retries execute the command directly, skipping the filters following this one.
+ * </p>
  *
  * @author Willi Schoenborn
  */
 final class TransactionFilter implements IpcCallFilter {
 
+    static final String COMMAND = "command";
+
     private static final Logger LOG = LoggerFactory.getLogger(TransactionFilter.class);
 
+    private final ConcurrentMap<Class<?>, Transactional> annotations = Maps.newConcurrentMap();
+
     private final Provider<EntityManager> provider;
+
+    private final TransactionMetrics metrics;
     
     @Inject
-    public TransactionFilter(Provider<EntityManager> provider) {
+    public TransactionFilter(Provider<EntityManager> provider, TransactionMetrics metrics) {
         this.provider = Preconditions.checkNotNull(provider, "Provider");
+        this.metrics = Preconditions.checkNotNull(metrics, "Metrics");
     }
     
     @Override
-    public Map<String, Object> filter(IpcCall call, IpcCommand command, IpcCallFilterChain chain)
+    public Map<String, Object> filter(final IpcCall call, final IpcCommand command, final IpcCallFilterChain chain)
         throws IpcCommandExecutionException {
+        final Transactional annotation = annotationOf(command);
+        final TransactionMode mode = annotation == null ? TransactionMode.REQUIRED : annotation.mode();
+        final boolean readOnly = annotation != null && annotation.readOnly();
+        LOG.trace("Executing {} using {}", command, mode);
+
         final EntityManager manager = provider.get();
-        final EntityTransaction tx = manager.getTransaction();
-        
-        LOG.debug("Starting transaction");
-        tx.begin();
-        
-        final Map<String, Object> result;
-        
+        final int attempts = isRetriable(annotation, mode, manager) ? annotation.attempts() : 1;
+        final String previous = MDC.get(COMMAND);
+        MDC.put(COMMAND, command.getClass().getName());
+
+        try {
+            for (int attempt = 1;; attempt++) {
+                try {
+                    // the chain has already been passed by the first attempt
+                    final Body body = attempt == 1 ? new Body(call, command, chain) : new Body(call, command, null);
+                    return execute(command, body, manager, mode, readOnly);
+                } catch (IpcCommandExecutionException e) {
+                    if (!retry(command, manager, annotation, attempt, attempts, e)) {
+                        throw e;
+                    }
+                /*CHECKSTYLE:OFF*/
+                } catch (RuntimeException e) {
+                /*CHECKSTYLE:ON*/
+                    if (!retry(command, manager, annotation, attempt, attempts, e)) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            if (previous == null) {
+                MDC.remove(COMMAND);
+            } else {
+                MDC.put(COMMAND, previous);
+            }
+        }
+    }
+
+    private Map<String, Object> execute(IpcCommand command, Body body, EntityManager manager,
+        TransactionMode mode, boolean readOnly) throws IpcCommandExecutionException {
+        // only transactions started for the command are committed after it returned
+        final boolean owned = mode == TransactionMode.REQUIRES_NEW ||
+            mode == TransactionMode.REQUIRED && !Transactions.isActive(manager);
+        final long start = System.nanoTime();
+        boolean completed = false;
+
         try {
-            result = chain.filter(call, command);
+            final Map<String, Object> result = mode.execute(manager, readOnly, body);
+            completed = true;
+            return result;
+        } catch (IpcCommandExecutionException e) {
+            throw e;
         /*CHECKSTYLE:OFF*/
         } catch (RuntimeException e) {
         /*CHECKSTYLE:ON*/
-            LOG.error("Execution failed, rolling back", e);
-            tx.rollback();
-            throw e;
-        } catch (IpcCommandExecutionException e) {
-            LOG.error("Filtering failed, rolling back", e);
-            tx.rollback();
             throw e;
+        /*CHECKSTYLE:OFF*/
+        } catch (Exception e) {
+        /*CHECKSTYLE:ON*/
+            throw new IpcCommandExecutionException(e);
+        } finally {
+            record(command, body, start, System.nanoTime(), owned, completed);
         }
-        
+    }
+
+    /**
+     * Retries are only safe if every attempt runs in its own transaction which has been
+     * started for the command, otherwise the failed work would be part of an outer transaction.
+     */
+    private boolean isRetriable(Transactional annotation, TransactionMode mode, EntityManager manager) {
+        return annotation != null && annotation.attempts() > 1 &&
+            (mode == TransactionMode.REQUIRED || mode == TransactionMode.REQUIRES_NEW) &&
+            manager instanceof DestroyableEntityManager && !Transactions.isActive(manager);
+    }
+
+    private boolean retry(IpcCommand command, EntityManager manager, Transactional annotation,
+        int attempt, int attempts, Exception e) {
+        if (!Retries.isRetriable(e)) {
+            return false;
+        }
+        final TransactionStatistics statistics = metrics.of(command.getClass());
+        if (attempt >= attempts) {
+            LOG.warn("Execution of {} failed after {} attempts", command, attempts);
+            statistics.exhausted();
+            return false;
+        }
+        final long backoff = Retries.backoff(attempt, annotation.backoff());
+        LOG.info("Attempt {}/{} of {} failed due to concurrent modification, retrying in {}ms", new Object[] {
+            attempt, attempts, command, backoff
+        });
+        statistics.retried();
+        DestroyableEntityManager.class.cast(manager).reset();
         try {
-            assert tx.isActive() : "Transaction should be active";
-            tx.commit();
-            LOG.debug("Commit succeeded");
-            return result;
-        } catch (PersistenceException e) {
-            LOG.error("Commit failed, rolling back", e);
-            tx.rollback();
-            throw e;
+            Thread.sleep(backoff);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void record(IpcCommand command, Body body, long start, long end, boolean owned, boolean completed) {
+        final TransactionStatistics statistics = metrics.of(command.getClass());
+        // the body duration is negative if the command has never been called
+        final long bodyTime = body.finished - body.started;
+        if (!body.succeeded || !owned && !completed) {
+            statistics.rolledBack(end - start, bodyTime);
+        } else if (!owned) {
+            statistics.joined(end - start, bodyTime);
+        } else if (completed) {
+            statistics.committed(end - start, bodyTime, end - body.finished);
+        } else {
+            statistics.commitFailed(end - start, bodyTime, end - body.finished);
+        }
+    }
+
+    private Transactional annotationOf(IpcCommand command) {
+        final Class<?> type = command.getClass();
+        final Transactional cached = annotations.get(type);
+        if (cached == null) {
+            final Transactional annotation = annotationOf(type);
+            if (annotation != null) {
+                annotations.putIfAbsent(type, annotation);
+            }
+            return annotation;
+        } else {
+            return cached;
+        }
+    }
+
+    private Transactional annotationOf(Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                final Method method = current.getDeclaredMethod("execute", IpcCall.class, Map.class);
+                if (method.isAnnotationPresent(Transactional.class)) {
+                    return method.getAnnotation(Transactional.class);
+                }
+            } catch (NoSuchMethodException e) {
+                continue;
+            }
         }
+        return null;
+    }
+
+    /**
+     * Executes the filter chain, or the command itself if there is no chain,
+     * and records when it started and finished.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private static final class Body implements Callable<Map<String, Object>> {
+
+        private final IpcCall call;
+        private final IpcCommand command;
+        private final IpcCallFilterChain chain;
+
+        private long started;
+        private long finished = -1L;
+        private boolean succeeded;
+
+        public Body(IpcCall call, IpcCommand command, IpcCallFilterChain chain) {
+            this.call = call;
+            this.command = command;
+            this.chain = chain;
+        }
+
+        @Override
+        public Map<String, Object> call() throws IpcCommandExecutionException {
+            started = System.nanoTime();
+            try {
+                final Map<String, Object> result;
+                if (chain == null) {
+                    result = Maps.newLinkedHashMap();
+                    command.execute(call, result);
+                } else {
+                    result = chain.filter(call, command);
+                }
+                succeeded = true;
+                return result;
+            } finally {
+                finished = System.nanoTime();
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.cosmocode.palava.core.lifecycle.Disposable;
+
+/**
+ * Holds the {@link TransactionStatistics} of all commands executed by the {@link TransactionFilter}
+ * and registers them as MBeans named
+ * <code>de.cosmocode.palava.jpa:type=TransactionStatistics,name=&lt;command class&gt;</code>.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+@Singleton
+final class TransactionMetrics implements Disposable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransactionMetrics.class);
+
+    private static final String DOMAIN = "de.cosmocode.palava.jpa";
+
+    private final ConcurrentMap<Class<?>, TransactionStatistics> statistics = Maps.newConcurrentMap();
+
+    private MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Inject(optional = true)
+    void setServer(MBeanServer server) {
+        this.server = Preconditions.checkNotNull(server, "Server");
+    }
+
+    /**
+     * Provides the statistics of the given command type, creating and
+     * registering them on first access.
+     *
+     * @param type the command type
+     * @return the statistics of the given type
+     */
+    TransactionStatistics of(Class<?> type) {
+        final TransactionStatistics present = statistics.get(type);
+        if (present == null) {
+            final TransactionStatistics created = new TransactionStatistics();
+            final TransactionStatistics raced = statistics.putIfAbsent(type, created);
+            if (raced == null) {
+                register(type, created);
+                return created;
+            } else {
+                return raced;
+            }
+        } else {
+            return present;
+        }
+    }
+
+    private ObjectName nameOf(Class<?> type) throws JMException {
+        return new ObjectName(String.format("%s:type=TransactionStatistics,name=%s",
+            DOMAIN, ObjectName.quote(type.getName())));
+    }
+
+    private void register(Class<?> type, TransactionStatistics created) {
+        try {
+            server.registerMBean(created, nameOf(type));
+        } catch (JMException e) {
+            LOG.warn("Unable to register transaction statistics of " + type, e);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        for (Class<?> type : statistics.keySet()) {
+            try {
+                server.unregisterMBean(nameOf(type));
+            } catch (JMException e) {
+                LOG.warn("Unable to unregister transaction statistics of " + type, e);
+            }
+        }
+        statistics.clear();
+    }
+
+}
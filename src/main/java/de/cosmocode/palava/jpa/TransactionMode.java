@@ -16,25 +16,159 @@
 
 package de.cosmocode.palava.jpa;
 
+import java.util.concurrent.Callable;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TransactionRequiredException;
+
 /**
  * Defines the different transaction modes when
  * encountering a method annotated with {@link Transactional}.
+ * 
+ * <p>
+ *   Besides being used by {@link Transactional}, every mode can be used programmatically
+ *   using {@link #execute(EntityManager, boolean, Callable)}. Modes which suspend an active transaction
+ *   require the given manager to be the {@link DestroyableEntityManager} of the current unit of work.
+ *   Code running inside the callable will then transparently use a separate
+ *   underlying {@link EntityManager}.
+ * </p>
  *
  * @since 3.3
  * @author Willi Schoenborn
  */
-enum TransactionMode {
+public enum TransactionMode {
+
+    /**
+     * Suspends an active transaction and executes without any transaction.
+     */
+    NOT_SUPPORTED {
+
+        @Override
+        public <V> V execute(EntityManager manager, boolean readOnly, Callable<V> callable) throws Exception {
+            if (Transactions.isActive(manager)) {
+                return Transactions.suspended(manager, readOnly, callable, false);
+            } else {
+                return Transactions.nonTransactional(manager, readOnly, callable);
+            }
+        }
 
-    NOT_SUPPORTED,
+    },
     
-    SUPPORTS,
+    /**
+     * Joins an active transaction if there is one, otherwise executes without any transaction.
+     */
+    SUPPORTS {
+
+        @Override
+        public <V> V execute(EntityManager manager, boolean readOnly, Callable<V> callable) throws Exception {
+            if (readOnly && !Transactions.isActive(manager)) {
+                return Transactions.nonTransactional(manager, readOnly, callable);
+            } else {
+                return callable.call();
+            }
+        }
+
+    },
+    
+    /**
+     * Joins an active transaction if there is one, otherwise starts a new one.
+     */
+    REQUIRED {
+
+        @Override
+        public <V> V execute(EntityManager manager, boolean readOnly, Callable<V> callable) throws Exception {
+            if (Transactions.isActive(manager)) {
+                return callable.call();
+            } else {
+                return Transactions.execute(manager, readOnly, callable);
+            }
+        }
+
+    },
     
-    REQUIRED,
+    /**
+     * Suspends an active transaction and always starts a new one
+     * using a separate underlying {@link EntityManager}.
+     */
+    REQUIRES_NEW {
+
+        @Override
+        public <V> V execute(EntityManager manager, boolean readOnly, Callable<V> callable) throws Exception {
+            if (Transactions.isActive(manager)) {
+                return Transactions.suspended(manager, readOnly, callable, true);
+            } else {
+                return Transactions.execute(manager, readOnly, callable);
+            }
+        }
+
+    },
     
-    REQUIRES_NEW,
+    /**
+     * Joins an active transaction and fails if there is none.
+     */
+    MANDATORY {
+
+        @Override
+        public <V> V execute(EntityManager manager, boolean readOnly, Callable<V> callable) throws Exception {
+            if (Transactions.isActive(manager)) {
+                return callable.call();
+            } else {
+                throw new TransactionRequiredException("No active transaction");
+            }
+        }
+
+    },
     
-    MANDATORY,
+    /**
+     * Executes without any transaction and fails if there is an active one.
+     */
+    NEVER {
+
+        @Override
+        public <V> V execute(EntityManager manager, boolean readOnly, Callable<V> callable) throws Exception {
+            if (Transactions.isActive(manager)) {
+                throw new IllegalStateException("Transaction is active");
+            } else {
+                return Transactions.nonTransactional(manager, readOnly, callable);
+            }
+        }
+
+    };
     
-    NEVER;
+    /**
+     * Executes the given callable using the given manager according to this mode.
+     *
+     * @since 3.6
+     * @param <V> the generic result type
+     * @param manager the manager of the current unit of work
+     * @param callable the callable being executed
+     * @return the result of the callable
+     * @throws Exception if the callable failed, the transaction could not be committed or this
+     *         mode does not allow executing in the current transaction state
+     */
+    public <V> V execute(EntityManager manager, Callable<V> callable) throws Exception {
+        return execute(manager, false, callable);
+    }
+
+    /**
+     * Executes the given callable using the given manager according to this mode.
+     * 
+     * <p>
+     *   If readOnly is true and the callable does not join an already active transaction,
+     *   the manager will use {@link javax.persistence.FlushModeType#COMMIT}, queries will
+     *   be created using read only hints and transactions started by this mode will be rolled
+     *   back instead of being committed. This skips flushing and dirty checking entirely.
+     * </p>
+     *
+     * @since 3.6
+     * @param <V> the generic result type
+     * @param manager the manager of the current unit of work
+     * @param readOnly whether the callable does not modify any entities
+     * @param callable the callable being executed
+     * @return the result of the callable
+     * @throws Exception if the callable failed, the transaction could not be committed or this
+     *         mode does not allow executing in the current transaction state
+     */
+    public abstract <V> V execute(EntityManager manager, boolean readOnly, Callable<V> callable) throws Exception;
     
 }
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free transaction statistics of a single command.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class TransactionStatistics implements TransactionStatisticsMBean {
+
+    private static final double MEDIAN = 0.5;
+
+    private static final double P99 = 0.99;
+
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    private final LatencyHistogram body = new LatencyHistogram();
+
+    private final LatencyHistogram commit = new LatencyHistogram();
+
+    private final AtomicLong commits = new AtomicLong();
+
+    private final AtomicLong joins = new AtomicLong();
+
+    private final AtomicLong rollbacks = new AtomicLong();
+
+    private final AtomicLong commitFailures = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private final AtomicLong retriesExhausted = new AtomicLong();
+
+    /**
+     * Records a successful execution.
+     *
+     * @param totalTime the total duration in nanoseconds
+     * @param bodyTime the duration of the command in nanoseconds
+     * @param commitTime the duration after the command returned in nanoseconds
+     */
+    void committed(long totalTime, long bodyTime, long commitTime) {
+        commits.incrementAndGet();
+        record(totalTime, bodyTime, commitTime);
+    }
+
+    /**
+     * Records a successful execution which did not commit a transaction it started.
+     *
+     * @param totalTime the total duration in nanoseconds
+     * @param bodyTime the duration of the command in nanoseconds
+     */
+    void joined(long totalTime, long bodyTime) {
+        joins.incrementAndGet();
+        record(totalTime, bodyTime, -1L);
+    }
+
+    /**
+     * Records an execution which failed before or while executing the command.
+     *
+     * @param totalTime the total duration in nanoseconds
+     * @param bodyTime the duration of the command in nanoseconds, negative if it was not called
+     */
+    void rolledBack(long totalTime, long bodyTime) {
+        rollbacks.incrementAndGet();
+        record(totalTime, bodyTime, -1L);
+    }
+
+    /**
+     * Records an execution which failed after the command returned.
+     *
+     * @param totalTime the total duration in nanoseconds
+     * @param bodyTime the duration of the command in nanoseconds
+     * @param commitTime the duration after the command returned in nanoseconds
+     */
+    void commitFailed(long totalTime, long bodyTime, long commitTime) {
+        commitFailures.incrementAndGet();
+        record(totalTime, bodyTime, commitTime);
+    }
+
+    /**
+     * Records a failed attempt which will be retried.
+     */
+    void retried() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Records a retriable failure of the last allowed attempt.
+     */
+    void exhausted() {
+        retriesExhausted.incrementAndGet();
+    }
+
+    private void record(long totalTime, long bodyTime, long commitTime) {
+        total.record(totalTime);
+        body.record(bodyTime);
+        commit.record(commitTime);
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.get();
+    }
+
+    @Override
+    public long getJoins() {
+        return joins.get();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return rollbacks.get();
+    }
+
+    @Override
+    public long getCommitFailures() {
+        return commitFailures.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public long getRetriesExhausted() {
+        return retriesExhausted.get();
+    }
+
+    @Override
+    public double getMeanTotalTime() {
+        return total.getMean();
+    }
+
+    @Override
+    public double getMedianTotalTime() {
+        return total.getPercentile(MEDIAN);
+    }
+
+    @Override
+    public double get99thPercentileTotalTime() {
+        return total.getPercentile(P99);
+    }
+
+    @Override
+    public double getMaxTotalTime() {
+        return total.getMax();
+    }
+
+    @Override
+    public double getMeanBodyTime() {
+        return body.getMean();
+    }
+
+    @Override
+    public double getMedianBodyTime() {
+        return body.getPercentile(MEDIAN);
+    }
+
+    @Override
+    public double get99thPercentileBodyTime() {
+        return body.getPercentile(P99);
+    }
+
+    @Override
+    public double getMaxBodyTime() {
+        return body.getMax();
+    }
+
+    @Override
+    public double getMeanCommitTime() {
+        return commit.getMean();
+    }
+
+    @Override
+    public double getMedianCommitTime() {
+        return commit.getPercentile(MEDIAN);
+    }
+
+    @Override
+    public double get99thPercentileCommitTime() {
+        return commit.getPercentile(P99);
+    }
+
+    @Override
+    public double getMaxCommitTime() {
+        return commit.getMax();
+    }
+
+    @Override
+    public void reset() {
+        commits.set(0L);
+        joins.set(0L);
+        rollbacks.set(0L);
+        commitFailures.set(0L);
+        retries.set(0L);
+        retriesExhausted.set(0L);
+        total.reset();
+        body.reset();
+        commit.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TransactionStatistics [commits=%s, joins=%s, rollbacks=%s, commitFailures=%s, " +
+            "retries=%s]", commits, joins, rollbacks, commitFailures, retries);
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+/**
+ * JMX interface of the transaction statistics of a single command.
+ * All durations are in milliseconds.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public interface TransactionStatisticsMBean {
+
+    /**
+     * Provides the number of executions which completed successfully
+     * and committed a transaction they started.
+     *
+     * @return the number of commits
+     */
+    long getCommits();
+
+    /**
+     * Provides the number of executions which completed successfully without committing,
+     * because they joined an outer transaction or ran without one. Commit times
+     * only cover commits.
+     *
+     * @return the number of joins
+     */
+    long getJoins();
+
+    /**
+     * Provides the number of executions which failed before or while executing the command.
+     *
+     * @return the number of rollbacks
+     */
+    long getRollbacks();
+
+    /**
+     * Provides the number of executions which failed after the command succeeded,
+     * i.e. while committing.
+     *
+     * @return the number of commit failures
+     */
+    long getCommitFailures();
+
+    /**
+     * Provides the number of failed executions which have been retried.
+     *
+     * @return the number of retries
+     */
+    long getRetries();
+
+    /**
+     * Provides the number of executions which failed with a retriable failure
+     * after all allowed attempts.
+     *
+     * @return the number of executions which ran out of attempts
+     */
+    long getRetriesExhausted();
+
+    /**
+     * Provides the mean total execution time.
+     *
+     * @return the mean total execution time in milliseconds
+     */
+    double getMeanTotalTime();
+
+    /**
+     * Provides the median total execution time.
+     *
+     * @return the median total execution time in milliseconds
+     */
+    double getMedianTotalTime();
+
+    /**
+     * Provides the 99th percentile of the total execution time.
+     *
+     * @return the 99th percentile of the total execution time in milliseconds
+     */
+    double get99thPercentileTotalTime();
+
+    /**
+     * Provides the maximum total execution time.
+     *
+     * @return the maximum total execution time in milliseconds
+     */
+    double getMaxTotalTime();
+
+    /**
+     * Provides the mean command execution time.
+     *
+     * @return the mean command execution time in milliseconds
+     */
+    double getMeanBodyTime();
+
+    /**
+     * Provides the median command execution time.
+     *
+     * @return the median command execution time in milliseconds
+     */
+    double getMedianBodyTime();
+
+    /**
+     * Provides the 99th percentile of the command execution time.
+     *
+     * @return the 99th percentile of the command execution time in milliseconds
+     */
+    double get99thPercentileBodyTime();
+
+    /**
+     * Provides the maximum command execution time.
+     *
+     * @return the maximum command execution time in milliseconds
+     */
+    double getMaxBodyTime();
+
+    /**
+     * Provides the mean time spent after the command returned, i.e. committing.
+     *
+     * @return the mean time spent after the command returned in milliseconds
+     */
+    double getMeanCommitTime();
+
+    /**
+     * Provides the median time spent after the command returned, i.e. committing.
+     *
+     * @return the median time spent after the command returned in milliseconds
+     */
+    double getMedianCommitTime();
+
+    /**
+     * Provides the 99th percentile of the time spent after the command returned, i.e. committing.
+     *
+     * @return the 99th percentile of the time spent after the command returned in milliseconds
+     */
+    double get99thPercentileCommitTime();
+
+    /**
+     * Provides the maximum time spent after the command returned, i.e. committing.
+     *
+     * @return the maximum time spent after the command returned in milliseconds
+     */
+    double getMaxCommitTime();
+
+    /**
+     * Resets all counters and histograms.
+     */
+    void reset();
+
+}
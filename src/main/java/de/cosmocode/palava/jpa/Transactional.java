@@ -32,4 +32,41 @@ import de.cosmocode.palava.ipc.IpcCommand;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Transactional {
 
+    /**
+     * Defines how the annotated method participates in transactions.
+     *
+     * @since 3.6
+     * @return the transaction mode, defaults to {@link TransactionMode#REQUIRED}
+     */
+    TransactionMode mode() default TransactionMode.REQUIRED;
+
+    /**
+     * Marks the annotated method as read only. Read only transactions do not flush,
+     * use read only query hints and are rolled back instead of being committed.
+     *
+     * @since 3.6
+     * @return true if the annotated method does not modify any entities, defaults to false
+     */
+    boolean readOnly() default false;
+
+    /**
+     * Defines how often the annotated command is executed at most, if an execution fails
+     * due to an optimistic or pessimistic lock failure, a deadlock or a serialization failure.
+     * Executions are only repeated if the transaction has been started for the annotated command,
+     * every attempt uses a fresh underlying entity manager.
+     *
+     * @since 3.6
+     * @return the maximum number of attempts, defaults to 1, i.e. no retries
+     */
+    int attempts() default 1;
+
+    /**
+     * Defines the base backoff between two attempts in milliseconds. The actual backoff
+     * is randomized and doubles with every failed attempt.
+     *
+     * @since 3.6
+     * @return the base backoff in milliseconds, defaults to 50
+     */
+    long backoff() default 50L;
+
 }
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.Callable;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Static utility methods shared by the different {@link TransactionMode}s.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class Transactions {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Transactions.class);
+
+    private Transactions() {
+        
+    }
+
+    /**
+     * Checks whether the given manager currently participates in an active transaction.
+     *
+     * @param manager the manager being checked
+     * @return true if there is an active transaction, false otherwise
+     */
+    static boolean isActive(EntityManager manager) {
+        return manager.getTransaction().isActive();
+    }
+
+    /**
+     * Executes the given callable inside a new transaction which will be committed
+     * on success and rolled back on failure. Read only transactions are always rolled back.
+     *
+     * @param <V> the generic result type
+     * @param manager the manager being used
+     * @param readOnly whether the transaction is read only
+     * @param callable the callable being executed
+     * @return the result of the callable
+     * @throws Exception if the callable or the commit failed
+     */
+    static <V> V execute(final EntityManager manager, boolean readOnly, final Callable<V> callable) throws Exception {
+        if (readOnly) {
+            return readOnly(manager, new Callable<V>() {
+                
+                @Override
+                public V call() throws Exception {
+                    return execute(manager, callable, true);
+                }
+                
+            });
+        } else {
+            return execute(manager, callable, false);
+        }
+    }
+
+    private static <V> V execute(EntityManager manager, Callable<V> callable, boolean rollback) throws Exception {
+        final EntityTransaction tx = manager.getTransaction();
+        
+        LOG.debug("Starting transaction");
+        tx.begin();
+        
+        final V result;
+        
+        try {
+            result = callable.call();
+        /*CHECKSTYLE:OFF*/
+        } catch (Exception e) {
+        /*CHECKSTYLE:ON*/
+            LOG.error("Execution failed, rolling back", e);
+            tx.rollback();
+            throw e;
+        }
+        
+        if (rollback) {
+            LOG.debug("Rolling back read only transaction");
+            tx.rollback();
+            return result;
+        }
+        
+        try {
+            assert tx.isActive() : "Transaction should be active";
+            tx.commit();
+            LOG.debug("Commit succeeded");
+            return result;
+        } catch (PersistenceException e) {
+            LOG.error("Commit failed, rolling back", e);
+            if (tx.isActive()) tx.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Executes the given callable without starting a transaction.
+     *
+     * @param <V> the generic result type
+     * @param manager the manager being used
+     * @param readOnly whether the callable should run in read only mode
+     * @param callable the callable being executed
+     * @return the result of the callable
+     * @throws Exception if the callable failed
+     */
+    static <V> V nonTransactional(EntityManager manager, boolean readOnly, Callable<V> callable) throws Exception {
+        return readOnly ? readOnly(manager, callable) : callable.call();
+    }
+
+    /**
+     * Executes the given callable while the given manager is in read only mode, which
+     * disables automatic flushing and applies read only hints to queries if supported.
+     *
+     * @param <V> the generic result type
+     * @param manager the manager being used
+     * @param callable the callable being executed
+     * @return the result of the callable
+     * @throws Exception if the callable failed
+     */
+    private static <V> V readOnly(EntityManager manager, Callable<V> callable) throws Exception {
+        if (manager instanceof DestroyableEntityManager) {
+            final DestroyableEntityManager destroyable = DestroyableEntityManager.class.cast(manager);
+            final boolean previous = destroyable.isReadOnly();
+            destroyable.setReadOnly(true);
+            try {
+                return callable.call();
+            } finally {
+                destroyable.setReadOnly(previous);
+            }
+        } else {
+            final FlushModeType previous = manager.getFlushMode();
+            manager.setFlushMode(FlushModeType.COMMIT);
+            try {
+                return callable.call();
+            } finally {
+                manager.setFlushMode(previous);
+            }
+        }
+    }
+
+    /**
+     * Executes the given callable using a fresh decorated manager, while the current
+     * one, including its active transaction, is suspended.
+     *
+     * @param <V> the generic result type
+     * @param manager the manager being suspended
+     * @param readOnly whether the callable should run in read only mode
+     * @param callable the callable being executed
+     * @param transactional whether the callable should run inside a new transaction
+     * @return the result of the callable
+     * @throws Exception if the callable or the commit failed
+     * @throws IllegalStateException if the manager does not support suspending
+     */
+    static <V> V suspended(EntityManager manager, boolean readOnly, Callable<V> callable,
+        boolean transactional) throws Exception {
+        if (!(manager instanceof DestroyableEntityManager)) {
+            throw new IllegalStateException(String.format("%s does not support suspending transactions", manager));
+        }
+        final DestroyableEntityManager destroyable = DestroyableEntityManager.class.cast(manager);
+        LOG.debug("Suspending current transaction");
+        destroyable.suspend();
+        try {
+            if (transactional) {
+                return execute(destroyable, readOnly, callable);
+            } else {
+                return nonTransactional(destroyable, readOnly, callable);
+            }
+        } finally {
+            LOG.debug("Resuming suspended transaction");
+            destroyable.resume();
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.NamedNativeQueries;
+import javax.persistence.NamedNativeQuery;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.PersistenceException;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Warms up a freshly created {@link EntityManagerFactory} by touching the metamodel of
+ * every managed type, compiling all named queries declared on them and opening a number
+ * of connections at once, which moves the cost of doing so on first use to startup.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+final class WarmUp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WarmUp.class);
+
+    private final String unitName;
+
+    private final int connections;
+
+    /**
+     * Constructor.
+     *
+     * @param unitName the persistence unit name, used for logging
+     * @param connections the number of connections to open at once
+     */
+    WarmUp(String unitName, int connections) {
+        Preconditions.checkArgument(connections >= 0, "Connections must not be negative");
+        this.unitName = Preconditions.checkNotNull(unitName, "UnitName");
+        this.connections = connections;
+    }
+
+    /**
+     * Warms up the given factory. Failures are logged but never propagated.
+     *
+     * @param factory the factory
+     */
+    void run(EntityManagerFactory factory) {
+        try {
+            warmUp(factory);
+        /*CHECKSTYLE:OFF*/
+        } catch (RuntimeException e) {
+        /*CHECKSTYLE:ON*/
+            LOG.warn("Warm up of " + unitName + " failed", e);
+        }
+    }
+
+    private void warmUp(EntityManagerFactory factory) {
+        final long start = System.nanoTime();
+        final Metamodel metamodel = factory.getMetamodel();
+        final Set<ManagedType<?>> types = metamodel.getManagedTypes();
+        for (ManagedType<?> type : types) {
+            type.getAttributes();
+        }
+        LOG.info("Touched metamodel of {} managed types of {} in {}ms", new Object[] {
+            types.size(), unitName, millisSince(start)
+        });
+
+        final long compiling = System.nanoTime();
+        final Set<String> names = namedQueriesOf(types);
+        final int compiled = compile(factory, names);
+        LOG.info("Compiled {}/{} named queries of {} in {}ms", new Object[] {
+            compiled, names.size(), unitName, millisSince(compiling)
+        });
+
+        final long opening = System.nanoTime();
+        final int opened = open(factory, probeOf(metamodel));
+        LOG.info("Opened {}/{} connections of {} in {}ms", new Object[] {
+            opened, connections, unitName, millisSince(opening)
+        });
+
+        LOG.info("Warmed up {} in {}ms", unitName, millisSince(start));
+    }
+
+    private Set<String> namedQueriesOf(Set<ManagedType<?>> types) {
+        final Set<String> names = Sets.newTreeSet();
+        for (ManagedType<?> type : types) {
+            final Class<?> javaType = type.getJavaType();
+            if (javaType == null) {
+                continue;
+            }
+            final NamedQuery query = javaType.getAnnotation(NamedQuery.class);
+            if (query != null) {
+                names.add(query.name());
+            }
+            final NamedQueries queries = javaType.getAnnotation(NamedQueries.class);
+            if (queries != null) {
+                for (NamedQuery each : queries.value()) {
+                    names.add(each.name());
+                }
+            }
+            final NamedNativeQuery nativeQuery = javaType.getAnnotation(NamedNativeQuery.class);
+            if (nativeQuery != null) {
+                names.add(nativeQuery.name());
+            }
+            final NamedNativeQueries nativeQueries = javaType.getAnnotation(NamedNativeQueries.class);
+            if (nativeQueries != null) {
+                for (NamedNativeQuery each : nativeQueries.value()) {
+                    names.add(each.name());
+                }
+            }
+        }
+        return names;
+    }
+
+    private int compile(EntityManagerFactory factory, Set<String> names) {
+        if (names.isEmpty()) {
+            return 0;
+        }
+        int compiled = 0;
+        final EntityManager manager = factory.createEntityManager();
+        try {
+            for (String name : names) {
+                try {
+                    manager.createNamedQuery(name);
+                    compiled++;
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Unable to compile named query " + name + " of " + unitName, e);
+                }
+            }
+        } finally {
+            manager.close();
+        }
+        return compiled;
+    }
+
+    private String probeOf(Metamodel metamodel) {
+        for (EntityType<?> type : metamodel.getEntities()) {
+            return String.format("SELECT e FROM %s e", type.getName());
+        }
+        return null;
+    }
+
+    private int open(EntityManagerFactory factory, String probe) {
+        // all managers are kept open at once to force the pool to hand out distinct connections
+        final List<EntityManager> managers = Lists.newArrayListWithCapacity(connections);
+        int opened = 0;
+        try {
+            for (int i = 0; i < connections; i++) {
+                final EntityManager manager = factory.createEntityManager();
+                // closed in any case, but only counted once the connection has been used
+                managers.add(manager);
+                manager.getTransaction().begin();
+                if (probe != null) {
+                    manager.createQuery(probe).setMaxResults(1).getResultList();
+                }
+                opened++;
+            }
+        } catch (PersistenceException e) {
+            LOG.warn("Unable to open connection of " + unitName, e);
+        } finally {
+            for (EntityManager manager : managers) {
+                close(manager);
+            }
+        }
+        return opened;
+    }
+
+    private void close(EntityManager manager) {
+        try {
+            if (manager.getTransaction().isActive()) {
+                manager.getTransaction().rollback();
+            }
+        } finally {
+            manager.close();
+        }
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+}
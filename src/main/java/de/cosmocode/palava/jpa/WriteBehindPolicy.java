@@ -0,0 +1,98 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Collections;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Defines how a {@link WriteBehindService} behaves if its queue is full.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public enum WriteBehindPolicy {
+
+    /**
+     * Blocks the caller until there is space in the queue.
+     */
+    BLOCK {
+
+        @Override
+        void enqueue(DefaultWriteBehindService service, Object entity) {
+            try {
+                service.queue().put(entity);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Interrupted while waiting for the write behind queue", e);
+            }
+        }
+
+    },
+
+    /**
+     * Drops the entity and logs a warning.
+     */
+    DISCARD {
+
+        @Override
+        void enqueue(DefaultWriteBehindService service, Object entity) {
+            if (!service.queue().offer(entity)) {
+                service.discarded(entity);
+            }
+        }
+
+    },
+
+    /**
+     * Persists the entity synchronously in the caller's thread using a separate transaction.
+     */
+    CALLER_RUNS {
+
+        @Override
+        void enqueue(DefaultWriteBehindService service, Object entity) {
+            if (!service.queue().offer(entity)) {
+                service.write(Collections.singletonList(entity));
+            }
+        }
+
+    },
+
+    /**
+     * Rejects the entity by throwing an {@link IllegalStateException}.
+     */
+    FAIL {
+
+        @Override
+        void enqueue(DefaultWriteBehindService service, Object entity) {
+            if (!service.queue().offer(entity)) {
+                throw new IllegalStateException("Write behind queue is full");
+            }
+        }
+
+    };
+
+    /**
+     * Enqueues the given entity into the queue of the given service.
+     *
+     * @param service the service
+     * @param entity the entity
+     */
+    abstract void enqueue(DefaultWriteBehindService service, Object entity);
+
+}
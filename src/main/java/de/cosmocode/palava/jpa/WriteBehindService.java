@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+/**
+ * A service which persists entities asynchronously in batches, outside of the
+ * caller's transaction. Intended for append-only entities like audit or event rows
+ * which are never read back by the unit of work creating them.
+ *
+ * <p>
+ *   <strong>Note</strong>: Ownership of entities passed to this service transfers to the service.
+ *   They are persisted by a different thread using its own entity manager and must not be used
+ *   by the caller afterwards. Their identifiers and versions may be reset in order to persist them
+ *   again after a failed batch. This does not apply to associated entities persisted by cascading,
+ *   which should therefore be avoided. Write failures are logged but never reported to the caller.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public interface WriteBehindService {
+
+    /**
+     * Enqueues the given entity to be persisted. If the queue is full, the configured
+     * {@link WriteBehindPolicy} decides what happens.
+     *
+     * @param entity the entity to persist
+     * @throws NullPointerException if entity is null
+     * @throws IllegalStateException if this service has been shut down, or the queue is full
+     *         and the policy is {@link WriteBehindPolicy#FAIL}
+     */
+    void persist(Object entity);
+
+    /**
+     * Enqueues all given entities to be persisted.
+     *
+     * @param entities the entities to persist
+     * @throws NullPointerException if entities is or contains null
+     * @throws IllegalStateException if this service has been shut down, or the queue is full
+     *         and the policy is {@link WriteBehindPolicy#FAIL}
+     */
+    void persistAll(Iterable<?> entities);
+
+    /**
+     * Provides the number of entities waiting to be persisted.
+     *
+     * @return the number of pending entities
+     */
+    int getPending();
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.persistence.Cache;
+
+/**
+ * Administrates the second level {@link Cache} of a persistence unit together with
+ * the {@link EntityCache}s and {@link QueryResultCache}s registered on top of it.
+ * Evicting entities removes them from all of these caches at once, which allows
+ * to fix data directly in the database without restarting.
+ * The jpa modules bind the cache manager next to the {@code PersistenceService}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public interface CacheManager {
+
+    /**
+     * Loads all entities of the given class in batches, storing them in the second level cache.
+     *
+     * @param type the entity class
+     * @return the number of loaded entities
+     * @throws NullPointerException if type is null
+     * @throws IllegalArgumentException if type is not an entity
+     */
+    int preload(Class<?> type);
+
+    /**
+     * Loads all entities of the given class whose identifiers are between from and to, inclusive,
+     * in batches, storing them in the second level cache.
+     *
+     * @param type the entity class
+     * @param from the lowest identifier
+     * @param to the highest identifier
+     * @return the number of loaded entities
+     * @throws NullPointerException if any argument is null
+     * @throws IllegalArgumentException if type is not an entity
+     */
+    int preload(Class<?> type, Object from, Object to);
+
+    /**
+     * Checks whether the second level cache contains the specified entity.
+     *
+     * @param type the entity class
+     * @param identifier the entity's identifier
+     * @return true if the entity is cached, false otherwise
+     * @throws NullPointerException if type or identifier is null
+     */
+    boolean contains(Class<?> type, Object identifier);
+
+    /**
+     * Evicts all entities of the given class from all caches and invalidates
+     * all cached query results touching it.
+     *
+     * @param type the entity class
+     * @throws NullPointerException if type is null
+     */
+    void evict(Class<?> type);
+
+    /**
+     * Evicts the specified entities from all caches and invalidates
+     * all cached query results touching their class.
+     *
+     * @param type the entity class
+     * @param identifiers the identifiers of the entities to evict
+     * @throws NullPointerException if type or identifiers is null
+     */
+    void evict(Class<?> type, Collection<?> identifiers);
+
+    /**
+     * Evicts everything from all caches.
+     */
+    void evictAll();
+
+    /**
+     * Computes the ratio of entities of the given class which are held in the second level cache.
+     * This requires to read the identifiers of all entities of the given class and should be
+     * used for administration only.
+     *
+     * @param type the entity class
+     * @return the occupancy between 0 and 1, 0 if there are no entities at all
+     * @throws NullPointerException if type is null
+     * @throws IllegalArgumentException if type is not an entity
+     */
+    double getOccupancy(Class<?> type);
+
+    /**
+     * Registers the given cache, which will be evicted by this manager and whose statistics
+     * will be reported by {@link #getStatistics()} and exported using JMX.
+     *
+     * @param name the name of the cache, unique per manager
+     * @param cache the cache
+     * @throws NullPointerException if name or cache is null
+     * @throws IllegalStateException if there is already a cache registered using the given name
+     */
+    void register(String name, EntityCache cache);
+
+    /**
+     * Registers the given cache, which will be evicted by this manager and whose statistics
+     * will be reported by {@link #getStatistics()} and exported using JMX.
+     *
+     * @param name the name of the cache, unique per manager
+     * @param cache the cache
+     * @throws NullPointerException if name or cache is null
+     * @throws IllegalStateException if there is already a cache registered using the given name
+     */
+    void register(String name, QueryResultCache cache);
+
+    /**
+     * Provides the statistics, including hit ratios and sizes, of all registered caches.
+     *
+     * @return an immutable map of statistics by cache name
+     */
+    Map<String, CacheStatisticsMBean> getStatistics();
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa.cache;
+
+/**
+ * JMX interface of the statistics of an {@link EntityCache} or a {@link QueryResultCache}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public interface CacheStatisticsMBean {
+
+    /**
+     * Provides the number of lookups which found a valid entry.
+     *
+     * @return the number of hits
+     */
+    long getHits();
+
+    /**
+     * Provides the number of lookups which did not find a valid entry.
+     *
+     * @return the number of misses
+     */
+    long getMisses();
+
+    /**
+     * Provides the number of entries which have been removed because the cache was full
+     * or they expired.
+     *
+     * @return the number of evictions
+     */
+    long getEvictions();
+
+    /**
+     * Provides the number of entries which have been removed due to writes.
+     *
+     * @return the number of invalidations
+     */
+    long getInvalidations();
+
+    /**
+     * Provides the ratio of hits to all lookups.
+     *
+     * @return the hit ratio between 0 and 1
+     */
+    double getHitRatio();
+
+    /**
+     * Provides the current number of entries.
+     *
+     * @return the size
+     */
+    int getSize();
+
+    /**
+     * Provides the maximum number of entries.
+     *
+     * @return the maximum size
+     */
+    int getMaximumSize();
+
+    /**
+     * Removes all entries.
+     */
+    void invalidateAll();
+
+    /**
+     * Resets all counters.
+     */
+    void reset();
+
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Maps;
+
+/**
+ * A provider independent, size and time bounded cache of detached entities keyed by
+ * entity class and identifier. Entries are evicted in approximately least recently used order.
+ * Lookups don't block each other, eviction is amortized over the segments of the underlying
+ * concurrent map.
+ *
+ * <p>
+ *   Loading an entity and putting it into this cache is guarded against concurrent writes:
+ *   callers obtain a {@link #stamp()} before loading and entities loaded before an invalidation
+ *   of their key or class are rejected, as well as entities whose version is older than the
+ *   cached one. Entities loaded between an invalidation and the commit of the invalidating
+ *   transaction are rejected by invalidating again after the commit, see
+ *   {@link de.cosmocode.palava.jpa.DestroyableEntityManager#afterCompletion(Runnable)}.
+ *   Otherwise that window is bounded by the time to live.
+ * </p>
+ *
+ * <p>
+ *   <strong>Note</strong>: Cached entities are shared between all threads and must be
+ *   treated as read only.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class EntityCache implements CacheStatisticsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntityCache.class);
+
+    private final int maximumSize;
+
+    private final ConcurrentMap<Map.Entry<Class<?>, Object>, Entry> entries;
+
+    private final ConcurrentMap<Class<?>, Long> invalidatedClasses = Maps.newConcurrentMap();
+
+    private final AtomicLong stamps = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maximumSize the maximum number of entries
+     * @param timeToLive the maximum age of an entry
+     * @param unit the unit of timeToLive
+     * @throws IllegalArgumentException if maximumSize or timeToLive is not positive
+     * @throws NullPointerException if unit is null
+     */
+    public EntityCache(final int maximumSize, long timeToLive, TimeUnit unit) {
+        Preconditions.checkArgument(maximumSize > 0, "MaximumSize must be positive");
+        Preconditions.checkArgument(timeToLive > 0, "TimeToLive must be positive");
+        Preconditions.checkNotNull(unit, "Unit");
+        this.maximumSize = maximumSize;
+        this.entries = CacheBuilder.newBuilder().
+            maximumSize(maximumSize).
+            expireAfterWrite(timeToLive, unit).
+            removalListener(new RemovalListener<Map.Entry<Class<?>, Object>, Entry>() {
+
+                @Override
+                public void onRemoval(RemovalNotification<Map.Entry<Class<?>, Object>, Entry> notification) {
+                    // tombstones don't count
+                    if (notification.wasEvicted() && notification.getValue().entity != null) {
+                        evictions.incrementAndGet();
+                    }
+                }
+
+            }).
+            build(new CacheLoader<Map.Entry<Class<?>, Object>, Entry>() {
+
+                @Override
+                public Entry load(Map.Entry<Class<?>, Object> key) {
+                    throw new UnsupportedOperationException("Entries are put explicitly");
+                }
+
+            }).asMap();
+    }
+
+    private static Map.Entry<Class<?>, Object> key(Class<?> type, Object identifier) {
+        return Maps.<Class<?>, Object>immutableEntry(
+            Preconditions.checkNotNull(type, "Type"),
+            Preconditions.checkNotNull(identifier, "Identifier"));
+    }
+
+    /**
+     * Provides a stamp which must be obtained before loading an entity which will
+     * be {@link #put(Class, Object, Object, Comparable, long) put} into this cache.
+     *
+     * @return a new stamp
+     */
+    public long stamp() {
+        return stamps.incrementAndGet();
+    }
+
+    /**
+     * Looks up the entity of the given type and identifier.
+     *
+     * @param <T> the generic entity type
+     * @param type the entity type
+     * @param identifier the identifier
+     * @return the cached entity or null if there is no valid entry
+     * @throws NullPointerException if type or identifier is null
+     */
+    public <T> T get(Class<T> type, Object identifier) {
+        final Map.Entry<Class<?>, Object> key = key(type, identifier);
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.entity != null && !isValid(type, entry)) {
+            if (entries.remove(key, entry)) {
+                evictions.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            return null;
+        } else if (entry == null || entry.entity == null) {
+            misses.incrementAndGet();
+            return null;
+        } else {
+            hits.incrementAndGet();
+            return type.cast(entry.entity);
+        }
+    }
+
+    private boolean isValid(Class<?> type, Entry entry) {
+        final Long invalidated = invalidatedClasses.get(type);
+        return invalidated == null || invalidated < entry.stamp;
+    }
+
+    /**
+     * Puts the given entity into this cache, unless the key or the type has been invalidated
+     * after the given stamp has been obtained or a newer version is already cached.
+     *
+     * @param <T> the generic entity type
+     * @param type the entity type
+     * @param identifier the identifier
+     * @param entity the detached entity
+     * @param version the version of the entity, may be null if the entity is not versioned
+     * @param stamp the stamp obtained before loading the entity
+     * @return true if the entity has been cached, false otherwise
+     * @throws NullPointerException if type, identifier or entity is null
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <T> boolean put(Class<T> type, Object identifier, T entity, Comparable<?> version, long stamp) {
+        Preconditions.checkNotNull(entity, "Entity");
+        final Map.Entry<Class<?>, Object> key = key(type, identifier);
+        final Long invalidated = invalidatedClasses.get(type);
+        if (invalidated != null && invalidated > stamp) {
+            LOG.trace("Rejecting {} loaded before its type has been invalidated", entity);
+            return false;
+        }
+        final Entry entry = new Entry(entity, version, stamp);
+        while (true) {
+            final Entry present = entries.get(key);
+            if (present != null && present.stamp > stamp) {
+                LOG.trace("Rejecting {} loaded before it has been invalidated", entity);
+                return false;
+            } else if (present != null && present.version != null && version != null &&
+                ((Comparable) present.version).compareTo(version) > 0) {
+                LOG.trace("Rejecting {} which is older than the cached version {}", entity, present.version);
+                return false;
+            }
+            // retry if another thread changed the entry in the meantime
+            if (present == null ? entries.putIfAbsent(key, entry) == null : entries.replace(key, present, entry)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Invalidates the entity of the given type and identifier.
+     *
+     * @param type the entity type
+     * @param identifier the identifier
+     * @throws NullPointerException if type or identifier is null
+     */
+    public void invalidate(Class<?> type, Object identifier) {
+        final Map.Entry<Class<?>, Object> key = key(type, identifier);
+        // the tombstone rejects entities which are being loaded right now
+        final Entry present = entries.put(key, new Entry(null, null, stamp()));
+        if (present != null && present.entity != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Invalidates all entities of the given type.
+     *
+     * @param type the entity type
+     * @throws NullPointerException if type is null
+     */
+    public void invalidateAll(Class<?> type) {
+        Preconditions.checkNotNull(type, "Type");
+        invalidatedClasses.put(type, stamp());
+        final Iterator<Map.Entry<Class<?>, Object>> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey() == type) {
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0 ? 0d : (double) hitCount / total;
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    public void reset() {
+        hits.set(0L);
+        misses.set(0L);
+        evictions.set(0L);
+        invalidations.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EntityCache [size=%s, hits=%s, misses=%s, evictions=%s]",
+            getSize(), hits, misses, evictions);
+    }
+
+    /**
+     * A cached entity, or a tombstone of an invalidated one if entity is null.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private static final class Entry {
+
+        private final Object entity;
+        private final Comparable<?> version;
+        private final long stamp;
+
+        public Entry(Object entity, Comparable<?> version, long stamp) {
+            this.entity = entity;
+            this.version = version;
+            this.stamp = stamp;
+        }
+
+    }
+
+}
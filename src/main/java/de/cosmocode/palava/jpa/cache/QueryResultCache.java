@@ -0,0 +1,355 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * A size and time bounded cache of named query results keyed by query name and parameter values.
+ * Results are stored as lists of entity identifiers or projection values. Entries are evicted
+ * in approximately least recently used order without blocking concurrent lookups.
+ *
+ * <p>
+ *   Every entry knows the entity classes its query touches. Writing an entity class
+ *   {@link #invalidate(Class) invalidates} all entries touching that class, one of its
+ *   super classes or one of its sub classes. Like the {@link EntityCache}, callers obtain a
+ *   {@link #stamp()} before executing a query in order to reject results computed before an invalidation.
+ * </p>
+ *
+ * <p>
+ *   A single instance should be shared by all services whose queries touch each other's entities.
+ * </p>
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class QueryResultCache implements CacheStatisticsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryResultCache.class);
+
+    private final int maximumSize;
+
+    private final ConcurrentMap<List<Object>, Entry> entries;
+
+    private final ConcurrentMap<Class<?>, Long> invalidatedClasses = Maps.newConcurrentMap();
+
+    private final ConcurrentMap<String, Set<Class<?>>> touches = Maps.newConcurrentMap();
+
+    private final AtomicLong stamps = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maximumSize the maximum number of cached results
+     * @param timeToLive the maximum age of a result
+     * @param unit the unit of timeToLive
+     * @throws IllegalArgumentException if maximumSize or timeToLive is not positive
+     * @throws NullPointerException if unit is null
+     */
+    public QueryResultCache(final int maximumSize, long timeToLive, TimeUnit unit) {
+        Preconditions.checkArgument(maximumSize > 0, "MaximumSize must be positive");
+        Preconditions.checkArgument(timeToLive > 0, "TimeToLive must be positive");
+        Preconditions.checkNotNull(unit, "Unit");
+        this.maximumSize = maximumSize;
+        this.entries = CacheBuilder.newBuilder().
+            maximumSize(maximumSize).
+            expireAfterWrite(timeToLive, unit).
+            removalListener(new RemovalListener<List<Object>, Entry>() {
+
+                @Override
+                public void onRemoval(RemovalNotification<List<Object>, Entry> notification) {
+                    if (notification.wasEvicted()) {
+                        evictions.incrementAndGet();
+                    }
+                }
+
+            }).
+            build(new CacheLoader<List<Object>, Entry>() {
+
+                @Override
+                public Entry load(List<Object> key) {
+                    throw new UnsupportedOperationException("Entries are put explicitly");
+                }
+
+            }).asMap();
+    }
+
+    private static List<Object> key(String queryName, Object[] parameters) {
+        Preconditions.checkNotNull(queryName, "QueryName");
+        Preconditions.checkNotNull(parameters, "Parameters");
+        final Object[] key = new Object[parameters.length + 1];
+        key[0] = queryName;
+        System.arraycopy(parameters, 0, key, 1, parameters.length);
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Provides a stamp which must be obtained before executing a query whose result will be
+     * {@link #put(String, Object[], List, Set, long) put} into this cache.
+     *
+     * @return a new stamp
+     */
+    public long stamp() {
+        return stamps.incrementAndGet();
+    }
+
+    /**
+     * Looks up the result of the given named query and parameters.
+     *
+     * @param queryName the query name
+     * @param parameters the positional parameters
+     * @return an immutable list of identifiers or projection values, or null if there is no valid entry
+     * @throws NullPointerException if queryName or parameters is null
+     */
+    public List<?> get(String queryName, Object[] parameters) {
+        final List<Object> key = key(queryName, parameters);
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        } else if (isInvalidated(entry.touches, entry.stamp)) {
+            if (entries.remove(key, entry)) {
+                invalidations.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            return null;
+        } else {
+            hits.incrementAndGet();
+            return entry.values;
+        }
+    }
+
+    private boolean isInvalidated(Set<Class<?>> types, long stamp) {
+        // there are only a few entity classes, so checking each of them is cheap
+        for (Map.Entry<Class<?>, Long> invalidated : invalidatedClasses.entrySet()) {
+            if (invalidated.getValue() <= stamp) {
+                continue;
+            }
+            final Class<?> written = invalidated.getKey();
+            for (Class<?> type : types) {
+                if (type.isAssignableFrom(written) || written.isAssignableFrom(type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts the result of the given named query and parameters into this cache, unless one of the
+     * touched classes has been invalidated after the given stamp has been obtained.
+     *
+     * @param queryName the query name
+     * @param parameters the positional parameters
+     * @param values the identifiers or projection values
+     * @param touches the entity classes the query touches
+     * @param stamp the stamp obtained before executing the query
+     * @return true if the result has been cached, false otherwise
+     * @throws NullPointerException if any argument is null
+     */
+    public boolean put(String queryName, Object[] parameters, List<?> values, Set<Class<?>> touches, long stamp) {
+        final List<Object> key = key(queryName, parameters);
+        Preconditions.checkNotNull(values, "Values");
+        Preconditions.checkNotNull(touches, "Touches");
+        if (isInvalidated(touches, stamp)) {
+            LOG.trace("Rejecting result of {} computed before an invalidation", queryName);
+            return false;
+        }
+        final Entry entry = new Entry(Collections.unmodifiableList(Arrays.asList(values.toArray())), touches, stamp);
+        entries.put(key, entry);
+        return true;
+    }
+
+    /**
+     * Resolves the entity classes touched by the given named query. Queries declared using
+     * {@link NamedQuery} annotations touch all entities whose names occur in their statement.
+     * Queries which can't be resolved are considered to touch all entities.
+     *
+     * @param queryName the query name
+     * @param metamodel the metamodel used to find the query
+     * @return the touched entity classes
+     * @throws NullPointerException if queryName or metamodel is null
+     */
+    public Set<Class<?>> touchedBy(String queryName, Metamodel metamodel) {
+        Preconditions.checkNotNull(queryName, "QueryName");
+        final Set<Class<?>> present = touches.get(queryName);
+        if (present == null) {
+            final Set<Class<?>> resolved = resolve(queryName, Preconditions.checkNotNull(metamodel, "Metamodel"));
+            LOG.debug("Named query {} touches {}", queryName, resolved);
+            touches.putIfAbsent(queryName, resolved);
+            return resolved;
+        } else {
+            return present;
+        }
+    }
+
+    private Set<Class<?>> resolve(String queryName, Metamodel metamodel) {
+        final String statement = statementOf(queryName, metamodel);
+        final ImmutableSet.Builder<Class<?>> builder = ImmutableSet.builder();
+        for (EntityType<?> type : metamodel.getEntities()) {
+            if (statement == null || Pattern.compile("\\b" + Pattern.quote(type.getName()) + "\\b").
+                matcher(statement).find()) {
+                builder.add(type.getJavaType());
+            }
+        }
+        return builder.build();
+    }
+
+    private String statementOf(String queryName, Metamodel metamodel) {
+        for (EntityType<?> type : metamodel.getEntities()) {
+            final Class<?> javaType = type.getJavaType();
+            final NamedQuery query = javaType.getAnnotation(NamedQuery.class);
+            if (query != null && query.name().equals(queryName)) {
+                return query.query();
+            }
+            final NamedQueries queries = javaType.getAnnotation(NamedQueries.class);
+            if (queries == null) {
+                continue;
+            }
+            for (NamedQuery each : queries.value()) {
+                if (each.name().equals(queryName)) {
+                    return each.query();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Invalidates all results touching the given entity class, one of its super classes
+     * or one of its sub classes. Writes using a super class, e.g. bulk updates, may change
+     * instances of any sub class.
+     *
+     * @param type the written entity class
+     * @throws NullPointerException if type is null
+     */
+    public void invalidate(Class<?> type) {
+        Preconditions.checkNotNull(type, "Type");
+        // entries are checked lazily, which keeps invalidating cheap for writes
+        invalidatedClasses.put(type, Long.valueOf(stamp()));
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0 ? 0d : (double) hitCount / total;
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    public void reset() {
+        hits.set(0L);
+        misses.set(0L);
+        evictions.set(0L);
+        invalidations.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryResultCache [size=%s, hits=%s, misses=%s, evictions=%s]",
+            getSize(), hits, misses, evictions);
+    }
+
+    /**
+     * A cached query result.
+     *
+     * @since 3.6
+     * @author Willi Schoenborn
+     */
+    private static final class Entry {
+
+        private final List<?> values;
+        private final Set<Class<?>> touches;
+        private final long stamp;
+
+        public Entry(List<?> values, Set<Class<?>> touches, long stamp) {
+            this.values = values;
+            this.touches = touches;
+            this.stamp = stamp;
+        }
+
+    }
+
+}
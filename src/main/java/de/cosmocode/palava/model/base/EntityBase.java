@@ -18,7 +18,6 @@ package de.cosmocode.palava.model.base;
 
 import java.util.Date;
 
-import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Ordering;
 
@@ -33,42 +32,24 @@ import de.cosmocode.rendering.Renderable;
 public interface EntityBase extends Renderable {
 
     /**
-     * Allows ascending ordering by id. Beware of autoboxing,
-     * as this comparator converts {@code long} to {@link Long} repeatedly.
+     * Allows ascending ordering by id. Use {@link EntityOrderings#sortById(java.util.List)}
+     * to sort large lists.
      */
-    Ordering<EntityBase> ORDER_BY_ID = Ordering.natural().nullsLast().onResultOf(new Function<EntityBase, Long>() {
-        
-        @Override
-        public Long apply(EntityBase from) {
-            return from.getId();
-        }
-        
-    });
+    Ordering<EntityBase> ORDER_BY_ID = EntityOrderings.BY_ID;
     
     /**
      * Allows ordering by age, which will move the oldest entities to the top.
+     * Entities without a creation date are moved to the bottom.
+     * Use {@link EntityOrderings#sortByAge(java.util.List)} to sort large lists.
      */
-    Ordering<EntityBase> ORDER_BY_AGE = Ordering.natural().nullsLast().onResultOf(new Function<EntityBase, Date>() {
-        
-        @Override
-        public Date apply(EntityBase from) {
-            return from.getCreatedAt();
-        }
-    
-    });
+    Ordering<EntityBase> ORDER_BY_AGE = EntityOrderings.BY_AGE;
     
     /**
      * Allows ordering by last modification, which will move the recently modified entities to the top.
+     * Entities without a modification date are moved to the bottom.
+     * Use {@link EntityOrderings#sortByModification(java.util.List)} to sort large lists.
      */
-    Ordering<EntityBase> ORDER_BY_MODIFICATION = Ordering.natural().reverse().nullsLast().onResultOf(
-        new Function<EntityBase, Date>() {
-        
-            @Override
-            public Date apply(EntityBase from) {
-                return from.getModifiedAt();
-            }
-            
-        });
+    Ordering<EntityBase> ORDER_BY_MODIFICATION = EntityOrderings.BY_MODIFICATION;
     
     /**
      * Allows filtering entities which are deleted.
@@ -0,0 +1,300 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.model.base;
+
+import java.util.Date;
+import java.util.List;
+import java.util.ListIterator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Ordering;
+
+/**
+ * Static utility methods and primitive specialized orderings for {@link EntityBase}s.
+ * The orderings compare {@code long}s and {@link Date#getTime()}s directly and the bulk
+ * sort methods extract all keys into a {@code long[]} once and sort indices, which allows
+ * sorting large lists without creating garbage per comparison.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class EntityOrderings {
+
+    static final Ordering<EntityBase> BY_ID = new IdOrdering();
+
+    static final Ordering<EntityBase> BY_AGE = new AgeOrdering();
+
+    static final Ordering<EntityBase> BY_MODIFICATION = new ModificationOrdering();
+
+    private static final int INSERTION_SORT_THRESHOLD = 7;
+
+    private EntityOrderings() {
+
+    }
+
+    /**
+     * Sorts the given list in place using the same order as {@link EntityBase#ORDER_BY_ID}.
+     * The sort is stable.
+     *
+     * @param entities the entities being sorted
+     * @throws NullPointerException if entities is null or contains null
+     */
+    public static void sortById(List<? extends EntityBase> entities) {
+        sort(entities, Key.ID, false);
+    }
+
+    /**
+     * Sorts the given list in place using the same order as {@link EntityBase#ORDER_BY_AGE}.
+     * The sort is stable.
+     *
+     * @param entities the entities being sorted
+     * @throws NullPointerException if entities is null or contains null
+     */
+    public static void sortByAge(List<? extends EntityBase> entities) {
+        sort(entities, Key.CREATED_AT, false);
+    }
+
+    /**
+     * Sorts the given list in place using the same order as {@link EntityBase#ORDER_BY_MODIFICATION}.
+     * The sort is stable.
+     *
+     * @param entities the entities being sorted
+     * @throws NullPointerException if entities is null or contains null
+     */
+    public static void sortByModification(List<? extends EntityBase> entities) {
+        sort(entities, Key.MODIFIED_AT, true);
+    }
+
+    private static <E extends EntityBase> void sort(List<E> entities, Key key, boolean descending) {
+        Preconditions.checkNotNull(entities, "Entities");
+        final int size = entities.size();
+        if (size < 2) {
+            return;
+        }
+
+        final Object[] array = entities.toArray();
+        final long[] keys = new long[size];
+        final int[] indices = new int[size];
+
+        // entities with a key move to the front, entities without one to the back
+        int head = 0;
+        int tail = size;
+        for (int i = 0; i < size; i++) {
+            if (key.extract((EntityBase) array[i], keys, i)) {
+                indices[head++] = i;
+            } else {
+                indices[--tail] = i;
+            }
+        }
+        reverse(indices, tail, size);
+
+        sort(indices.clone(), indices, keys, 0, head, descending);
+
+        final ListIterator<E> iterator = entities.listIterator();
+        for (int index : indices) {
+            iterator.next();
+            @SuppressWarnings("unchecked")
+            final E entity = (E) array[index];
+            iterator.set(entity);
+        }
+    }
+
+    private static void reverse(int[] array, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            swap(array, i, j);
+        }
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        final int temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+
+    /**
+     * Stable merge sort of the indices in dest by their keys. Src has to be a copy of dest.
+     */
+    private static void sort(int[] src, int[] dest, long[] keys, int low, int high, boolean descending) {
+        final int length = high - low;
+
+        if (length < INSERTION_SORT_THRESHOLD) {
+            for (int i = low; i < high; i++) {
+                for (int j = i; j > low && compare(keys, dest[j - 1], dest[j], descending) > 0; j--) {
+                    swap(dest, j, j - 1);
+                }
+            }
+            return;
+        }
+
+        final int mid = (low + high) >>> 1;
+        sort(dest, src, keys, low, mid, descending);
+        sort(dest, src, keys, mid, high, descending);
+
+        if (compare(keys, src[mid - 1], src[mid], descending) <= 0) {
+            System.arraycopy(src, low, dest, low, length);
+            return;
+        }
+
+        for (int i = low, p = low, q = mid; i < high; i++) {
+            if (q >= high || p < mid && compare(keys, src[p], src[q], descending) <= 0) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    private static int compare(long[] keys, int left, int right, boolean descending) {
+        return descending ? compare(keys[right], keys[left]) : compare(keys[left], keys[right]);
+    }
+
+    private static int compare(long left, long right) {
+        return left < right ? -1 : (left == right ? 0 : 1);
+    }
+
+    private static int compare(Date left, Date right) {
+        if (left == right) {
+            return 0;
+        } else if (left == null) {
+            return 1;
+        } else if (right == null) {
+            return -1;
+        } else {
+            return compare(left.getTime(), right.getTime());
+        }
+    }
+
+    /**
+     * Extracts primitive sort keys from entities.
+     *
+     * @author Willi Schoenborn
+     */
+    private enum Key {
+
+        ID {
+
+            @Override
+            boolean extract(EntityBase entity, long[] keys, int index) {
+                keys[index] = entity.getId();
+                return true;
+            }
+
+        },
+
+        CREATED_AT {
+
+            @Override
+            boolean extract(EntityBase entity, long[] keys, int index) {
+                return extract(entity.getCreatedAt(), keys, index);
+            }
+
+        },
+
+        MODIFIED_AT {
+
+            @Override
+            boolean extract(EntityBase entity, long[] keys, int index) {
+                return extract(entity.getModifiedAt(), keys, index);
+            }
+
+        };
+
+        /**
+         * Stores the key of the given entity in keys at the specified index.
+         *
+         * @param entity the entity
+         * @param keys the key array
+         * @param index the index of the entity
+         * @return false if the entity has no key, true otherwise
+         */
+        abstract boolean extract(EntityBase entity, long[] keys, int index);
+
+        boolean extract(Date date, long[] keys, int index) {
+            if (date == null) {
+                return false;
+            } else {
+                keys[index] = date.getTime();
+                return true;
+            }
+        }
+
+    }
+
+    /**
+     * Ascending ordering by id.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class IdOrdering extends Ordering<EntityBase> {
+
+        @Override
+        public int compare(EntityBase left, EntityBase right) {
+            return EntityOrderings.compare(left.getId(), right.getId());
+        }
+
+        @Override
+        public String toString() {
+            return "EntityBase.ORDER_BY_ID";
+        }
+
+    }
+
+    /**
+     * Ascending ordering by creation date, nulls last.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class AgeOrdering extends Ordering<EntityBase> {
+
+        @Override
+        public int compare(EntityBase left, EntityBase right) {
+            return EntityOrderings.compare(left.getCreatedAt(), right.getCreatedAt());
+        }
+
+        @Override
+        public String toString() {
+            return "EntityBase.ORDER_BY_AGE";
+        }
+
+    }
+
+    /**
+     * Descending ordering by modification date, nulls last.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class ModificationOrdering extends Ordering<EntityBase> {
+
+        @Override
+        public int compare(EntityBase left, EntityBase right) {
+            final Date leftDate = left.getModifiedAt();
+            final Date rightDate = right.getModifiedAt();
+            if (leftDate == null || rightDate == null) {
+                return EntityOrderings.compare(leftDate, rightDate);
+            } else {
+                return EntityOrderings.compare(rightDate.getTime(), leftDate.getTime());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "EntityBase.ORDER_BY_MODIFICATION";
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import de.cosmocode.collections.Procedure;
+
+/**
+ * Tests {@link AbstractEntityService}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class AbstractEntityServiceTest {
+
+    /**
+     * Tests that the batch procedure runs at the end of a page, before the next one is loaded.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void eachClearsBetweenPages() {
+        final IMocksControl control = EasyMock.createStrictControl();
+        final EntityManager manager = control.createMock(EntityManager.class);
+        final TypedQuery<String> query = control.createMock(TypedQuery.class);
+
+        EasyMock.expect(query.getFirstResult()).andReturn(0);
+        EasyMock.expect(query.getMaxResults()).andReturn(Integer.MAX_VALUE);
+        EasyMock.expect(query.setFirstResult(0)).andReturn(query);
+        EasyMock.expect(query.setMaxResults(2)).andReturn(query);
+        EasyMock.expect(query.setHint(EasyMock.<String>anyObject(), EasyMock.eq(2))).andReturn(query).times(2);
+        EasyMock.expect(query.getResultList()).andReturn(ImmutableList.of("a", "b"));
+        manager.clear();
+        EasyMock.expect(query.setFirstResult(2)).andReturn(query);
+        EasyMock.expect(query.setMaxResults(2)).andReturn(query);
+        EasyMock.expect(query.setHint(EasyMock.<String>anyObject(), EasyMock.eq(2))).andReturn(query).times(2);
+        EasyMock.expect(query.getResultList()).andReturn(ImmutableList.of("c"));
+        control.replay();
+
+        final AbstractEntityService<String> service = new AbstractEntityService<String>() {
+
+            @Override
+            protected EntityManager entityManager() {
+                return manager;
+            }
+
+            @Override
+            protected Class<String> entityClass() {
+                return String.class;
+            }
+
+            @Override
+            public void delete(String entity) {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+
+        final List<String> processed = Lists.newArrayList();
+        service.each(query, new Procedure<String>() {
+
+            @Override
+            public void apply(String input) {
+                processed.add(input);
+            }
+
+        }, 2, Batch.CLEAR);
+
+        Assert.assertEquals(ImmutableList.of("a", "b", "c"), processed);
+        control.verify();
+    }
+
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import de.cosmocode.palava.jpa.DestroyableEntityManager;
+import de.cosmocode.palava.jpa.cache.EntityCache;
+import de.cosmocode.palava.jpa.cache.QueryResultCache;
+
+/**
+ * Tests {@link AbstractReadOnlyEntityService}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class AbstractReadOnlyEntityServiceTest {
+
+    private static final String IN = "SELECT e FROM Entity e WHERE e.id IN (:identifiers)";
+
+    private final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+
+    private final EntityManagerFactory factory = EasyMock.createNiceMock("factory", EntityManagerFactory.class);
+
+    private final PersistenceUnitUtil util = EasyMock.createNiceMock("util", PersistenceUnitUtil.class);
+
+    private final AbstractReadOnlyEntityService<String> service = new AbstractReadOnlyEntityService<String>() {
+
+        @Override
+        protected EntityManager entityManager() {
+            return manager;
+        }
+
+        @Override
+        protected Class<String> entityClass() {
+            return String.class;
+        }
+
+        @Override
+        protected int inLimit() {
+            return 2;
+        }
+
+    };
+
+    /**
+     * Prepares the metamodel of an entity named Entity with a long identifier named id.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void metamodel() {
+        final Metamodel metamodel = EasyMock.createNiceMock("metamodel", Metamodel.class);
+        final EntityType type = EasyMock.createNiceMock("type", EntityType.class);
+        final Type idType = EasyMock.createNiceMock("idType", Type.class);
+        final SingularAttribute id = EasyMock.createNiceMock("id", SingularAttribute.class);
+        EasyMock.expect(manager.getEntityManagerFactory()).andStubReturn(factory);
+        EasyMock.expect(manager.getMetamodel()).andStubReturn(metamodel);
+        EasyMock.expect(factory.getPersistenceUnitUtil()).andStubReturn(util);
+        EasyMock.expect(factory.getMetamodel()).andStubReturn(metamodel);
+        EasyMock.expect(factory.createEntityManager()).andStubReturn(manager);
+        EasyMock.expect(metamodel.entity(String.class)).andStubReturn(type);
+        EasyMock.expect(type.getName()).andStubReturn("Entity");
+        EasyMock.expect(type.getIdType()).andStubReturn(idType);
+        EasyMock.expect(idType.getJavaType()).andStubReturn(long.class);
+        EasyMock.expect(type.getId(long.class)).andStubReturn(id);
+        EasyMock.expect(id.getName()).andStubReturn("id");
+        EasyMock.expect(util.getIdentifier("a")).andStubReturn(1L);
+        EasyMock.expect(util.getIdentifier("c")).andStubReturn(3L);
+        EasyMock.replay(factory, metamodel, type, idType, id, util);
+    }
+
+    @SuppressWarnings("unchecked")
+    private TypedQuery<String> in(List<Long> identifiers, List<String> result) {
+        final TypedQuery<String> query = EasyMock.createMock(TypedQuery.class);
+        EasyMock.expect(manager.createQuery(IN, String.class)).andReturn(query);
+        EasyMock.expect(query.setParameter("identifiers", identifiers)).andReturn(query);
+        EasyMock.expect(query.getResultList()).andReturn(result);
+        EasyMock.replay(query);
+        return query;
+    }
+
+    /**
+     * Tests that identifiers are queried in chunks without touching single entities
+     * and that other numbers are converted to the identifier type.
+     */
+    @Test
+    public void get() {
+        metamodel();
+        final TypedQuery<String> first = in(ImmutableList.of(3L, 2L), Collections.singletonList("c"));
+        final TypedQuery<String> second = in(ImmutableList.of(1L), Collections.singletonList("a"));
+        EasyMock.replay(manager);
+
+        Assert.assertEquals(ImmutableList.of("c", "a", "c"), service.get(Arrays.<Object>asList(3, 2, 1, 3)));
+        EasyMock.verify(manager, first, second);
+    }
+
+    /**
+     * Tests that getAll keys entities by the given identifiers.
+     */
+    @Test
+    public void getAll() {
+        metamodel();
+        final TypedQuery<String> query = in(ImmutableList.of(1L), Collections.singletonList("a"));
+        EasyMock.replay(manager);
+
+        final Map<Object, String> entities = service.getAll(Collections.singleton(Integer.valueOf(1)));
+        Assert.assertEquals(Collections.singletonMap(Integer.valueOf(1), "a"), entities);
+        EasyMock.verify(manager, query);
+    }
+
+    /**
+     * Tests that an empty collection does not query at all.
+     */
+    @Test
+    public void getNone() {
+        metamodel();
+        EasyMock.replay(manager);
+        Assert.assertTrue(service.get(Collections.emptyList()).isEmpty());
+        EasyMock.verify(manager);
+    }
+
+    /**
+     * Tests that cached query results load entity cache misses using a single query.
+     */
+    @Test
+    public void listCached() {
+        metamodel();
+        final EntityCache entityCache = new EntityCache(10, 1L, TimeUnit.MINUTES);
+        final QueryResultCache queryCache = new QueryResultCache(10, 1L, TimeUnit.MINUTES);
+        final Object[] parameters = {};
+        entityCache.put(String.class, 2L, "b", null, entityCache.stamp());
+        queryCache.put("all", parameters, ImmutableList.of(1L, 2L, 3L), ImmutableSet.<Class<?>>of(String.class),
+            queryCache.stamp());
+        final TypedQuery<String> query = in(ImmutableList.of(1L, 3L), ImmutableList.of("c", "a"));
+        EasyMock.expect(manager.isOpen()).andStubReturn(true);
+        EasyMock.replay(manager);
+        // only managers of a unit of work without pending writes may use cached query results
+        final DestroyableEntityManager unit = new DestroyableEntityManager(factory);
+
+        final AbstractReadOnlyEntityService<String> cached = new AbstractReadOnlyEntityService<String>() {
+
+            @Override
+            protected EntityManager entityManager() {
+                return unit;
+            }
+
+            @Override
+            protected Class<String> entityClass() {
+                return String.class;
+            }
+
+            @Override
+            protected EntityCache entityCache() {
+                return entityCache;
+            }
+
+            @Override
+            protected QueryResultCache queryResultCache() {
+                return queryCache;
+            }
+
+        };
+
+        Assert.assertEquals(ImmutableList.of("a", "b", "c"), cached.list("all", parameters));
+        EasyMock.verify(manager, query);
+    }
+
+    /**
+     * Tests that a cache hit does not open the entity manager of an unused unit of work.
+     */
+    @Test
+    public void getCachedUnopened() {
+        final EntityManagerFactory unopened = EasyMock.createMock("unopened", EntityManagerFactory.class);
+        EasyMock.replay(unopened);
+        final DestroyableEntityManager unused = new DestroyableEntityManager(unopened);
+        final EntityCache entityCache = new EntityCache(10, 1L, TimeUnit.MINUTES);
+        entityCache.put(String.class, 1L, "a", null, entityCache.stamp());
+
+        final AbstractReadOnlyEntityService<String> cached = new AbstractReadOnlyEntityService<String>() {
+
+            @Override
+            protected EntityManager entityManager() {
+                return unused;
+            }
+
+            @Override
+            protected Class<String> entityClass() {
+                return String.class;
+            }
+
+            @Override
+            protected EntityCache entityCache() {
+                return entityCache;
+            }
+
+        };
+
+        unused.getTransaction().begin();
+        Assert.assertEquals("a", cached.getCached(1L));
+        Assert.assertFalse(unused.isDelegateOpen());
+        unused.getTransaction().commit();
+        EasyMock.verify(unopened);
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link AdaptiveBatch}.
+ *
+ * @author Willi Schoenborn
+ */
+public final class AdaptiveBatchTest {
+
+    /**
+     * Tests that the interval grows while flushing is fast.
+     */
+    @Test
+    public void grow() {
+        final EntityManager manager = EasyMock.createNiceMock("manager", EntityManager.class);
+        EasyMock.replay(manager);
+
+        final AdaptiveBatch batch = new AdaptiveBatch(1, 2, 10, 1, TimeUnit.HOURS, 1.0);
+        for (int i = 0; i < 100; i++) {
+            batch.apply(manager);
+        }
+        Assert.assertEquals(10, batch.getInterval());
+    }
+
+    /**
+     * Tests that the interval shrinks if flushing is slow.
+     */
+    @Test
+    public void shrink() {
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        manager.flush();
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+
+            @Override
+            public Object answer() throws InterruptedException {
+                Thread.sleep(2);
+                return null;
+            }
+
+        }).times(2);
+        manager.clear();
+        EasyMock.expectLastCall().times(2);
+        EasyMock.replay(manager);
+
+        final AdaptiveBatch batch = new AdaptiveBatch(2, 8, 8, 1, TimeUnit.MILLISECONDS, 1.0);
+        for (int i = 0; i < 12; i++) {
+            batch.apply(manager);
+        }
+        Assert.assertEquals(2, batch.getInterval());
+        Assert.assertEquals(2, batch.getFlushes());
+        EasyMock.verify(manager);
+    }
+
+}
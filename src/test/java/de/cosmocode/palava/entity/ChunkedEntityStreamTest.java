@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests {@link ChunkedEntityStream}.
+ *
+ * @author Willi Schoenborn
+ */
+public final class ChunkedEntityStreamTest {
+
+    /**
+     * Tests that chunks are loaded lazily and detached once consumed.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void detach() {
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        final TypedQuery<String> query = EasyMock.createNiceMock("query", TypedQuery.class);
+
+        EasyMock.expect(query.setFirstResult(EasyMock.anyInt())).andStubReturn(query);
+        EasyMock.expect(query.getMaxResults()).andReturn(Integer.MAX_VALUE);
+        EasyMock.expect(query.setMaxResults(2)).andStubReturn(query);
+        EasyMock.expect(query.setHint(EasyMock.<String>anyObject(), EasyMock.eq(2))).andStubReturn(query);
+        EasyMock.expect(query.getResultList()).andReturn(ImmutableList.of("a", "b"));
+        EasyMock.expect(query.getResultList()).andReturn(ImmutableList.of("c"));
+        manager.detach("a");
+        manager.detach("b");
+        manager.detach("c");
+        EasyMock.replay(manager, query);
+
+        final EntityStream<String> stream = ChunkedEntityStream.of(manager, query, 2, true);
+        Assert.assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(stream));
+        Assert.assertFalse(stream.hasNext());
+        stream.close();
+
+        EasyMock.verify(manager, query);
+    }
+
+    /**
+     * Tests that closing releases the current chunk.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void close() {
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        final TypedQuery<String> query = EasyMock.createNiceMock("query", TypedQuery.class);
+
+        EasyMock.expect(query.setFirstResult(0)).andReturn(query);
+        EasyMock.expect(query.getMaxResults()).andReturn(Integer.MAX_VALUE);
+        EasyMock.expect(query.setMaxResults(2)).andStubReturn(query);
+        EasyMock.expect(query.setHint(EasyMock.<String>anyObject(), EasyMock.eq(2))).andStubReturn(query);
+        EasyMock.expect(query.getResultList()).andReturn(ImmutableList.of("a", "b"));
+        manager.detach("a");
+        manager.detach("b");
+        EasyMock.replay(manager, query);
+
+        final EntityStream<String> stream = ChunkedEntityStream.of(manager, query, 2, true);
+        Assert.assertEquals("a", stream.next());
+        stream.close();
+        Assert.assertFalse(stream.hasNext());
+        stream.close();
+
+        EasyMock.verify(manager, query);
+    }
+
+    /**
+     * Tests that the first result and maximum results of the given query are respected.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void window() {
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        final TypedQuery<String> query = EasyMock.createNiceMock("query", TypedQuery.class);
+
+        EasyMock.expect(query.getFirstResult()).andReturn(10);
+        EasyMock.expect(query.getMaxResults()).andReturn(3);
+        EasyMock.expect(query.setHint(EasyMock.<String>anyObject(), EasyMock.eq(2))).andStubReturn(query);
+        EasyMock.expect(query.setFirstResult(10)).andReturn(query);
+        EasyMock.expect(query.setMaxResults(2)).andReturn(query);
+        EasyMock.expect(query.getResultList()).andReturn(ImmutableList.of("a", "b"));
+        EasyMock.expect(query.setFirstResult(12)).andReturn(query);
+        EasyMock.expect(query.setMaxResults(1)).andReturn(query);
+        EasyMock.expect(query.getResultList()).andReturn(ImmutableList.of("c"));
+        EasyMock.replay(manager, query);
+
+        final EntityStream<String> stream = ChunkedEntityStream.of(manager, query, 2, false);
+        Assert.assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(stream));
+        stream.close();
+
+        EasyMock.verify(manager, query);
+    }
+
+}
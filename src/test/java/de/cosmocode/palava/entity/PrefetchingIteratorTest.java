@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import de.cosmocode.palava.jpa.PersistenceService;
+
+/**
+ * Tests {@link PrefetchingIterator}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class PrefetchingIteratorTest {
+
+    private static final String FIRST = "SELECT e FROM Entity e ORDER BY e.id";
+
+    private static final String NEXT = "SELECT e FROM Entity e WHERE e.id > :last ORDER BY e.id";
+
+    private final Keyset<String> keyset = new Keyset<String>(String.class, "Entity", "id", Functions.identity());
+
+    @SuppressWarnings("unchecked")
+    private static EntityManager manager(String jpql, Object last, List<String> page) {
+        final EntityManager manager = EasyMock.createMock(EntityManager.class);
+        final TypedQuery<String> query = EasyMock.createMock(TypedQuery.class);
+        EasyMock.expect(manager.createQuery(jpql, String.class)).andReturn(query);
+        if (last != null) {
+            EasyMock.expect(query.setParameter("last", last)).andReturn(query);
+        }
+        EasyMock.expect(query.setMaxResults(2)).andReturn(query);
+        EasyMock.expect(query.getResultList()).andReturn(page);
+        manager.close();
+        EasyMock.replay(manager, query);
+        return manager;
+    }
+
+    /**
+     * Tests that all pages are fetched using short-lived managers.
+     */
+    @Test
+    public void pages() {
+        final PersistenceService service = EasyMock.createMock("service", PersistenceService.class);
+        final EntityManager first = manager(FIRST, null, Arrays.asList("a", "b"));
+        final EntityManager second = manager(NEXT, "b", Collections.singletonList("c"));
+        EasyMock.expect(service.createEntityManager()).andReturn(first);
+        EasyMock.expect(service.createEntityManager()).andReturn(second);
+        EasyMock.replay(service);
+
+        final Iterator<String> iterator = new PrefetchingIterator<String>(service,
+            MoreExecutors.sameThreadExecutor(), keyset, 2, 3);
+        Assert.assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(iterator));
+        EasyMock.verify(service, first, second);
+    }
+
+    /**
+     * Tests that no more than depth pages are fetched ahead of the caller.
+     */
+    @Test
+    public void depth() {
+        final PersistenceService service = EasyMock.createMock("service", PersistenceService.class);
+        final EntityManager first = manager(FIRST, null, Arrays.asList("a", "b"));
+        EasyMock.expect(service.createEntityManager()).andReturn(first);
+        EasyMock.replay(service);
+
+        final Iterator<String> iterator = new PrefetchingIterator<String>(service,
+            MoreExecutors.sameThreadExecutor(), keyset, 2, 1);
+        EasyMock.verify(service, first);
+
+        EasyMock.reset(service);
+        final EntityManager second = manager(NEXT, "b", Collections.<String>emptyList());
+        EasyMock.expect(service.createEntityManager()).andReturn(second);
+        EasyMock.replay(service);
+
+        Assert.assertEquals("a", iterator.next());
+        Assert.assertEquals("b", iterator.next());
+        Assert.assertFalse(iterator.hasNext());
+        EasyMock.verify(service, second);
+    }
+
+    /**
+     * Tests that fetches rejected by the executor are done by the caller.
+     */
+    @Test
+    public void rejected() {
+        final PersistenceService service = EasyMock.createMock("service", PersistenceService.class);
+        final EntityManager first = manager(FIRST, null, Arrays.asList("a", "b"));
+        final EntityManager second = manager(NEXT, "b", Collections.singletonList("c"));
+        EasyMock.expect(service.createEntityManager()).andReturn(first);
+        EasyMock.expect(service.createEntityManager()).andReturn(second);
+        EasyMock.replay(service);
+
+        final Executor rejecting = new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+
+        };
+        final Iterator<String> iterator = new PrefetchingIterator<String>(service, rejecting, keyset, 2, 3);
+        Assert.assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(iterator));
+        EasyMock.verify(service, first, second);
+    }
+
+    /**
+     * Tests that failures of background fetches are rethrown to the caller.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void failure() {
+        final PersistenceService service = EasyMock.createMock("service", PersistenceService.class);
+        EasyMock.expect(service.createEntityManager()).andThrow(new IllegalStateException());
+        EasyMock.replay(service);
+
+        new PrefetchingIterator<String>(service, MoreExecutors.sameThreadExecutor(), keyset, 2, 1).hasNext();
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests {@link SeekingIterator}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class SeekingIteratorTest {
+
+    private static final String FIRST = "SELECT e FROM Entity e ORDER BY e.id";
+
+    private static final String NEXT = "SELECT e FROM Entity e WHERE e.id > :last ORDER BY e.id";
+
+    private final Keyset<String> keyset = new Keyset<String>(String.class, "Entity", "id", Functions.identity());
+
+    @SuppressWarnings("unchecked")
+    private static TypedQuery<String> query(List<String> page) {
+        final TypedQuery<String> query = EasyMock.createMock(TypedQuery.class);
+        EasyMock.expect(query.setMaxResults(2)).andReturn(query);
+        EasyMock.expect(query.getResultList()).andReturn(page);
+        return query;
+    }
+
+    /**
+     * Tests that pages are seeked using the key of the previous page's last entity
+     * and that a short page ends the iteration.
+     */
+    @Test
+    public void pages() {
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        final TypedQuery<String> first = query(Arrays.asList("a", "b"));
+        final TypedQuery<String> next = query(Collections.singletonList("c"));
+        EasyMock.expect(manager.createQuery(FIRST, String.class)).andReturn(first);
+        EasyMock.expect(manager.createQuery(NEXT, String.class)).andReturn(next);
+        EasyMock.expect(next.setParameter("last", "b")).andReturn(next);
+        EasyMock.replay(manager, first, next);
+
+        final Iterator<String> iterator = new SeekingIterator<String>(manager, keyset, 2);
+        Assert.assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(iterator));
+        Assert.assertFalse(iterator.hasNext());
+        EasyMock.verify(manager, first, next);
+    }
+
+    /**
+     * Tests that a full last page is followed by exactly one empty page.
+     */
+    @Test
+    public void fullLastPage() {
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        final TypedQuery<String> first = query(Arrays.asList("a", "b"));
+        final TypedQuery<String> next = query(Collections.<String>emptyList());
+        EasyMock.expect(manager.createQuery(FIRST, String.class)).andReturn(first);
+        EasyMock.expect(manager.createQuery(NEXT, String.class)).andReturn(next);
+        EasyMock.expect(next.setParameter("last", "b")).andReturn(next);
+        EasyMock.replay(manager, first, next);
+
+        final Iterator<String> iterator = new SeekingIterator<String>(manager, keyset, 2);
+        Assert.assertEquals(ImmutableList.of("a", "b"), ImmutableList.copyOf(iterator));
+        Assert.assertFalse(iterator.hasNext());
+        EasyMock.verify(manager, first, next);
+    }
+
+    /**
+     * Tests that the next page is not loaded before the current one has been consumed,
+     * so clearing in between does not detach unprocessed entities.
+     */
+    @Test
+    public void lazy() {
+        final EntityManager manager = EasyMock.createStrictMock("manager", EntityManager.class);
+        final TypedQuery<String> first = query(Arrays.asList("a", "b"));
+        final TypedQuery<String> next = query(Collections.singletonList("c"));
+        EasyMock.expect(manager.createQuery(FIRST, String.class)).andReturn(first);
+        manager.clear();
+        EasyMock.expect(manager.createQuery(NEXT, String.class)).andReturn(next);
+        EasyMock.expect(next.setParameter("last", "b")).andReturn(next);
+        EasyMock.replay(manager, first, next);
+
+        final Iterator<String> iterator = new SeekingIterator<String>(manager, keyset, 2);
+        Assert.assertEquals("a", iterator.next());
+        Assert.assertEquals("b", iterator.next());
+        manager.clear();
+        Assert.assertEquals("c", iterator.next());
+        Assert.assertFalse(iterator.hasNext());
+        EasyMock.verify(manager, first, next);
+    }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.entity;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import de.cosmocode.palava.model.base.AbstractEntity;
+import de.cosmocode.rendering.Renderer;
+import de.cosmocode.rendering.RenderingLevel;
+
+/**
+ * Tests {@link SoftDeletingEntityService}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class SoftDeletingEntityServiceTest {
+
+    private static final String DELETE = "UPDATE Entity e SET e.deletedAt = :now, e.modifiedAt = :now, " +
+        "e.version = e.version + 1 WHERE e.id IN (:identifiers) AND e.deletedAt IS NULL";
+
+    private static final String RESTORE = "UPDATE Entity e SET e.deletedAt = NULL, e.modifiedAt = :now, " +
+        "e.version = e.version + 1 WHERE e.id IN (:identifiers) AND e.deletedAt IS NOT NULL";
+
+    private final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+
+    private final Cache cache = EasyMock.createMock("cache", Cache.class);
+
+    private final PersistenceUnitUtil util = EasyMock.createMock("util", PersistenceUnitUtil.class);
+
+    private final SoftDeletingEntityService<TestEntity> service = new SoftDeletingEntityService<TestEntity>() {
+
+        @Override
+        protected EntityManager entityManager() {
+            return manager;
+        }
+
+        @Override
+        protected Class<TestEntity> entityClass() {
+            return TestEntity.class;
+        }
+
+        @Override
+        protected int inLimit() {
+            return 2;
+        }
+
+    };
+
+    /**
+     * Prepares the metamodel of an entity named Entity with a long identifier named id.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void metamodel() {
+        final EntityManagerFactory factory = EasyMock.createNiceMock("factory", EntityManagerFactory.class);
+        final Metamodel metamodel = EasyMock.createNiceMock("metamodel", Metamodel.class);
+        final EntityType type = EasyMock.createNiceMock("type", EntityType.class);
+        final Type idType = EasyMock.createNiceMock("idType", Type.class);
+        final SingularAttribute id = EasyMock.createNiceMock("id", SingularAttribute.class);
+        EasyMock.expect(manager.getEntityManagerFactory()).andStubReturn(factory);
+        EasyMock.expect(manager.getMetamodel()).andStubReturn(metamodel);
+        EasyMock.expect(factory.getCache()).andStubReturn(cache);
+        EasyMock.expect(factory.getPersistenceUnitUtil()).andStubReturn(util);
+        EasyMock.expect(metamodel.entity(TestEntity.class)).andStubReturn(type);
+        EasyMock.expect(type.getName()).andStubReturn("Entity");
+        EasyMock.expect(type.getIdType()).andStubReturn(idType);
+        EasyMock.expect(idType.getJavaType()).andStubReturn(long.class);
+        EasyMock.expect(type.getId(long.class)).andStubReturn(id);
+        EasyMock.expect(id.getName()).andStubReturn("id");
+        EasyMock.replay(factory, metamodel, type, idType, id);
+    }
+
+    private Query update(String jpql, Object identifiers, int updated) {
+        final Query query = EasyMock.createMock(Query.class);
+        EasyMock.expect(manager.createQuery(jpql)).andReturn(query);
+        EasyMock.expect(query.setParameter(EasyMock.eq("now"), EasyMock.isA(Date.class),
+            EasyMock.eq(TemporalType.TIMESTAMP))).andReturn(query);
+        EasyMock.expect(query.setParameter("identifiers", identifiers)).andReturn(query);
+        EasyMock.expect(query.executeUpdate()).andReturn(updated);
+        EasyMock.replay(query);
+        return query;
+    }
+
+    /**
+     * Tests that deleteAll updates in chunks, refreshes all managed entities, including those
+     * passed by identifier, and evicts affected entities by identifier.
+     */
+    @Test
+    public void deleteAll() {
+        metamodel();
+        final TestEntity managed = new TestEntity(1L);
+        final TestEntity detached = new TestEntity(2L);
+        final TestEntity reference = new TestEntity(2L);
+        final TestEntity loaded = new TestEntity(3L);
+        manager.flush();
+        final Query first = update(DELETE, ImmutableList.of(1L, 2L), 2);
+        final Query second = update(DELETE, ImmutableList.of(3L, 4L), 1);
+        EasyMock.expect(manager.getReference(TestEntity.class, 1L)).andReturn(managed);
+        EasyMock.expect(util.isLoaded(managed)).andReturn(true);
+        manager.refresh(managed);
+        EasyMock.expect(manager.getReference(TestEntity.class, 2L)).andReturn(reference);
+        EasyMock.expect(util.isLoaded(reference)).andReturn(false);
+        EasyMock.expect(manager.getReference(TestEntity.class, 3L)).andReturn(loaded);
+        EasyMock.expect(util.isLoaded(loaded)).andReturn(true);
+        manager.refresh(loaded);
+        EasyMock.expect(manager.getReference(TestEntity.class, 4L)).andThrow(new EntityNotFoundException());
+        cache.evict(TestEntity.class, 1L);
+        cache.evict(TestEntity.class, 2L);
+        cache.evict(TestEntity.class, 3L);
+        cache.evict(TestEntity.class, 4L);
+        EasyMock.replay(manager, cache, util);
+
+        Assert.assertEquals(3, service.deleteAll(Arrays.<Object>asList(managed, detached, 3, 1L, 4)));
+        EasyMock.verify(manager, cache, util, first, second);
+    }
+
+    /**
+     * Tests that restoreAll does not refresh entities which are not loaded.
+     */
+    @Test
+    public void restoreAll() {
+        metamodel();
+        final TestEntity reference = new TestEntity(5L);
+        manager.flush();
+        final Query query = update(RESTORE, ImmutableList.of(5L), 1);
+        EasyMock.expect(manager.getReference(TestEntity.class, 5L)).andReturn(reference);
+        EasyMock.expect(util.isLoaded(reference)).andReturn(false);
+        cache.evict(TestEntity.class, 5L);
+        EasyMock.replay(manager, cache, util);
+
+        Assert.assertEquals(1, service.restoreAll(Arrays.<Object>asList(5)));
+        EasyMock.verify(manager, cache, util, query);
+    }
+
+    /**
+     * Tests that an empty collection does not flush or update.
+     */
+    @Test
+    public void restoreNone() {
+        metamodel();
+        EasyMock.replay(manager, cache);
+        Assert.assertEquals(0, service.restoreAll(ImmutableList.of()));
+        EasyMock.verify(manager, cache);
+    }
+
+    /**
+     * A minimal soft deletable entity.
+     */
+    private static final class TestEntity extends AbstractEntity {
+
+        private final long id;
+
+        public TestEntity(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public void render(Renderer renderer, RenderingLevel level) {
+            // not required
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.Type;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.cosmocode.palava.jpa.cache.EntityCache;
+import de.cosmocode.palava.jpa.cache.QueryResultCache;
+
+/**
+ * Tests {@link DefaultCacheManager}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class DefaultCacheManagerTest {
+
+    /**
+     * Tests parsing of configured regions.
+     */
+    @Test
+    public void parse() {
+        final List<DefaultCacheManager.Region> regions = DefaultCacheManager.Region.parse(
+            " Country, com.example.Product[1..5000] ,,");
+        Assert.assertEquals("[Country, com.example.Product[1..5000]]", regions.toString());
+        Assert.assertTrue(DefaultCacheManager.Region.parse("").isEmpty());
+    }
+
+    /**
+     * Tests that malformed regions are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void parseMalformed() {
+        DefaultCacheManager.Region.parse("Product[1..]");
+    }
+
+    /**
+     * Tests that ranges whose lower bound exceeds the upper bound are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void parseReversed() {
+        DefaultCacheManager.Region.parse("Product[5000..1]");
+    }
+
+    /**
+     * Tests that ranges of entities whose identifiers can not be configured are rejected
+     * when resolving them.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void resolveUnsupported() {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final Metamodel metamodel = EasyMock.createMock("metamodel", Metamodel.class);
+        final EntityType type = EasyMock.createMock("type", EntityType.class);
+        final Type identifierType = EasyMock.createMock("identifierType", Type.class);
+        EasyMock.expect(factory.getMetamodel()).andReturn(metamodel);
+        EasyMock.expect(metamodel.getEntities()).andReturn((Set) Collections.singleton(type));
+        EasyMock.expect(type.getName()).andReturn("Product");
+        EasyMock.expect(type.getJavaType()).andReturn(Object.class).anyTimes();
+        EasyMock.expect(type.getIdType()).andReturn(identifierType);
+        EasyMock.expect(identifierType.getJavaType()).andReturn(UUID.class);
+        EasyMock.replay(factory, metamodel, type, identifierType);
+        DefaultCacheManager.resolve(factory, DefaultCacheManager.Region.parse("Product[1..5000]"));
+    }
+
+    /**
+     * Tests that evicting by identifiers reaches the second level cache and all registered caches.
+     */
+    @Test
+    public void evict() throws JMException {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final Cache cache = EasyMock.createMock("cache", Cache.class);
+        EasyMock.expect(factory.getCache()).andReturn(cache);
+        cache.evict(String.class, 1L);
+        cache.evict(String.class, 2L);
+        EasyMock.replay(factory, cache);
+
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final DefaultCacheManager manager = new DefaultCacheManager("test", factory, server, 10);
+        final EntityCache entities = new EntityCache(10, 1L, TimeUnit.HOURS);
+        final QueryResultCache queries = new QueryResultCache(10, 1L, TimeUnit.HOURS);
+        manager.register("entities", entities);
+        manager.register("queries", queries);
+        Assert.assertEquals(2, manager.getStatistics().size());
+        Assert.assertEquals(2, server.queryNames(new ObjectName("de.cosmocode.palava.jpa:*"), null).size());
+
+        final Set<Class<?>> touches = Collections.<Class<?>>singleton(String.class);
+        Assert.assertTrue(entities.put(String.class, 1L, "a", null, entities.stamp()));
+        Assert.assertTrue(entities.put(String.class, 3L, "c", null, entities.stamp()));
+        Assert.assertTrue(queries.put("all", new Object[0], Arrays.asList(1L, 3L), touches, queries.stamp()));
+
+        manager.evict(String.class, Arrays.asList(1L, 2L));
+
+        Assert.assertNull(entities.get(String.class, 1L));
+        Assert.assertEquals("c", entities.get(String.class, 3L));
+        Assert.assertNull(queries.get("all", new Object[0]));
+        EasyMock.verify(factory, cache);
+
+        manager.dispose();
+        Assert.assertTrue(manager.getStatistics().isEmpty());
+        Assert.assertTrue(server.queryNames(new ObjectName("de.cosmocode.palava.jpa:*"), null).isEmpty());
+    }
+
+    /**
+     * Tests that cache names are unique.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void registerTwice() {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final DefaultCacheManager manager = new DefaultCacheManager("test", factory,
+            MBeanServerFactory.newMBeanServer(), 10);
+        manager.register("cache", new EntityCache(10, 1L, TimeUnit.HOURS));
+        manager.register("cache", new QueryResultCache(10, 1L, TimeUnit.HOURS));
+    }
+
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.RollbackException;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link DefaultWriteBehindService}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class DefaultWriteBehindServiceTest {
+
+    /**
+     * Tests that pending entities are written in batches when disposing.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void drain() throws Exception {
+        final PersistenceService persistence = EasyMock.createMock("persistence", PersistenceService.class);
+        final EntityManager first = EasyMock.createMock("first", EntityManager.class);
+        final EntityManager second = EasyMock.createMock("second", EntityManager.class);
+        final EntityTransaction transaction = EasyMock.createNiceMock("transaction", EntityTransaction.class);
+        final Metamodel metamodel = EasyMock.createMock("metamodel", Metamodel.class);
+
+        EasyMock.expect(persistence.getMetamodel()).andStubReturn(metamodel);
+        EasyMock.expect(metamodel.entity(String.class)).andStubThrow(new IllegalArgumentException());
+        EasyMock.expect(persistence.createEntityManager()).andReturn(first);
+        EasyMock.expect(first.getTransaction()).andStubReturn(transaction);
+        first.persist("a");
+        first.persist("b");
+        first.close();
+        EasyMock.expect(persistence.createEntityManager()).andReturn(second);
+        EasyMock.expect(second.getTransaction()).andStubReturn(transaction);
+        second.persist("c");
+        second.close();
+        EasyMock.replay(persistence, first, second, transaction, metamodel);
+
+        final DefaultWriteBehindService service = new DefaultWriteBehindService(persistence);
+        service.setBatchSize(2);
+        service.setFlushInterval(1L);
+        service.setFlushIntervalUnit(TimeUnit.HOURS);
+        service.initialize();
+        service.persistAll(Arrays.asList("a", "b", "c"));
+        service.dispose();
+        Assert.assertEquals(0, service.getPending());
+
+        EasyMock.verify(persistence, first, second);
+    }
+
+    /**
+     * Tests that the worker survives unexpected failures of a batch.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void survive() throws Exception {
+        final PersistenceService persistence = EasyMock.createMock("persistence", PersistenceService.class);
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        final EntityTransaction transaction = EasyMock.createNiceMock("transaction", EntityTransaction.class);
+
+        EasyMock.expect(persistence.getMetamodel()).andThrow(new IllegalStateException());
+        EasyMock.expect(persistence.createEntityManager()).andReturn(manager);
+        EasyMock.expect(manager.getTransaction()).andStubReturn(transaction);
+        manager.persist("c");
+        manager.close();
+        EasyMock.replay(persistence, manager, transaction);
+
+        final DefaultWriteBehindService service = new DefaultWriteBehindService(persistence);
+        service.setBatchSize(2);
+        service.setFlushInterval(1L);
+        service.setFlushIntervalUnit(TimeUnit.HOURS);
+        service.initialize();
+        service.persistAll(Arrays.asList("a", "b", "c"));
+        service.dispose();
+        Assert.assertEquals(0, service.getPending());
+
+        EasyMock.verify(persistence, manager);
+    }
+
+    /**
+     * Tests that identifiers assigned by a failed batch are reset before writing one by one.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void fallback() throws Exception {
+        final PersistenceService persistence = EasyMock.createMock("persistence", PersistenceService.class);
+        final Metamodel metamodel = EasyMock.createMock("metamodel", Metamodel.class);
+        final EntityType type = EasyMock.createMock("type", EntityType.class);
+        final SingularAttribute id = EasyMock.createNiceMock("id", SingularAttribute.class);
+        final EntityManager batch = EasyMock.createMock("batch", EntityManager.class);
+        final EntityManager single = EasyMock.createNiceMock("single", EntityManager.class);
+        final EntityTransaction failing = EasyMock.createNiceMock("failing", EntityTransaction.class);
+        final EntityTransaction transaction = EasyMock.createNiceMock("transaction", EntityTransaction.class);
+        final Event a = new Event();
+        final Event b = new Event();
+
+        EasyMock.expect(persistence.getMetamodel()).andReturn(metamodel);
+        EasyMock.expect(metamodel.entity(Event.class)).andStubReturn(type);
+        EasyMock.expect(type.getSingularAttributes()).andStubReturn((Set) Collections.singleton(id));
+        EasyMock.expect(id.isId()).andStubReturn(true);
+        EasyMock.expect(id.getJavaMember()).andStubReturn(Event.class.getDeclaredField("id"));
+
+        EasyMock.expect(persistence.createEntityManager()).andReturn(batch);
+        EasyMock.expect(batch.getTransaction()).andStubReturn(failing);
+        batch.persist(EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+
+            @Override
+            public Void answer() {
+                Event.class.cast(EasyMock.getCurrentArguments()[0]).id = Long.valueOf(42L);
+                return null;
+            }
+
+        }).times(2);
+        batch.close();
+        failing.commit();
+        EasyMock.expectLastCall().andThrow(new RollbackException());
+        EasyMock.expect(failing.isActive()).andReturn(true);
+
+        EasyMock.expect(persistence.createEntityManager()).andReturn(single).times(2);
+        EasyMock.expect(single.getTransaction()).andStubReturn(transaction);
+        single.persist(EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+
+            @Override
+            public Void answer() {
+                Assert.assertNull(Event.class.cast(EasyMock.getCurrentArguments()[0]).id);
+                return null;
+            }
+
+        }).times(2);
+        EasyMock.replay(persistence, metamodel, type, id, batch, single, failing, transaction);
+
+        final DefaultWriteBehindService service = new DefaultWriteBehindService(persistence);
+        service.write(Arrays.<Object>asList(a, b));
+
+        EasyMock.verify(persistence, batch, single, failing);
+    }
+
+    /**
+     * Tests that entities are rejected after shutdown.
+     *
+     * @throws Exception should not happen
+     */
+    @Test(expected = IllegalStateException.class)
+    public void disposed() throws Exception {
+        final PersistenceService persistence = EasyMock.createMock("persistence", PersistenceService.class);
+        EasyMock.replay(persistence);
+        final DefaultWriteBehindService service = new DefaultWriteBehindService(persistence);
+        service.initialize();
+        service.dispose();
+        service.persist("a");
+    }
+
+    /**
+     * An entity with a generated identifier.
+     */
+    private static final class Event {
+
+        private Long id;
+
+    }
+
+}
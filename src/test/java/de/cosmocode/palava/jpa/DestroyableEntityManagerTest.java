@@ -0,0 +1,114 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link DestroyableEntityManager}.
+ *
+ * @author Willi Schoenborn
+ */
+public final class DestroyableEntityManagerTest {
+
+    /**
+     * Tests that an unused manager never touches the factory.
+     */
+    @Test
+    public void unused() {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        EasyMock.replay(factory);
+        
+        final DestroyableEntityManager manager = new DestroyableEntityManager(factory);
+        final EntityTransaction tx = manager.getTransaction();
+        tx.begin();
+        Assert.assertTrue(tx.isActive());
+        tx.commit();
+        Assert.assertFalse(tx.isActive());
+        manager.destroy();
+        Assert.assertFalse(manager.isOpen());
+        
+        EasyMock.verify(factory);
+    }
+
+    /**
+     * Tests that the transaction begins on first use.
+     */
+    @Test
+    public void deferred() {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final EntityManager delegate = EasyMock.createMock("delegate", EntityManager.class);
+        final EntityTransaction transaction = EasyMock.createMock("transaction", EntityTransaction.class);
+        
+        EasyMock.expect(factory.createEntityManager()).andReturn(delegate);
+        EasyMock.expect(delegate.getTransaction()).andStubReturn(transaction);
+        transaction.begin();
+        EasyMock.expect(delegate.find(String.class, 1L)).andReturn("entity");
+        transaction.commit();
+        EasyMock.expect(delegate.isOpen()).andReturn(true);
+        delegate.close();
+        EasyMock.replay(factory, delegate, transaction);
+        
+        final DestroyableEntityManager manager = new DestroyableEntityManager(factory);
+        manager.getTransaction().begin();
+        Assert.assertEquals("entity", manager.find(String.class, 1L));
+        manager.getTransaction().commit();
+        manager.destroy();
+        
+        EasyMock.verify(factory, delegate, transaction);
+    }
+
+    /**
+     * Tests that completion callbacks run once the transaction completed.
+     */
+    @Test
+    public void afterCompletion() {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        EasyMock.replay(factory);
+        final AtomicInteger runs = new AtomicInteger();
+        final Runnable callback = new Runnable() {
+
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+
+        };
+
+        final DestroyableEntityManager manager = new DestroyableEntityManager(factory);
+        manager.getTransaction().begin();
+        manager.afterCompletion(callback);
+        Assert.assertEquals(0, runs.get());
+        manager.getTransaction().rollback();
+        Assert.assertEquals(1, runs.get());
+        manager.afterCompletion(callback);
+        Assert.assertEquals(2, runs.get());
+        manager.destroy();
+        Assert.assertEquals(2, runs.get());
+
+        EasyMock.verify(factory);
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link EntityManagerMonitor}.
+ *
+ * @author Willi Schoenborn
+ */
+public final class EntityManagerMonitorTest {
+
+    /**
+     * Tests that operations of a {@link DestroyableEntityManager} are aggregated on destroy.
+     */
+    @Test
+    public void aggregate() {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final EntityManager delegate = EasyMock.createNiceMock("delegate", EntityManager.class);
+        EasyMock.expect(factory.createEntityManager()).andReturn(delegate);
+        EasyMock.expect(delegate.find(String.class, 1L)).andReturn("first");
+        EasyMock.expect(delegate.find(String.class, 2L)).andReturn(null);
+        EasyMock.expect(delegate.merge("second")).andReturn("second");
+        EasyMock.expect(delegate.isOpen()).andStubReturn(true);
+        EasyMock.replay(factory, delegate);
+
+        final EntityManagerMonitor monitor = new EntityManagerMonitor("test", 0L);
+        final DestroyableEntityManager manager = new DestroyableEntityManager(factory, monitor);
+        Assert.assertEquals(0, monitor.getOpen());
+
+        manager.find(String.class, 1L);
+        manager.find(String.class, 2L);
+        manager.persist("first");
+        manager.clear();
+        manager.merge("second");
+        Assert.assertEquals(1, monitor.getOpen());
+        Assert.assertEquals(1L, monitor.getOpened());
+
+        manager.destroy();
+        Assert.assertEquals(0, monitor.getOpen());
+        Assert.assertEquals(1L, monitor.getClosed());
+        Assert.assertEquals(2L, monitor.getFinds());
+        Assert.assertEquals(2L, monitor.getWrites());
+        Assert.assertEquals(4L, monitor.getMaxOperations());
+        Assert.assertEquals(2L, monitor.getMaxFoundOrWrittenEntities());
+
+        EasyMock.verify(factory, delegate);
+    }
+
+    /**
+     * Tests that managers open longer than the threshold are reported once.
+     */
+    @Test
+    public void leak() {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final EntityManager delegate = EasyMock.createNiceMock("delegate", EntityManager.class);
+        EasyMock.expect(factory.createEntityManager()).andReturn(delegate);
+        EasyMock.replay(factory, delegate);
+
+        final EntityManagerMonitor monitor = new EntityManagerMonitor("test", 1L);
+        final DestroyableEntityManager manager = new DestroyableEntityManager(factory, monitor);
+        manager.find(String.class, 1L);
+
+        monitor.check();
+        monitor.check();
+        Assert.assertEquals(1L, monitor.getLeaks());
+
+        manager.destroy();
+        Assert.assertEquals(0, monitor.getOpen());
+    }
+
+}
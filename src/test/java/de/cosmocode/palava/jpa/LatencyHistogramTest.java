@@ -0,0 +1,68 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link LatencyHistogram}.
+ *
+ * @author Willi Schoenborn
+ */
+public final class LatencyHistogramTest {
+
+    private static final double DELTA = 0.0001;
+
+    /**
+     * Tests an empty histogram.
+     */
+    @Test
+    public void empty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0L, histogram.getCount());
+        Assert.assertEquals(0.0, histogram.getMean(), DELTA);
+        Assert.assertEquals(0.0, histogram.getPercentile(0.99), DELTA);
+    }
+
+    /**
+     * Tests mean, max and percentiles.
+     */
+    @Test
+    public void record() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        histogram.record(-1L);
+
+        Assert.assertEquals(100L, histogram.getCount());
+        Assert.assertEquals((99 * 100 + 10000) / 1000.0 / 100, histogram.getMean(), DELTA);
+        Assert.assertEquals(10.0, histogram.getMax(), DELTA);
+        // 100 micros fall into [64, 128)
+        Assert.assertEquals(0.128, histogram.getPercentile(0.5), DELTA);
+        Assert.assertEquals(0.128, histogram.getPercentile(0.99), DELTA);
+        Assert.assertEquals(16.384, histogram.getPercentile(1.0), DELTA);
+
+        histogram.reset();
+        Assert.assertEquals(0L, histogram.getCount());
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.cosmocode.collections.Procedure;
+import de.cosmocode.palava.core.lifecycle.LifecycleException;
+
+/**
+ * Tests {@link ParallelBootstrap}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class ParallelBootstrapTest {
+
+    private static final Procedure<EntityManagerFactory> UNEXPECTED = new Procedure<EntityManagerFactory>() {
+
+        @Override
+        public void apply(EntityManagerFactory input) {
+            Assert.fail("No factory expected");
+        }
+
+    };
+
+    /**
+     * Tests that awaiting a failed bootstrap fails and forgets about it afterwards.
+     *
+     * @throws LifecycleException if the second await fails
+     */
+    @Test
+    public void await() throws LifecycleException {
+        final ParallelBootstrap bootstrap = new ParallelBootstrap();
+        bootstrap.submit("missing", null, UNEXPECTED);
+        try {
+            bootstrap.await();
+            Assert.fail("Expected a LifecycleException");
+        } catch (LifecycleException e) {
+            // expected
+        } finally {
+            bootstrap.dispose();
+        }
+        bootstrap.await();
+    }
+
+    /**
+     * Tests that bootstraps submitted after awaiting are awaited right away.
+     *
+     * @throws LifecycleException if the first await fails
+     */
+    @Test(expected = LifecycleException.class)
+    public void late() throws LifecycleException {
+        final ParallelBootstrap bootstrap = new ParallelBootstrap();
+        try {
+            bootstrap.await();
+            bootstrap.submit("missing", null, UNEXPECTED);
+        } finally {
+            bootstrap.dispose();
+        }
+    }
+
+}
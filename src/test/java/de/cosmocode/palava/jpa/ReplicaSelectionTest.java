@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link ReplicaSelection}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class ReplicaSelectionTest {
+
+    /**
+     * Tests that round robin uses all replicas in turn.
+     */
+    @Test
+    public void roundRobin() {
+        final AtomicInteger counter = new AtomicInteger();
+        final AtomicIntegerArray outstanding = new AtomicIntegerArray(3);
+        outstanding.set(1, 10);
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals(i % 3, ReplicaSelection.ROUND_ROBIN.select(counter, outstanding));
+        }
+    }
+
+    /**
+     * Tests that least outstanding prefers idle replicas.
+     */
+    @Test
+    public void leastOutstanding() {
+        final AtomicInteger counter = new AtomicInteger();
+        final AtomicIntegerArray outstanding = new AtomicIntegerArray(new int[] {4, 2, 0});
+        Assert.assertEquals(2, ReplicaSelection.LEAST_OUTSTANDING.select(counter, outstanding));
+        outstanding.set(2, 3);
+        Assert.assertEquals(1, ReplicaSelection.LEAST_OUTSTANDING.select(counter, outstanding));
+    }
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.sql.SQLException;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+
+/**
+ * Tests {@link Retries}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class RetriesTest {
+
+    /**
+     * Tests detection of concurrent modification failures in cause chains.
+     */
+    @Test
+    public void isRetriable() {
+        Assert.assertTrue(Retries.isRetriable(new IpcCommandExecutionException(new OptimisticLockException())));
+        Assert.assertTrue(Retries.isRetriable(new PersistenceException(new SQLException("deadlock", "40P01"))));
+        Assert.assertTrue(Retries.isRetriable(new PersistenceException(new SQLException("deadlock", "HY000", 1213))));
+        Assert.assertFalse(Retries.isRetriable(new PersistenceException(new SQLException("duplicate", "23505"))));
+        Assert.assertFalse(Retries.isRetriable(new IllegalStateException()));
+    }
+
+    /**
+     * Tests that backoffs stay within their exponentially growing bounds.
+     */
+    @Test
+    public void backoff() {
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(Retries.backoff(1, 50L) < 50L);
+            Assert.assertTrue(Retries.backoff(3, 50L) < 200L);
+        }
+        Assert.assertEquals(0L, Retries.backoff(5, 0L));
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
+import javax.persistence.QueryTimeoutException;
+import javax.persistence.TypedQuery;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link SlowQueryEntityManager} and {@link SlowQueryLog}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class SlowQueryEntityManagerTest {
+
+    /**
+     * Tests that setters return the decorator and results are passed through.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void decorated() {
+        final EntityManager delegate = EasyMock.createMock("delegate", EntityManager.class);
+        final TypedQuery<String> query = EasyMock.createMock("query", TypedQuery.class);
+        final List<String> result = Arrays.asList("a", "b");
+
+        EasyMock.expect(delegate.createNamedQuery("all", String.class)).andReturn(query);
+        EasyMock.expect(query.setParameter(1, "value")).andReturn(query);
+        EasyMock.expect(query.setMaxResults(10)).andReturn(query);
+        EasyMock.expect(query.getResultList()).andReturn(result);
+        EasyMock.expect(query.getParameters()).andStubReturn(Collections.<Parameter<?>>emptySet());
+        EasyMock.replay(delegate, query);
+
+        final EntityManager manager = new SlowQueryEntityManager(delegate, new SlowQueryLog(0L));
+        final TypedQuery<String> decorated = manager.createNamedQuery("all", String.class);
+        Assert.assertNotSame(query, decorated);
+        Assert.assertSame(decorated, decorated.setParameter(1, "value"));
+        Assert.assertSame(decorated, decorated.setMaxResults(10));
+        Assert.assertEquals(result, decorated.getResultList());
+
+        EasyMock.verify(delegate, query);
+    }
+
+    /**
+     * Tests that failed executions are recorded as well.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failed() {
+        final EntityManager delegate = EasyMock.createMock("delegate", EntityManager.class);
+        final TypedQuery<String> query = EasyMock.createMock("query", TypedQuery.class);
+        final QueryTimeoutException timeout = new QueryTimeoutException();
+
+        EasyMock.expect(delegate.createNamedQuery("all", String.class)).andReturn(query);
+        EasyMock.expect(query.getResultList()).andThrow(timeout);
+        // parameters are only requested when logging
+        EasyMock.expect(query.getParameters()).andReturn(Collections.<Parameter<?>>emptySet());
+        EasyMock.replay(delegate, query);
+
+        final EntityManager manager = new SlowQueryEntityManager(delegate, new SlowQueryLog(0L));
+        try {
+            manager.createNamedQuery("all", String.class).getResultList();
+            Assert.fail("Expected " + timeout);
+        } catch (QueryTimeoutException e) {
+            Assert.assertSame(timeout, e);
+        }
+
+        EasyMock.verify(delegate, query);
+    }
+
+}
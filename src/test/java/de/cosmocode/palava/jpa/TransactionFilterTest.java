@@ -0,0 +1,164 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Map;
+
+import javax.management.MBeanServerFactory;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Provider;
+
+import de.cosmocode.palava.ipc.IpcCall;
+import de.cosmocode.palava.ipc.IpcCallFilterChain;
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommandExecutionException;
+
+/**
+ * Tests retries of the {@link TransactionFilter}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class TransactionFilterTest {
+
+    private final DestroyableEntityManager manager = new DestroyableEntityManager(
+        EasyMock.createMock("factory", EntityManagerFactory.class));
+
+    private final TransactionMetrics metrics = new TransactionMetrics();
+
+    private final TransactionFilter filter;
+
+    private final IpcCall call = EasyMock.createMock("call", IpcCall.class);
+
+    private final Chain chain = new Chain();
+
+    public TransactionFilterTest() {
+        metrics.setServer(MBeanServerFactory.newMBeanServer());
+        filter = new TransactionFilter(new Provider<EntityManager>() {
+
+            @Override
+            public EntityManager get() {
+                return manager;
+            }
+
+        }, metrics);
+    }
+
+    /**
+     * Tests that failed attempts are executed again without passing the chain again.
+     *
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void retry() throws IpcCommandExecutionException {
+        final Retrying command = new Retrying(2);
+        final Map<String, Object> result = filter.filter(call, command, chain);
+        Assert.assertEquals(3, result.get("attempt"));
+        Assert.assertEquals(3, command.attempts);
+        Assert.assertEquals(1, chain.calls);
+        Assert.assertEquals(2L, metrics.of(Retrying.class).getRetries());
+    }
+
+    /**
+     * Tests that the last failure is propagated once all attempts failed.
+     *
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void exhausted() throws IpcCommandExecutionException {
+        final Retrying command = new Retrying(3);
+        try {
+            filter.filter(call, command, chain);
+            Assert.fail("Expected " + OptimisticLockException.class);
+        } catch (OptimisticLockException e) {
+            Assert.assertEquals(3, command.attempts);
+            Assert.assertEquals(1, chain.calls);
+            Assert.assertEquals(1L, metrics.of(Retrying.class).getRetriesExhausted());
+        }
+    }
+
+    /**
+     * Tests that commands joining an outer transaction are never executed again.
+     *
+     * @throws IpcCommandExecutionException should not happen
+     */
+    @Test
+    public void joined() throws IpcCommandExecutionException {
+        final Retrying command = new Retrying(1);
+        manager.getTransaction().begin();
+        try {
+            filter.filter(call, command, chain);
+            Assert.fail("Expected " + OptimisticLockException.class);
+        } catch (OptimisticLockException e) {
+            Assert.assertEquals(1, command.attempts);
+            Assert.assertEquals(0L, metrics.of(Retrying.class).getRetries());
+        } finally {
+            manager.getTransaction().rollback();
+        }
+    }
+
+    /**
+     * A chain which executes the command.
+     */
+    private static final class Chain implements IpcCallFilterChain {
+
+        private int calls;
+
+        @Override
+        public Map<String, Object> filter(IpcCall call, IpcCommand command) throws IpcCommandExecutionException {
+            calls++;
+            final Map<String, Object> result = Maps.newHashMap();
+            command.execute(call, result);
+            return result;
+        }
+
+    }
+
+    /**
+     * A command which fails due to concurrent modifications a given number of times.
+     */
+    private static final class Retrying implements IpcCommand {
+
+        private final int failures;
+
+        private int attempts;
+
+        public Retrying(int failures) {
+            this.failures = failures;
+        }
+
+        @Transactional(attempts = 3, backoff = 0L)
+        @Override
+        public void execute(IpcCall call, Map<String, Object> result) throws IpcCommandExecutionException {
+            attempts++;
+            if (attempts <= failures) {
+                throw new OptimisticLockException();
+            }
+            result.put("attempt", attempts);
+        }
+
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.concurrent.Callable;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.Query;
+import javax.persistence.TransactionRequiredException;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link TransactionMode}.
+ *
+ * @author Willi Schoenborn
+ */
+public final class TransactionModeTest {
+
+    private Callable<String> persist(final EntityManager manager) {
+        return new Callable<String>() {
+            
+            @Override
+            public String call() {
+                manager.persist("audit");
+                return "done";
+            }
+            
+        };
+    }
+
+    /**
+     * Tests {@link TransactionMode#REQUIRES_NEW} with an active transaction.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void requiresNew() throws Exception {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final EntityManager outer = EasyMock.createMock("outer", EntityManager.class);
+        final EntityTransaction outerTx = EasyMock.createMock("outerTx", EntityTransaction.class);
+        final EntityManager inner = EasyMock.createMock("inner", EntityManager.class);
+        final EntityTransaction innerTx = EasyMock.createMock("innerTx", EntityTransaction.class);
+        
+        EasyMock.expect(factory.createEntityManager()).andReturn(outer);
+        EasyMock.expect(factory.createEntityManager()).andReturn(inner);
+        EasyMock.expect(outer.getTransaction()).andStubReturn(outerTx);
+        EasyMock.expect(inner.getTransaction()).andStubReturn(innerTx);
+        outerTx.begin();
+        outer.flush();
+        EasyMock.expect(outerTx.isActive()).andStubReturn(true);
+        innerTx.begin();
+        inner.persist("audit");
+        innerTx.commit();
+        EasyMock.expect(innerTx.isActive()).andStubReturn(false);
+        EasyMock.expect(inner.isOpen()).andReturn(true);
+        inner.close();
+        outer.clear();
+        EasyMock.replay(factory, outer, outerTx, inner, innerTx);
+        
+        final DestroyableEntityManager manager = new DestroyableEntityManager(factory);
+        manager.getTransaction().begin();
+        manager.flush();
+        Assert.assertEquals("done", TransactionMode.REQUIRES_NEW.execute(manager, persist(manager)));
+        manager.clear();
+        
+        EasyMock.verify(factory, outer, outerTx, inner, innerTx);
+    }
+
+    /**
+     * Tests {@link TransactionMode#REQUIRED} in read only mode.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void readOnly() throws Exception {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final EntityManager delegate = EasyMock.createMock("delegate", EntityManager.class);
+        final EntityTransaction tx = EasyMock.createMock("tx", EntityTransaction.class);
+        final Query query = EasyMock.createMock("query", Query.class);
+        
+        EasyMock.expect(factory.createEntityManager()).andReturn(delegate);
+        EasyMock.expect(delegate.getFlushMode()).andReturn(FlushModeType.AUTO);
+        delegate.setFlushMode(FlushModeType.COMMIT);
+        EasyMock.expect(delegate.getTransaction()).andStubReturn(tx);
+        tx.begin();
+        EasyMock.expect(delegate.createNamedQuery("list")).andReturn(query);
+        EasyMock.expect(query.setHint(EasyMock.<String>notNull(), EasyMock.notNull())).andStubReturn(query);
+        tx.rollback();
+        delegate.setFlushMode(FlushModeType.AUTO);
+        EasyMock.replay(factory, delegate, tx, query);
+        
+        final DestroyableEntityManager manager = new DestroyableEntityManager(factory);
+        final Query result = TransactionMode.REQUIRED.execute(manager, true, new Callable<Query>() {
+            
+            @Override
+            public Query call() {
+                return manager.createNamedQuery("list");
+            }
+            
+        });
+        Assert.assertSame(query, result);
+        
+        EasyMock.verify(factory, delegate, tx, query);
+    }
+
+    /**
+     * Tests {@link TransactionMode#SUPPORTS} without an active transaction.
+     * 
+     * @throws Exception should not happen
+     */
+    @Test
+    public void supports() throws Exception {
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        manager.persist("audit");
+        EasyMock.replay(manager);
+        
+        Assert.assertEquals("done", TransactionMode.SUPPORTS.execute(manager, persist(manager)));
+        
+        EasyMock.verify(manager);
+    }
+
+    /**
+     * Tests {@link TransactionMode#MANDATORY} without an active transaction.
+     * 
+     * @throws Exception expected
+     */
+    @Test(expected = TransactionRequiredException.class)
+    public void mandatory() throws Exception {
+        final EntityManager manager = EasyMock.createMock("manager", EntityManager.class);
+        final EntityTransaction tx = EasyMock.createMock("tx", EntityTransaction.class);
+        EasyMock.expect(manager.getTransaction()).andStubReturn(tx);
+        EasyMock.expect(tx.isActive()).andStubReturn(false);
+        EasyMock.replay(manager, tx);
+        
+        TransactionMode.MANDATORY.execute(manager, persist(manager));
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa;
+
+import java.util.Collections;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+/**
+ * Tests {@link WarmUp}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class WarmUpTest {
+
+    /**
+     * Tests that all named queries are compiled and connections are opened at once.
+     */
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void run() {
+        final EntityManagerFactory factory = EasyMock.createMock("factory", EntityManagerFactory.class);
+        final Metamodel metamodel = EasyMock.createMock("metamodel", Metamodel.class);
+        final EntityType type = EasyMock.createNiceMock("type", EntityType.class);
+        final EntityManager compiler = EasyMock.createMock("compiler", EntityManager.class);
+        final EntityManager first = EasyMock.createNiceMock("first", EntityManager.class);
+        final EntityManager second = EasyMock.createNiceMock("second", EntityManager.class);
+        final EntityTransaction transaction = EasyMock.createNiceMock("transaction", EntityTransaction.class);
+        final Query probe = EasyMock.createNiceMock("probe", Query.class);
+
+        EasyMock.expect(factory.getMetamodel()).andReturn(metamodel);
+        EasyMock.expect(metamodel.getManagedTypes()).andReturn((Set) Collections.singleton(type));
+        EasyMock.expect(metamodel.getEntities()).andReturn((Set) Collections.singleton(type));
+        EasyMock.expect(type.getJavaType()).andStubReturn(Queried.class);
+        EasyMock.expect(type.getName()).andStubReturn("Queried");
+        EasyMock.expect(factory.createEntityManager()).andReturn(compiler);
+        EasyMock.expect(compiler.createNamedQuery("a")).andReturn(null);
+        EasyMock.expect(compiler.createNamedQuery("b")).andReturn(null);
+        compiler.close();
+        EasyMock.expect(factory.createEntityManager()).andReturn(first);
+        EasyMock.expect(factory.createEntityManager()).andReturn(second);
+        EasyMock.expect(first.getTransaction()).andStubReturn(transaction);
+        EasyMock.expect(second.getTransaction()).andStubReturn(transaction);
+        EasyMock.expect(first.createQuery("SELECT e FROM Queried e")).andReturn(probe);
+        EasyMock.expect(second.createQuery("SELECT e FROM Queried e")).andReturn(probe);
+        EasyMock.expect(probe.setMaxResults(1)).andStubReturn(probe);
+        EasyMock.replay(factory, metamodel, type, compiler, first, second, transaction, probe);
+
+        new WarmUp("test", 2).run(factory);
+
+        EasyMock.verify(factory, metamodel, compiler, first, second);
+    }
+
+    /**
+     * A class declaring named queries.
+     *
+     * @author Willi Schoenborn
+     */
+    @NamedQueries({
+        @NamedQuery(name = "a", query = "SELECT q FROM Queried q"),
+        @NamedQuery(name = "b", query = "SELECT q FROM Queried q WHERE q.id = :id")
+    })
+    private static final class Queried {
+
+    }
+
+}
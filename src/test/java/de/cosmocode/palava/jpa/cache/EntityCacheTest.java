@@ -0,0 +1,94 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link EntityCache}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class EntityCacheTest {
+
+    /**
+     * Tests hits, misses and size bounded eviction.
+     */
+    @Test
+    public void bounded() {
+        final EntityCache cache = new EntityCache(100, 1L, TimeUnit.HOURS);
+        Assert.assertTrue(cache.put(String.class, 1L, "a", null, cache.stamp()));
+        Assert.assertEquals("a", cache.get(String.class, 1L));
+        Assert.assertNull(cache.get(String.class, 2L));
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(1L, cache.getMisses());
+
+        for (long identifier = 0L; identifier < 1000L; identifier++) {
+            cache.put(String.class, identifier, "a", null, cache.stamp());
+        }
+        Assert.assertTrue(cache.getSize() <= 100);
+        Assert.assertEquals(1000L - cache.getSize(), cache.getEvictions());
+    }
+
+    /**
+     * Tests that entities loaded before an invalidation are rejected.
+     */
+    @Test
+    public void invalidated() {
+        final EntityCache cache = new EntityCache(10, 1L, TimeUnit.HOURS);
+        final long before = cache.stamp();
+        cache.invalidate(String.class, 1L);
+        Assert.assertFalse(cache.put(String.class, 1L, "stale", null, before));
+        Assert.assertTrue(cache.put(String.class, 1L, "fresh", null, cache.stamp()));
+        Assert.assertEquals("fresh", cache.get(String.class, 1L));
+
+        final long loading = cache.stamp();
+        cache.invalidateAll(String.class);
+        Assert.assertNull(cache.get(String.class, 1L));
+        Assert.assertFalse(cache.put(String.class, 2L, "stale", null, loading));
+    }
+
+    /**
+     * Tests that older versions never replace newer ones.
+     */
+    @Test
+    public void versioned() {
+        final EntityCache cache = new EntityCache(10, 1L, TimeUnit.HOURS);
+        Assert.assertTrue(cache.put(String.class, 1L, "new", 2, cache.stamp()));
+        Assert.assertFalse(cache.put(String.class, 1L, "old", 1, cache.stamp()));
+        Assert.assertEquals("new", cache.get(String.class, 1L));
+    }
+
+    /**
+     * Tests that expired entries are not served.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void expired() throws InterruptedException {
+        final EntityCache cache = new EntityCache(10, 1L, TimeUnit.MILLISECONDS);
+        cache.put(String.class, 1L, "a", null, cache.stamp());
+        Thread.sleep(5L);
+        Assert.assertNull(cache.get(String.class, 1L));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.jpa.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests {@link QueryResultCache}.
+ *
+ * @since 3.6
+ * @author Willi Schoenborn
+ */
+public final class QueryResultCacheTest {
+
+    private static final Set<Class<?>> TOUCHES = ImmutableSet.<Class<?>>of(Integer.class);
+
+    /**
+     * Tests that results are keyed by query name and parameter values.
+     */
+    @Test
+    public void keyed() {
+        final QueryResultCache cache = new QueryResultCache(10, 1L, TimeUnit.HOURS);
+        Assert.assertTrue(cache.put("byName", new Object[] {"a", null}, Arrays.asList(1L, 2L), TOUCHES, cache.stamp()));
+        Assert.assertEquals(Arrays.asList(1L, 2L), cache.get("byName", new Object[] {"a", null}));
+        Assert.assertNull(cache.get("byName", new Object[] {"b", null}));
+        Assert.assertNull(cache.get("other", new Object[] {"a", null}));
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(2L, cache.getMisses());
+    }
+
+    /**
+     * Tests that the number of cached results is bounded.
+     */
+    @Test
+    public void bounded() {
+        final QueryResultCache cache = new QueryResultCache(100, 1L, TimeUnit.HOURS);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("byId", new Object[] {i}, Collections.singletonList(i), TOUCHES, cache.stamp());
+        }
+        Assert.assertTrue(cache.getSize() <= 100);
+        Assert.assertEquals(1000L - cache.getSize(), cache.getEvictions());
+    }
+
+    /**
+     * Tests that writing a touched class or a sub class invalidates results.
+     */
+    @Test
+    public void invalidate() {
+        final QueryResultCache cache = new QueryResultCache(10, 1L, TimeUnit.HOURS);
+        final Object[] none = new Object[0];
+        final Set<Class<?>> numbers = ImmutableSet.<Class<?>>of(Number.class);
+        cache.put("integers", none, Collections.singletonList(1), TOUCHES, cache.stamp());
+        cache.put("numbers", none, Collections.singletonList(1), numbers, cache.stamp());
+        cache.invalidate(String.class);
+        Assert.assertNotNull(cache.get("integers", none));
+        Assert.assertNotNull(cache.get("numbers", none));
+
+        final long executing = cache.stamp();
+        cache.invalidate(Integer.class);
+        Assert.assertNull(cache.get("integers", none));
+        Assert.assertNull(cache.get("numbers", none));
+        Assert.assertFalse(cache.put("integers", none, Collections.singletonList(1), TOUCHES, executing));
+        Assert.assertTrue(cache.put("integers", none, Collections.singletonList(1), TOUCHES, cache.stamp()));
+    }
+
+    /**
+     * Tests that writing a super class invalidates results touching its sub classes.
+     */
+    @Test
+    public void invalidateSuperClass() {
+        final QueryResultCache cache = new QueryResultCache(10, 1L, TimeUnit.HOURS);
+        final Object[] none = new Object[0];
+        cache.put("integers", none, Collections.singletonList(1), TOUCHES, cache.stamp());
+        cache.invalidate(Number.class);
+        Assert.assertNull(cache.get("integers", none));
+    }
+
+}
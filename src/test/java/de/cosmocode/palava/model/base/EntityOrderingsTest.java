@@ -0,0 +1,189 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.model.base;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+import de.cosmocode.rendering.Renderer;
+import de.cosmocode.rendering.RenderingLevel;
+
+/**
+ * Tests {@link EntityOrderings}.
+ *
+ * @author Willi Schoenborn
+ */
+public final class EntityOrderingsTest {
+
+    private static final int SIZE = 1000;
+
+    private static final Ordering<EntityBase> ID = Ordering.natural().onResultOf(new Function<EntityBase, Long>() {
+
+        @Override
+        public Long apply(EntityBase from) {
+            return from.getId();
+        }
+
+    });
+
+    private static final Ordering<EntityBase> AGE = Ordering.natural().nullsLast().onResultOf(
+        new Function<EntityBase, Date>() {
+
+            @Override
+            public Date apply(EntityBase from) {
+                return from.getCreatedAt();
+            }
+
+        });
+
+    private static final Ordering<EntityBase> MODIFICATION = Ordering.natural().reverse().nullsLast().onResultOf(
+        new Function<EntityBase, Date>() {
+
+            @Override
+            public Date apply(EntityBase from) {
+                return from.getModifiedAt();
+            }
+
+        });
+
+    private List<EntityBase> entities() {
+        final Random random = new Random(SIZE);
+        final List<EntityBase> entities = Lists.newArrayListWithCapacity(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            // small value ranges produce duplicates which verify stability
+            final TestEntity entity = new TestEntity(random.nextInt(SIZE / 10) - SIZE / 20);
+            entity.setCreatedAt(random.nextInt(5) == 0 ? null : new Date(random.nextInt(SIZE / 10)));
+            entity.setModifiedAt(random.nextInt(5) == 0 ? null : new Date(random.nextInt(SIZE / 10)));
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private void assertSame(List<EntityBase> expected, List<EntityBase> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertSame("Index " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Tests {@link EntityBase#ORDER_BY_ID} against a boxing reference implementation.
+     */
+    @Test
+    public void orderById() {
+        final List<EntityBase> expected = entities();
+        final List<EntityBase> actual = Lists.newArrayList(expected);
+        Collections.sort(expected, ID);
+        Collections.sort(actual, EntityBase.ORDER_BY_ID);
+        assertSame(expected, actual);
+    }
+
+    /**
+     * Tests {@link EntityBase#ORDER_BY_AGE} against a boxing reference implementation.
+     */
+    @Test
+    public void orderByAge() {
+        final List<EntityBase> expected = entities();
+        final List<EntityBase> actual = Lists.newArrayList(expected);
+        Collections.sort(expected, AGE);
+        Collections.sort(actual, EntityBase.ORDER_BY_AGE);
+        assertSame(expected, actual);
+    }
+
+    /**
+     * Tests {@link EntityBase#ORDER_BY_MODIFICATION} against a boxing reference implementation.
+     */
+    @Test
+    public void orderByModification() {
+        final List<EntityBase> expected = entities();
+        final List<EntityBase> actual = Lists.newArrayList(expected);
+        Collections.sort(expected, MODIFICATION);
+        Collections.sort(actual, EntityBase.ORDER_BY_MODIFICATION);
+        assertSame(expected, actual);
+    }
+
+    /**
+     * Tests {@link EntityOrderings#sortById(List)}.
+     */
+    @Test
+    public void sortById() {
+        final List<EntityBase> expected = entities();
+        final List<EntityBase> actual = Lists.newLinkedList(expected);
+        Collections.sort(expected, ID);
+        EntityOrderings.sortById(actual);
+        assertSame(expected, actual);
+    }
+
+    /**
+     * Tests {@link EntityOrderings#sortByAge(List)}.
+     */
+    @Test
+    public void sortByAge() {
+        final List<EntityBase> expected = entities();
+        final List<EntityBase> actual = Lists.newArrayList(expected);
+        Collections.sort(expected, AGE);
+        EntityOrderings.sortByAge(actual);
+        assertSame(expected, actual);
+    }
+
+    /**
+     * Tests {@link EntityOrderings#sortByModification(List)}.
+     */
+    @Test
+    public void sortByModification() {
+        final List<EntityBase> expected = entities();
+        final List<EntityBase> actual = Lists.newArrayList(expected);
+        Collections.sort(expected, MODIFICATION);
+        EntityOrderings.sortByModification(actual);
+        assertSame(expected, actual);
+    }
+
+    /**
+     * A simple non persistent entity.
+     *
+     * @author Willi Schoenborn
+     */
+    private static final class TestEntity extends AbstractEntity {
+
+        private final long id;
+
+        public TestEntity(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public void render(Renderer renderer, RenderingLevel level) {
+            // not required
+        }
+
+    }
+
+}